@@ -0,0 +1,69 @@
+package network;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exceptions.PacketException;
+
+/**
+ * Benchmark of getting the payload of a Packet (String part, byte[] part, or a view of it).
+ * @author huub.lievestro
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketBenchmark {
+
+	/**
+	 * Length of the byte[] part of the payload, in bytes.
+	 */
+	@Param({"8", "1008", "65000"})
+	public int bytesLength;
+
+	/**
+	 * Packet with a String part ("DOWNLOAD;file;") followed by a byte[] part.
+	 */
+	private Packet packet;
+
+	/**
+	 * Create the Packet.
+	 * @throws PacketException
+	 */
+	@Setup
+	public void setup() throws PacketException {
+		byte[] string = "DOWNLOAD;file;".getBytes();
+		byte[] payload = util.Bytes.concatArray(string, new byte[this.bytesLength]);
+		this.packet = new Packet(1, null, 0, null, 0, payload, string.length);
+	}
+
+	@Benchmark
+	public String getPayloadString() {
+		return this.packet.getPayloadString();
+	}
+
+	@Benchmark
+	public byte[] getPayloadBytes() {
+		return this.packet.getPayloadBytes();
+	}
+
+	@Benchmark
+	public Object getPayloadView() {
+		return this.packet.getPayloadView();
+	}
+
+}
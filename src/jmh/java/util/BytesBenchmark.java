@@ -0,0 +1,76 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of the Byte utilities used per packet (concatenation) and per request (serialising).
+ * @author huub.lievestro
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BytesBenchmark {
+
+	/**
+	 * Length of the arrays to concatenate, in bytes.
+	 */
+	@Param({"16", "1008", "65491"})
+	public int arrayLength;
+
+	/**
+	 * First array to concatenate (like a header).
+	 */
+	private byte[] first;
+
+	/**
+	 * Second array to concatenate (like a payload).
+	 */
+	private byte[] second;
+
+	/**
+	 * File array to serialise (like the response to a LIST request).
+	 */
+	private File[] fileList;
+
+	/**
+	 * Create the arrays, and the file list.
+	 */
+	@Setup
+	public void setup() {
+		this.first = new byte[16];
+		this.second = new byte[this.arrayLength];
+		this.fileList = new File[32];
+		for (int i = 0; i < this.fileList.length; i++) {
+			this.fileList[i] = new File("files/file-" + i + ".bin");
+		}
+	}
+
+	@Benchmark
+	public byte[] concatArray() {
+		return util.Bytes.concatArray(this.first, this.second);
+	}
+
+	@Benchmark
+	public byte[] serialiseObjectToByteArray() throws IOException {
+		return util.Bytes.serialiseObjectToByteArray(this.fileList);
+	}
+
+}
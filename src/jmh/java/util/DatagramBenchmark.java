@@ -0,0 +1,106 @@
+package util;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import exceptions.PacketException;
+import exceptions.UtilDatagramException;
+import network.Packet;
+
+/**
+ * Benchmark of building and parsing datagrams: the cost per packet send and received.
+ * @author huub.lievestro
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatagramBenchmark {
+
+	/**
+	 * Payload length of the Packet, in bytes (default and largest packet size).
+	 */
+	@Param({"1008", "65491"})
+	public int payloadLength;
+
+	/**
+	 * Packet to build a datagram from.
+	 */
+	private Packet packet;
+
+	/**
+	 * Received datagram to create a Packet from.
+	 */
+	private DatagramPacket datagram;
+
+	/**
+	 * Socket the datagram is "received" on.
+	 */
+	private DatagramSocket socket;
+
+	/**
+	 * Create the Packet, and the datagram as received.
+	 * @throws PacketException
+	 * @throws UtilDatagramException
+	 * @throws SocketException
+	 */
+	@Setup
+	public void setup() throws PacketException, UtilDatagramException, SocketException {
+		InetAddress localhost = InetAddress.getLoopbackAddress();
+		this.packet = new Packet(4242, localhost, 0, localhost, 1234, 
+				new byte[this.payloadLength], 0);
+		this.packet.setConnectionId(4097);
+		this.datagram = util.Datagram.buildDatagram(this.packet, 1234);
+		this.datagram.setAddress(localhost);
+		this.socket = new DatagramSocket();
+	}
+
+	/**
+	 * Close the socket.
+	 */
+	@TearDown
+	public void tearDown() {
+		this.socket.close();
+	}
+
+	/**
+	 * Build a datagram to send from a Packet.
+	 * @return the datagram
+	 * @throws UtilDatagramException
+	 */
+	@Benchmark
+	public DatagramPacket buildDatagram() throws UtilDatagramException {
+		return util.Datagram.buildDatagram(this.packet, 1234);
+	}
+
+	/**
+	 * Create a Packet from a received datagram.
+	 * @return the Packet
+	 * @throws PacketException
+	 * @throws UtilDatagramException
+	 */
+	@Benchmark
+	public Packet createPacketFromDatagram() throws PacketException, UtilDatagramException {
+		return util.Datagram.createPacketFromDatagram(this.datagram, this.socket);
+	}
+
+}
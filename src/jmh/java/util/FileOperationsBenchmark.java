@@ -0,0 +1,71 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of hashing a file (done after every transfer, to check its integrity).
+ * @author huub.lievestro
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileOperationsBenchmark {
+
+	/**
+	 * Size of the file to hash, in bytes.
+	 */
+	@Param({"1048576", "67108864"})
+	public int fileSize;
+
+	/**
+	 * File to hash.
+	 */
+	private File file;
+
+	/**
+	 * Create a file with random contents.
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws IOException {
+		byte[] contents = new byte[this.fileSize];
+		new Random(42).nextBytes(contents);
+		this.file = File.createTempFile("hash", ".bin");
+		util.FileOperations.setFileContents(contents, this.file);
+	}
+
+	/**
+	 * Delete the file.
+	 */
+	@TearDown
+	public void tearDown() {
+		this.file.delete();
+	}
+
+	@Benchmark
+	public String getHashHexString() throws IOException, NoSuchAlgorithmException {
+		return util.FileOperations.getHashHexString(this.file);
+	}
+
+}
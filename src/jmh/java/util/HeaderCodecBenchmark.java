@@ -0,0 +1,180 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import exceptions.PacketException;
+import exceptions.UtilByteException;
+import exceptions.UtilDatagramException;
+import network.Packet;
+import protocol.FileTransferProtocol;
+
+/**
+ * Benchmark of the HeaderCodec, against the previous codec (Bytes.subArray/int2ByteArray).
+ * Note: run with "gradlew jmh", add "-prof gc" to the JMH arguments to see allocations
+ * @author huub.lievestro
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeaderCodecBenchmark {
+
+	/**
+	 * Payload length of the Packet, in bytes.
+	 */
+	@Param({"1024", "65491"})
+	public int payloadLength;
+
+	/**
+	 * Packet to encode.
+	 */
+	private Packet packet;
+
+	/**
+	 * Encoded datagram (header followed by payload) to decode.
+	 */
+	private byte[] datagram;
+
+	/**
+	 * Codec reused for every datagram.
+	 */
+	private HeaderCodec codec;
+
+	/**
+	 * Datagram buffer to write headers in (as reused by a sender).
+	 */
+	private byte[] buffer;
+
+	/**
+	 * Create the Packet and its encoded datagram.
+	 * @throws PacketException
+	 * @throws UtilDatagramException
+	 */
+	@Setup
+	public void setup() throws PacketException, UtilDatagramException {
+		this.packet = new Packet(4242, null, 0, null, 0, new byte[this.payloadLength], 5);
+		this.packet.setConnectionId(4097);
+		this.datagram = util.Datagram.buildDatagram(this.packet, 1234).getData();
+		this.codec = new HeaderCodec();
+		this.buffer = new byte[FileTransferProtocol.TOTAL_HEADER_SIZE + this.payloadLength];
+	}
+
+	/**
+	 * Read the header fields as before: a copy and a ByteBuffer per field.
+	 * @param blackhole to consume the fields
+	 * @throws UtilByteException
+	 */
+	@Benchmark
+	public void readHeaderPrevious(Blackhole blackhole) throws UtilByteException {
+		blackhole.consume(util.Bytes.byteArray2int(util.Bytes.subArray(this.datagram,
+				FileTransferProtocol.HEADER_ID_START, FileTransferProtocol.HEADER_ID_LAST)));
+		blackhole.consume(util.Bytes.byteArray2int(util.Bytes.subArray(this.datagram,
+				FileTransferProtocol.HEADER_HEADER_LENGTH_START,
+				FileTransferProtocol.HEADER_HEADER_LENGTH_LAST)));
+		blackhole.consume(util.Bytes.byteArray2int(util.Bytes.subArray(this.datagram,
+				FileTransferProtocol.HEADER_BYTE_OFFSET_START,
+				FileTransferProtocol.HEADER_BYTE_OFFSET_LAST)));
+		blackhole.consume(util.Bytes.byteArray2int(util.Bytes.subArray(this.datagram,
+				FileTransferProtocol.HEADER_CONNECTION_ID_START,
+				FileTransferProtocol.HEADER_CONNECTION_ID_LAST)));
+	}
+
+	/**
+	 * Read the header fields with the codec, directly from the datagram.
+	 * @param blackhole to consume the fields
+	 */
+	@Benchmark
+	public void readHeaderCodec(Blackhole blackhole) {
+		this.codec.wrap(this.datagram);
+		blackhole.consume(this.codec.getId());
+		blackhole.consume(this.codec.getHeaderLength());
+		blackhole.consume(this.codec.getByteOffset());
+		blackhole.consume(this.codec.getConnectionId());
+	}
+
+	/**
+	 * Read the header fields via the codec of the thread, as Datagram does for every datagram.
+	 * Note: should not allocate at all (gc.alloc.rate.norm of 0 with "-prof gc")
+	 * @param blackhole to consume the fields
+	 */
+	@Benchmark
+	public void readHeaderDatagram(Blackhole blackhole) {
+		HeaderCodec header = util.Datagram.wrapHeader(this.datagram);
+		blackhole.consume(header.getId());
+		blackhole.consume(header.getHeaderLength());
+		blackhole.consume(header.getByteOffset());
+		blackhole.consume(header.getConnectionId());
+	}
+
+	/**
+	 * Write the header of the Packet via the codec of the thread, in a reused buffer.
+	 * Note: should not allocate at all (gc.alloc.rate.norm of 0 with "-prof gc")
+	 * @return the buffer
+	 * @throws UtilDatagramException
+	 */
+	@Benchmark
+	public byte[] writeHeaderDatagram() throws UtilDatagramException {
+		util.Datagram.writeHeader(this.packet, util.Datagram.wrapHeader(this.buffer));
+		return this.buffer;
+	}
+
+	/**
+	 * Build a datagram as before: four arrays for the header, and two concatenations.
+	 * @return the datagram
+	 * @throws UtilByteException
+	 */
+	@Benchmark
+	public byte[] buildDatagramPrevious() throws UtilByteException {
+		byte[] header = util.Bytes.concatArray(
+				util.Bytes.int2ByteArray(this.packet.getId()),
+				util.Bytes.int2ByteArray(FileTransferProtocol.TOTAL_HEADER_SIZE),
+				util.Bytes.int2ByteArray(this.packet.getByteOffset()),
+				util.Bytes.int2ByteArray(this.packet.getConnectionId()));
+		return util.Bytes.concatArray(header, this.packet.getPayload());
+	}
+
+	/**
+	 * Build a datagram with the codec: header written in place, payload copied once.
+	 * @return the datagram
+	 * @throws UtilDatagramException
+	 */
+	@Benchmark
+	public byte[] buildDatagramCodec() throws UtilDatagramException {
+		return util.Datagram.buildDatagram(this.packet, 1234).getData();
+	}
+
+	/**
+	 * Get the byte[] payload of a Packet as before: as a copy.
+	 * @return the payload
+	 */
+	@Benchmark
+	public byte[] payloadCopy() {
+		return this.packet.getPayloadBytes();
+	}
+
+	/**
+	 * Get the byte[] payload of a Packet as a view, without copying.
+	 * @return the payload
+	 */
+	@Benchmark
+	public Object payloadView() {
+		return this.packet.getPayloadView();
+	}
+
+}
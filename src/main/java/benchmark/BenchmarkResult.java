@@ -0,0 +1,215 @@
+package benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Result of one scenario of the LoopbackBenchmark:
+ * a direction and file size, transferred by a number of concurrent transfers (repeated).
+ * @author huub.lievestro
+ *
+ */
+public class BenchmarkResult {
+
+	/**
+	 * Names of the columns (CSV) or fields (JSON), in order.
+	 */
+	public static final String[] FIELDS = {"direction", "fileSize", "concurrent", "repeat",
+		"packetSize", "transferred", "failed", "seconds", "throughputMBps", "latencyP50ms",
+		"latencyP90ms", "latencyP99ms", "latencyMaxMs", "retransmits", "droppedSends",
+		"allocatedBytes", "allocatedBytesPerPacket", "gcCount", "gcTimeMs"};
+
+	/**
+	 * Direction of the transfers: download or upload (as seen by the client).
+	 */
+	private String direction;
+
+	/**
+	 * Size of the transferred file, in bytes.
+	 */
+	private long fileSize;
+
+	/**
+	 * Number of concurrent transfers.
+	 */
+	private int concurrent;
+
+	/**
+	 * Number of repetitions of the concurrent transfers.
+	 */
+	private int repeat;
+
+	/**
+	 * Packet size of the transfers, in bytes.
+	 */
+	private int packetSize;
+
+	/**
+	 * Number of complete transfers.
+	 */
+	private int transferred;
+
+	/**
+	 * Number of failed transfers (shut down or timed out before complete).
+	 */
+	private int failed;
+
+	/**
+	 * Total time of all repetitions, in seconds.
+	 */
+	private double seconds;
+
+	/**
+	 * Time of every complete transfer, from request to complete, in milliseconds (sorted).
+	 */
+	private List<Double> latencies;
+
+	/**
+	 * Number of packets retransmitted by the uploaders.
+	 */
+	private long retransmits;
+
+	/**
+	 * Number of packets dropped, because the send buffer of a (non-blocking) socket was full.
+	 */
+	private long droppedSends;
+
+	/**
+	 * Bytes allocated during all repetitions (server and client).
+	 */
+	private long allocatedBytes;
+
+	/**
+	 * Number of garbage collections during all repetitions.
+	 */
+	private long gcCount;
+
+	/**
+	 * Time spend in garbage collections during all repetitions, in milliseconds.
+	 */
+	private long gcTimeMs;
+
+	/**
+	 * Create a new BenchmarkResult.
+	 * @param direction of the transfers (download or upload)
+	 * @param fileSize in bytes
+	 * @param concurrent transfers
+	 * @param repeat of the concurrent transfers
+	 * @param packetSize of the transfers, in bytes
+	 */
+	public BenchmarkResult(String direction, long fileSize, int concurrent, int repeat,
+			int packetSize) {
+		this.direction = direction;
+		this.fileSize = fileSize;
+		this.concurrent = concurrent;
+		this.repeat = repeat;
+		this.packetSize = packetSize;
+	}
+
+	/**
+	 * Set the measured results.
+	 * @param transferred number of complete transfers
+	 * @param failed number of failed transfers
+	 * @param seconds total time of all repetitions
+	 * @param latencies time of every complete transfer, in milliseconds
+	 * @param retransmits by the uploaders
+	 * @param droppedSends because the send buffer of a socket was full
+	 * @param gcMonitor stopped after all repetitions
+	 */
+	public void setMeasurements(int transferred, int failed, double seconds,
+			List<Double> latencies, long retransmits, long droppedSends, GcMonitor gcMonitor) {
+		this.transferred = transferred;
+		this.failed = failed;
+		this.seconds = seconds;
+		this.latencies = latencies;
+		Collections.sort(this.latencies);
+		this.retransmits = retransmits;
+		this.droppedSends = droppedSends;
+		this.allocatedBytes = gcMonitor.getAllocatedBytes();
+		this.gcCount = gcMonitor.getCount();
+		this.gcTimeMs = gcMonitor.getTimeMillis();
+	}
+
+	/**
+	 * Get the throughput of the complete transfers.
+	 * @return throughput in MB/s (10^6 bytes per second)
+	 */
+	public double getThroughput() {
+		return this.seconds > 0 ? this.transferred * this.fileSize / this.seconds / 1e6 : 0;
+	}
+
+	/**
+	 * Get a percentile of the latencies (nearest rank).
+	 * @param percentile between 0 and 100
+	 * @return latency in milliseconds, or zero if no transfer completed
+	 */
+	public double getLatency(double percentile) {
+		if (this.latencies == null || this.latencies.isEmpty()) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(percentile / 100 * this.latencies.size());
+		return this.latencies.get(Math.min(Math.max(rank, 1), this.latencies.size()) - 1);
+	}
+
+	/**
+	 * Get the values of all fields, in the order of FIELDS.
+	 * @return values (as String, numbers unquoted)
+	 */
+	public String[] getValues() {
+		int payloadLength = this.packetSize - FileTransferProtocol.TOTAL_HEADER_SIZE;
+		long packets = Math.max(1, (this.fileSize + payloadLength - 1) / payloadLength);
+		return new String[] {this.direction, String.valueOf(this.fileSize),
+			String.valueOf(this.concurrent), String.valueOf(this.repeat),
+			String.valueOf(this.packetSize), String.valueOf(this.transferred),
+			String.valueOf(this.failed), format(this.seconds), format(this.getThroughput()),
+			format(this.getLatency(50)), format(this.getLatency(90)), format(this.getLatency(99)),
+			format(this.getLatency(100)), String.valueOf(this.retransmits),
+			String.valueOf(this.droppedSends),
+			String.valueOf(this.allocatedBytes),
+			String.valueOf(this.allocatedBytes / (packets * Math.max(1, this.transferred))),
+			String.valueOf(this.gcCount), String.valueOf(this.gcTimeMs)};
+	}
+
+	/**
+	 * Get the header line of a CSV file.
+	 * @return names of the columns, separated by commas
+	 */
+	public static String toCsvHeader() {
+		return String.join(",", FIELDS);
+	}
+
+	/**
+	 * Get this result as a line of a CSV file.
+	 * @return values, separated by commas
+	 */
+	public String toCsv() {
+		return String.join(",", this.getValues());
+	}
+
+	/**
+	 * Get this result as a JSON object.
+	 * @return JSON object, with a field for every value
+	 */
+	public String toJson() {
+		String[] values = this.getValues();
+		StringBuilder json = new StringBuilder("{");
+		for (int i = 0; i < FIELDS.length; i++) {
+			json.append(i > 0 ? ", " : "").append('"').append(FIELDS[i]).append("\": ");
+			json.append(i == 0 ? "\"" + values[i] + "\"" : values[i]); // only direction is text
+		}
+		return json.append('}').toString();
+	}
+
+	/**
+	 * Format a measured value, with three decimals.
+	 * @param value to format
+	 * @return formatted value (with a dot as decimal separator)
+	 */
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+}
@@ -0,0 +1,176 @@
+package benchmark;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Monitors garbage collections while a benchmark runs: their number, time and the bytes allocated.
+ * Note: allocated bytes = bytes freed by every collection + growth of the used heap,
+ * so it includes allocations of threads that ended in the meantime (e.g. of helpers)
+ * @author huub.lievestro
+ *
+ */
+public class GcMonitor implements NotificationListener {
+
+	/**
+	 * Bytes freed by the collections since the start.
+	 */
+	private AtomicLong freedBytes;
+
+	/**
+	 * Used heap at the start, in bytes.
+	 */
+	private long startUsedHeap;
+
+	/**
+	 * Number of collections before the start.
+	 */
+	private long startCount;
+
+	/**
+	 * Time spend in collections before the start, in milliseconds.
+	 */
+	private long startTime;
+
+	/**
+	 * Used heap at the stop, in bytes.
+	 */
+	private long stopUsedHeap;
+
+	/**
+	 * Number of collections before the stop.
+	 */
+	private long stopCount;
+
+	/**
+	 * Time spend in collections before the stop, in milliseconds.
+	 */
+	private long stopTime;
+
+	/**
+	 * Create a new GcMonitor (not started yet).
+	 */
+	public GcMonitor() {
+		this.freedBytes = new AtomicLong();
+	}
+
+	/**
+	 * Start monitoring: listen to the notifications of every collector.
+	 */
+	public void start() {
+		this.freedBytes.set(0);
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter) {
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+			}
+		}
+		this.startUsedHeap = getUsedHeap();
+		this.startCount = getCollectionCount();
+		this.startTime = getCollectionTime();
+	}
+
+	/**
+	 * Stop monitoring.
+	 * Note: a notification of a collection just before the stop may still be counted
+	 */
+	public void stop() {
+		this.stopUsedHeap = getUsedHeap();
+		this.stopCount = getCollectionCount();
+		this.stopTime = getCollectionTime();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			if (collector instanceof NotificationEmitter) {
+				try {
+					((NotificationEmitter) collector).removeNotificationListener(this);
+				} catch (ListenerNotFoundException e) {
+					// not listening to this collector: nothing to remove
+				}
+			}
+		}
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (!notification.getType().equals(
+				GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+			return;
+		}
+		GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from(
+				(CompositeData) notification.getUserData());
+		long before = 0;
+		for (MemoryUsage usage : info.getGcInfo().getMemoryUsageBeforeGc().values()) {
+			before += usage.getUsed();
+		}
+		long after = 0;
+		for (MemoryUsage usage : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+			after += usage.getUsed();
+		}
+		this.freedBytes.addAndGet(Math.max(0, before - after));
+	}
+
+	/**
+	 * Get the bytes allocated between start and stop.
+	 * @return allocated bytes (estimate, see class description)
+	 */
+	public long getAllocatedBytes() {
+		return Math.max(0, this.freedBytes.get() + this.stopUsedHeap - this.startUsedHeap);
+	}
+
+	/**
+	 * Get the number of collections between start and stop.
+	 * @return number of collections
+	 */
+	public long getCount() {
+		return this.stopCount - this.startCount;
+	}
+
+	/**
+	 * Get the time spend in collections between start and stop.
+	 * @return time in milliseconds
+	 */
+	public long getTimeMillis() {
+		return this.stopTime - this.startTime;
+	}
+
+	/**
+	 * Get the used heap (of all memory pools) now.
+	 * @return used heap in bytes
+	 */
+	public static long getUsedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * Get the total number of collections (of all collectors) until now.
+	 * @return number of collections
+	 */
+	public static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, collector.getCollectionCount());
+		}
+		return count;
+	}
+
+	/**
+	 * Get the total time spend in collections (of all collectors) until now.
+	 * @return time in milliseconds
+	 */
+	public static long getCollectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, collector.getCollectionTime());
+		}
+		return time;
+	}
+
+}
@@ -0,0 +1,636 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import client.FileTransferClient;
+import exceptions.ExitProgram;
+import helpers.DownloadHelper;
+import helpers.Helper;
+import helpers.UploadHelper;
+import network.NetworkEmulator;
+import network.TransportLayer;
+import protocol.FileTransferProtocol;
+import server.FileTransferClientHandler;
+import server.FileTransferServer;
+
+/**
+ * Headless benchmark of complete transfers over loopback:
+ * starts a FileTransferServer and a scripted FileTransferClient in one JVM,
+ * transfers generated files and reports throughput, latency, retransmits and GC stats.
+ * Note: the server stores uploads in its normal storage (sandbox of the client "benchmark"),
+ * they are deleted after every transfer
+ * @author huub.lievestro
+ *
+ */
+public class LoopbackBenchmark {
+
+	/**
+	 * Name of the scripted client.
+	 */
+	public static final String CLIENT_NAME = "benchmark";
+
+	/**
+	 * Interval to check if the transfers are complete, in milliseconds.
+	 */
+	public static final int POLL_INTERVAL = 1;
+
+	/**
+	 * Size of the block of random bytes that is repeated in the generated files.
+	 */
+	public static final int BLOCK_SIZE = 1 << 20;
+
+	/**
+	 * Extra delay of packets reordered by the emulated network, in milliseconds.
+	 */
+	public static final int REORDER_DELAY = 10;
+
+	/**
+	 * Sizes of the files to transfer, in bytes.
+	 */
+	private List<Long> fileSizes;
+
+	/**
+	 * Number of concurrent transfers.
+	 */
+	private int concurrent;
+
+	/**
+	 * Number of stripes every download is split in (1: not striped).
+	 */
+	private int stripes;
+
+	/**
+	 * Number of repetitions of the concurrent transfers (per file size and direction).
+	 */
+	private int repeat;
+
+	/**
+	 * Directions to benchmark: download and/or upload (as seen by the client).
+	 */
+	private List<String> directions;
+
+	/**
+	 * Maximal time a transfer may take, in milliseconds (fails if not complete).
+	 */
+	private long timeout;
+
+	/**
+	 * Indicates if the transferred files are checked (by their hash).
+	 */
+	private boolean verify;
+
+	/**
+	 * Emulated impairments of the network (null to use loopback as it is).
+	 */
+	private NetworkEmulator emulator;
+
+	/**
+	 * Server to transfer from and to.
+	 */
+	private FileTransferServer server;
+
+	/**
+	 * Scripted client, to start the transfers.
+	 */
+	private FileTransferClient client;
+
+	/**
+	 * Directory for generated and downloaded files.
+	 */
+	private Path workDirectory;
+
+	/**
+	 * Create a new LoopbackBenchmark (defaults: 1 KB, 1 MB and 16 MB, one at a time, 3 times).
+	 */
+	public LoopbackBenchmark() {
+		this.fileSizes = List.of(1L << 10, 1L << 20, 16L << 20);
+		this.concurrent = 1;
+		this.stripes = 1;
+		this.repeat = 3;
+		this.directions = List.of(FileTransferProtocol.DOWNLOAD, FileTransferProtocol.UPLOAD);
+		this.timeout = 600000;
+		this.verify = false;
+		this.emulator = null;
+	}
+
+	/**
+	 * Start the server and a scripted client with a session, over loopback.
+	 * @param useEventLoop true to run all server clients and transfers on one event loop
+	 * @param singlePort true to run all server sessions and transfers over one port
+	 * @param pacingRate of server uploads (zero to derive, negative if not paced)
+	 * @param maxPacketSize to request for transfers
+	 * @throws ExitProgram if the server or client could not be started
+	 * @throws IOException if the work directory could not be created
+	 */
+	public void setup(boolean useEventLoop, boolean singlePort, long pacingRate, int maxPacketSize)
+			throws ExitProgram, IOException {
+		this.workDirectory = Files.createTempDirectory("FTbenchmark");
+		if (this.emulator != null) { // both directions, also the requests and responses
+			TransportLayer.setDefaultNetworkEmulator(this.emulator);
+		}
+
+		this.server = new FileTransferServer(0, useEventLoop, singlePort); // any free port
+		this.server.setPacingRate(pacingRate);
+		Thread serverThread = new Thread(this.server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		this.client = new FileTransferClient(CLIENT_NAME, InetAddress.getLoopbackAddress(),
+				this.server.getPort(), this.workDirectory.resolve("client"), maxPacketSize);
+	}
+
+	/**
+	 * Run all scenarios: every direction and file size.
+	 * @param progress stream to report progress on
+	 * @return results, one for every scenario
+	 * @throws IOException if files could not be generated
+	 */
+	public List<BenchmarkResult> run(PrintStream progress) throws IOException {
+		List<BenchmarkResult> results = new ArrayList<>();
+		for (String direction : this.directions) {
+			for (long fileSize : this.fileSizes) {
+				progress.println("Benchmarking " + direction + " of " + fileSize + " bytes, "
+						+ this.concurrent + " concurrent, " + (this.stripes > 1 && direction.equals(
+						FileTransferProtocol.DOWNLOAD) ? this.stripes + " stripes, " : "") 
+						+ this.repeat + " times...");
+				BenchmarkResult result = this.runScenario(direction, fileSize);
+				progress.println("... done: " + result.toJson());
+				results.add(result);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Run one scenario: repeat concurrent transfers of one file size in one direction.
+	 * @param direction download or upload (as seen by the client)
+	 * @param fileSize in bytes
+	 * @return result of the scenario
+	 * @throws IOException if files could not be generated
+	 */
+	public BenchmarkResult runScenario(String direction, long fileSize) throws IOException {
+		boolean download = direction.equals(FileTransferProtocol.DOWNLOAD);
+		File source = this.workDirectory.resolve("source-" + fileSize + ".bin").toFile();
+		generateFile(source, fileSize);
+		String sourceHash = this.verify ? getHash(source) : null;
+
+		List<File> files = new ArrayList<>(); // one name per transfer, so they do not collide
+		for (int i = 0; i < this.concurrent; i++) {
+			Path link = this.workDirectory.resolve("bench-" + fileSize + "-" + i + ".bin");
+			Files.deleteIfExists(link);
+			files.add(Files.createSymbolicLink(link, source.toPath()).toFile());
+		}
+
+		BenchmarkResult result = new BenchmarkResult(direction, fileSize, this.concurrent,
+				this.repeat, this.client.getPacketSize());
+		List<Double> latencies = new ArrayList<>();
+		int failed = 0;
+		long totalNanos = 0;
+		long retransmitsBefore = this.countRetransmits();
+		long droppedSendsBefore = TransportLayer.getDroppedSends();
+
+		GcMonitor gcMonitor = new GcMonitor();
+		gcMonitor.start();
+		for (int r = 0; r < this.repeat; r++) {
+			long start = System.nanoTime();
+			List<List<Helper>> helpers = new ArrayList<>(); // per transfer: one, or one per stripe
+			long[] startTimes = new long[files.size()];
+			for (int i = 0; i < files.size(); i++) {
+				startTimes[i] = System.nanoTime();
+				List<Helper> started = download ? this.client.getDownloads() : this.client.getUploads();
+				int before = started.size();
+				boolean requested;
+				if (!download) {
+					requested = this.client.uploadSingleFile(files.get(i));
+				} else if (this.stripes > 1) {
+					requested = this.client.downloadStriped(files.get(i), this.stripes);
+				} else {
+					requested = this.client.downloadSingleFile(files.get(i));
+				}
+				helpers.add(requested ? new ArrayList<>(started.subList(before, started.size())) 
+						: null);
+			}
+
+			long[] endTimes = new long[files.size()];
+			int pending = files.size();
+			while (pending > 0 && System.nanoTime() - start < this.timeout * 1000000L) {
+				pending = 0;
+				for (int i = 0; i < helpers.size(); i++) {
+					if (endTimes[i] == 0 && isFinished(helpers.get(i)) 
+							&& (!isComplete(helpers.get(i)) // complete once renamed from part file
+									|| this.getReceivedFile(download, files.get(i)).exists())) {
+						endTimes[i] = System.nanoTime();
+					} else if (endTimes[i] == 0) {
+						pending++;
+					}
+				}
+				sleep(POLL_INTERVAL);
+			}
+			totalNanos += System.nanoTime() - start;
+
+			for (int i = 0; i < helpers.size(); i++) {
+				File received = this.getReceivedFile(download, files.get(i));
+				if (endTimes[i] != 0 && isComplete(helpers.get(i)) && (sourceHash == null
+						|| sourceHash.equals(getHash(received)))) {
+					latencies.add((endTimes[i] - startTimes[i]) / 1e6);
+				} else {
+					failed++;
+					for (Helper helper : helpers.get(i) != null ? helpers.get(i) : List.<Helper>of()) {
+						if (!helper.isSocketClosed()) {
+							helper.shutdown(); // timed out: stop it
+						}
+					}
+					this.shutdownServerHelpers(); // and its peer, so it does not load the next
+				}
+				Files.deleteIfExists(received.toPath());
+			}
+		}
+		gcMonitor.stop();
+
+		result.setMeasurements(latencies.size(), failed, totalNanos / 1e9, latencies,
+				this.countRetransmits() - retransmitsBefore,
+				TransportLayer.getDroppedSends() - droppedSendsBefore, gcMonitor);
+		this.removeFinishedHelpers(); // so later scenarios do not count them again
+
+		for (File file : files) {
+			Files.deleteIfExists(file.toPath());
+		}
+		Files.deleteIfExists(source.toPath());
+		return result;
+	}
+
+	/**
+	 * Count the packets retransmitted by all uploaders, of the client and the server.
+	 * @return number of retransmitted packets until now
+	 */
+	public long countRetransmits() {
+		List<Helper> uploads = new ArrayList<>(this.client.getUploads());
+		for (FileTransferClientHandler handler : new ArrayList<>(this.server.getClients())) {
+			uploads.addAll(handler.getUploads());
+		}
+		long retransmits = 0;
+		for (Helper upload : uploads) {
+			retransmits += ((UploadHelper) upload).getTotalResendPackets();
+		}
+		return retransmits;
+	}
+
+	/**
+	 * Shutdown the helpers of the server which are not complete and still running
+	 * (the peers of timed-out transfers).
+	 */
+	public void shutdownServerHelpers() {
+		for (FileTransferClientHandler handler : new ArrayList<>(this.server.getClients())) {
+			List<Helper> helpers = new ArrayList<>(handler.getUploads());
+			helpers.addAll(handler.getDownloads());
+			for (Helper helper : helpers) {
+				if (!isComplete(helper) && !helper.isSocketClosed()) {
+					helper.shutdown();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the helpers which are finished (socket closed) from the client and the server.
+	 */
+	public void removeFinishedHelpers() {
+		this.client.getDownloads().removeIf(Helper::isSocketClosed);
+		this.client.getUploads().removeIf(Helper::isSocketClosed);
+		for (FileTransferClientHandler handler : new ArrayList<>(this.server.getClients())) {
+			handler.getUploads().removeIf(Helper::isSocketClosed);
+			handler.getDownloads().removeIf(Helper::isSocketClosed);
+		}
+	}
+
+	/**
+	 * Get the file as received by the other side.
+	 * @param download true if the client downloaded the file
+	 * @param file as transferred
+	 * @return file as received (by the client, or in the server storage of the client)
+	 */
+	public File getReceivedFile(boolean download, File file) {
+		Path storage = download ? this.client.getFileStorage()
+				: this.server.getFileStorage(CLIENT_NAME);
+		return storage.resolve(file.getName()).toFile();
+	}
+
+	/**
+	 * Shutdown client and server, and remove the work directory.
+	 */
+	public void shutdown() {
+		if (this.client != null) {
+			this.client.shutdown();
+		}
+		if (this.server != null) {
+			this.server.shutdown();
+		}
+		if (this.emulator != null) {
+			TransportLayer.setDefaultNetworkEmulator(null);
+			this.emulator.shutdown();
+		}
+		if (this.workDirectory != null) {
+			try (Stream<Path> paths = Files.walk(this.workDirectory)) {
+				paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+			} catch (IOException e) {
+				System.err.println("Removing " + this.workDirectory + " failed: "
+						+ e.getLocalizedMessage());
+			}
+		}
+	}
+
+	/**
+	 * Get the emulated network, and create one (with the default seed) if not done yet.
+	 * @return NetworkEmulator, impairing all packets send
+	 */
+	public NetworkEmulator getEmulator() {
+		if (this.emulator == null) {
+			this.emulator = new NetworkEmulator(0);
+		}
+		return this.emulator;
+	}
+
+	/**
+	 * Check if a transfer is finished: complete, or its helper shut down.
+	 * @param helper of the transfer (null if the transfer could not be requested)
+	 * @return true if finished
+	 */
+	public static boolean isFinished(Helper helper) {
+		return helper == null || isComplete(helper) || helper.isSocketClosed();
+	}
+
+	/**
+	 * Check if a (striped) transfer is finished: all its helpers finished.
+	 * @param helpers of the transfer (null if the transfer could not be requested)
+	 * @return true if finished
+	 */
+	public static boolean isFinished(List<Helper> helpers) {
+		if (helpers == null) {
+			return true;
+		}
+		for (Helper helper : helpers) {
+			if (!isFinished(helper)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check if a transfer is complete.
+	 * @param helper of the transfer at the client
+	 * @return true if the download is complete, or the upload is acknowledged completely
+	 */
+	public static boolean isComplete(Helper helper) {
+		if (helper instanceof DownloadHelper) {
+			return ((DownloadHelper) helper).isComplete();
+		} else if (helper instanceof UploadHelper) {
+			return ((UploadHelper) helper).isTransferDone();
+		}
+		return false;
+	}
+
+	/**
+	 * Check if a (striped) transfer is complete: all its helpers complete.
+	 * @param helpers of the transfer at the client (null if it could not be requested)
+	 * @return true if complete
+	 */
+	public static boolean isComplete(List<Helper> helpers) {
+		if (helpers == null || helpers.isEmpty()) {
+			return false;
+		}
+		for (Helper helper : helpers) {
+			if (!isComplete(helper)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Generate a file with random contents (a random block, repeated).
+	 * @param file to generate
+	 * @param fileSize in bytes
+	 * @throws IOException
+	 */
+	public static void generateFile(File file, long fileSize) throws IOException {
+		byte[] block = new byte[(int) Math.min(BLOCK_SIZE, Math.max(1, fileSize))];
+		new Random(fileSize).nextBytes(block);
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			long position = 0;
+			while (position < fileSize) {
+				ByteBuffer buffer = ByteBuffer.wrap(block, 0,
+						(int) Math.min(block.length, fileSize - position));
+				position += util.FileOperations.writeFileChannel(channel, buffer, position);
+			}
+		}
+	}
+
+	/**
+	 * Get the hash of a file.
+	 * @param file to hash
+	 * @return hash as HEX string, or null if the file could not be hashed
+	 */
+	public static String getHash(File file) {
+		try {
+			return util.FileOperations.getHashHexString(file);
+		} catch (IOException | NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parse a size, with an optional K, M or G suffix (powers of 1024).
+	 * @param size to parse, e.g. 64K
+	 * @return size in bytes
+	 */
+	public static long parseSize(String size) {
+		String number = size.trim().toUpperCase();
+		int shift = 0;
+		if (number.endsWith("K")) {
+			shift = 10;
+		} else if (number.endsWith("M")) {
+			shift = 20;
+		} else if (number.endsWith("G")) {
+			shift = 30;
+		}
+		if (shift > 0) {
+			number = number.substring(0, number.length() - 1);
+		}
+		return Long.parseLong(number) << shift;
+	}
+
+	/**
+	 * Sleep, ignoring interrupts.
+	 * @param milliseconds to sleep
+	 */
+	private static void sleep(long milliseconds) {
+		try {
+			Thread.sleep(milliseconds);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// ------------------ Main --------------------------
+
+	/**
+	 * Run the benchmark, and write the results as CSV or JSON.
+	 * @param args see syntax (all optional)
+	 */
+	public static void main(String[] args) {
+		LoopbackBenchmark benchmark = new LoopbackBenchmark();
+		boolean useEventLoop = false;
+		boolean singlePort = false;
+		long pacingRate = -1;
+		int packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
+		String format = "csv";
+		String outputFile = null;
+		boolean verbose = false;
+
+		try {
+			for (String arg : args) { // seed first, so the other impairments are not lost
+				if (arg.startsWith("seed=")) {
+					benchmark.emulator = new NetworkEmulator(Long.parseLong(arg.substring(5)));
+				}
+			}
+			for (String arg : args) {
+				String value = arg.substring(arg.indexOf('=') + 1);
+				if (arg.startsWith("sizes=")) {
+					benchmark.fileSizes = new ArrayList<>();
+					for (String size : value.split(",")) {
+						benchmark.fileSizes.add(parseSize(size));
+					}
+				} else if (arg.startsWith("concurrent=")) {
+					benchmark.concurrent = Integer.parseInt(value);
+				} else if (arg.startsWith("stripes=")) {
+					benchmark.stripes = Integer.parseInt(value);
+				} else if (arg.startsWith("repeat=")) {
+					benchmark.repeat = Integer.parseInt(value);
+				} else if (arg.startsWith("direction=")) {
+					benchmark.directions = value.equals("both") ? benchmark.directions
+							: List.of(value.toUpperCase());
+				} else if (arg.startsWith("timeout=")) {
+					benchmark.timeout = Long.parseLong(value) * 1000;
+				} else if (arg.startsWith(FileTransferClient.PACKET_SIZE_ARGUMENT + "=")) {
+					packetSize = Integer.parseInt(value);
+				} else if (arg.equals(FileTransferServer.EVENT_LOOP_ARGUMENT)) {
+					useEventLoop = true;
+				} else if (arg.equals(FileTransferServer.SINGLE_PORT_ARGUMENT)) {
+					singlePort = true;
+				} else if (arg.equals(FileTransferServer.PACING_ARGUMENT)) {
+					pacingRate = 0;
+				} else if (arg.startsWith(FileTransferServer.PACING_ARGUMENT + "=")) {
+					pacingRate = Long.parseLong(value);
+				} else if (arg.startsWith("format=")
+						&& (value.equals("csv") || value.equals("json"))) {
+					format = value;
+				} else if (arg.startsWith("out=")) {
+					outputFile = value;
+				} else if (arg.startsWith("loss=")) {
+					benchmark.getEmulator().setLossRate(Double.parseDouble(value) / 100);
+				} else if (arg.startsWith("delay=")) {
+					benchmark.getEmulator().setDelay(Integer.parseInt(value),
+							benchmark.getEmulator().getJitter());
+				} else if (arg.startsWith("jitter=")) {
+					benchmark.getEmulator().setDelay(benchmark.getEmulator().getDelay(),
+							Integer.parseInt(value));
+				} else if (arg.startsWith("duplicate=")) {
+					benchmark.getEmulator().setDuplicateRate(Double.parseDouble(value) / 100);
+				} else if (arg.startsWith("reorder=")) {
+					benchmark.getEmulator().setReorderRate(Double.parseDouble(value) / 100,
+							REORDER_DELAY);
+				} else if (arg.startsWith("seed=")) {
+					// already applied
+				} else if (arg.startsWith(FileTransferServer.LOG_ARGUMENT + "=")
+						&& util.Logger.isValidConfiguration(value)) {
+					util.Logger.configure(value);
+				} else if (arg.equals("verify")) {
+					benchmark.verify = true;
+				} else if (arg.equals("verbose")) {
+					verbose = true;
+				} else {
+					throw new IllegalArgumentException("unknown argument " + arg);
+				}
+			}
+			if (!List.of(FileTransferProtocol.DOWNLOAD, FileTransferProtocol.UPLOAD)
+					.containsAll(benchmark.directions)) {
+				throw new IllegalArgumentException("unknown direction");
+			}
+		} catch (IllegalArgumentException e) { // also NumberFormatException
+			System.out.println("Invalid argument: " + e.getLocalizedMessage());
+			System.out.println("Syntax: LoopbackBenchmark [sizes=<bytes>[K|M|G],...]"
+					+ " [concurrent=<transfers>] [stripes=<per download>] [repeat=<times>] [direction=download|upload|both]"
+					+ " [timeout=<seconds>] [" + FileTransferClient.PACKET_SIZE_ARGUMENT
+					+ "=<bytes>] [" + FileTransferServer.EVENT_LOOP_ARGUMENT + "] ["
+					+ FileTransferServer.SINGLE_PORT_ARGUMENT + "] ["
+					+ FileTransferServer.PACING_ARGUMENT + "[=<bytes/second>]]"
+					+ " [loss=<%>] [delay=<ms>] [jitter=<ms>] [duplicate=<%>] [reorder=<%>]"
+					+ " [seed=<seed>] [" + FileTransferServer.LOG_ARGUMENT + "=<level>,...]"
+					+ " [format=csv|json] [out=<file>] [verify] [verbose]");
+			return;
+		}
+
+		PrintStream console = System.out;
+		if (!verbose) { // messages and progress bars of server, client and helpers
+			System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		}
+
+		List<BenchmarkResult> results = new ArrayList<>();
+		try {
+			benchmark.setup(useEventLoop, singlePort, pacingRate, packetSize);
+			results = benchmark.run(System.err);
+		} catch (ExitProgram | IOException e) {
+			System.err.println("Benchmark failed: " + e.getLocalizedMessage());
+		} finally {
+			benchmark.shutdown();
+			util.Logger.flush(); // before the messages can reach the console again
+			System.setOut(console);
+		}
+
+		StringBuilder report = new StringBuilder();
+		if (format.equals("json")) {
+			report.append("[\n");
+			for (int i = 0; i < results.size(); i++) {
+				report.append("  ").append(results.get(i).toJson())
+						.append(i < results.size() - 1 ? ",\n" : "\n");
+			}
+			report.append("]\n");
+		} else {
+			report.append(BenchmarkResult.toCsvHeader()).append('\n');
+			for (BenchmarkResult result : results) {
+				report.append(result.toCsv()).append('\n');
+			}
+		}
+
+		if (outputFile == null) {
+			console.print(report);
+		} else {
+			try {
+				Files.writeString(Path.of(outputFile), report);
+				console.println("Results written to " + outputFile);
+			} catch (IOException e) {
+				System.err.println("Writing results failed: " + e.getLocalizedMessage());
+				console.print(report);
+			}
+		}
+		System.exit(results.isEmpty() ? 1 : 0); // helper threads may still wait for time-outs
+	}
+
+}
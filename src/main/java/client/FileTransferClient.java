@@ -26,7 +26,10 @@ import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
 import helpers.DownloadHelper;
 import helpers.Helper;
+import helpers.PathMtu;
+import helpers.TransferJournal;
 import helpers.UploadHelper;
+import network.ConnectionTable;
 import network.NetworkLayer;
 import network.Packet;
 import network.TransportLayer;
@@ -41,6 +44,22 @@ import userInterface.TUICommands;
  */
 public class FileTransferClient {
 
+	/**
+	 * Logger of the client subsystem.
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.CLIENT);
+
+	/**
+	 * Argument to start the client with, to request larger packets for transfers 
+	 * (packetsize=&lt;bytes&gt;, the server may limit it).
+	 */
+	public static final String PACKET_SIZE_ARGUMENT = "packetsize";
+
+	/**
+	 * Smallest stripe of a striped download, in bytes (smaller files get less stripes).
+	 */
+	public static final long MIN_STRIPE_SIZE = 1L << 20;
+
 	/**
 	 * DatagramSocket to receive and send packets.
 	 */
@@ -71,6 +90,22 @@ public class FileTransferClient {
 	 */
 	int serverPort;
 	
+	/**
+	 * ID of the active session, to put in the header of packets to the server.
+	 * Note: zero if the server does not run sessions over a shared port
+	 */
+	int connectionId;
+	
+	/**
+	 * Maximal size of the packets of transfers, to request when starting a session (in bytes).
+	 */
+	private int maxPacketSize;
+	
+	/**
+	 * Maximal size of the packets of transfers in the active session, as agreed with the server.
+	 */
+	int packetSize;
+	
 	/**
 	 * Name of the active server.
 	 */
@@ -127,8 +162,20 @@ public class FileTransferClient {
 	 * @param port to use for this client
 	 */
 	public FileTransferClient(int port) {
+		this(port, FileTransferProtocol.DEFAULT_PACKET_SIZE);
+	}
+	
+	/**
+	 * Construct a new FileTransfer client.
+	 * @param port to use for this client
+	 * @param maxPacketSize of transfers, to request from the server
+	 */
+	public FileTransferClient(int port, int maxPacketSize) {
 		this.textUI = new userInterface.TUI();
 		
+		this.maxPacketSize = maxPacketSize;
+		this.packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
+		
 		this.fileStorageDirName = "FTCstorage";
 
 		this.ownPort = port;
@@ -158,6 +205,58 @@ public class FileTransferClient {
 		
 		this.clientRunning();
 	}
+	
+	/**
+	 * Construct a new FileTransfer client, which is scripted instead of taking user input
+	 * (e.g. for benchmarks): starts a session with the server, but does not run the TUI.
+	 * @param name of this client
+	 * @param serverAddress of the server
+	 * @param serverPort of the server
+	 * @param fileStorage to store downloads in (created if it does not exist)
+	 * @param maxPacketSize of transfers, to request from the server
+	 * @throws ExitProgram if the client could not be set up, or no session could be started
+	 */
+	public FileTransferClient(String name, InetAddress serverAddress, int serverPort, 
+			Path fileStorage, int maxPacketSize) throws ExitProgram {
+		this.textUI = new userInterface.TUI();
+		this.name = name;
+		
+		this.maxPacketSize = maxPacketSize;
+		this.packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
+		
+		this.root = fileStorage.toAbsolutePath().getParent();
+		this.fileStorage = fileStorage.toAbsolutePath();
+		this.fileStorageDirName = fileStorage.getFileName().toString();
+		
+		this.ownPort = 0; // any free port
+		this.sessionActive = false;
+		
+		this.downloads = new ArrayList<>();
+		this.uploads = new ArrayList<>();
+		
+		try {
+			Files.createDirectories(this.fileStorage);
+		} catch (IOException e) {
+			throw new ExitProgram("Failed to create file storage: " + e.getLocalizedMessage());
+		}
+		
+		this.serverAddress = serverAddress;
+		this.serverName = serverAddress.getHostName();
+		this.serverPort = serverPort;
+		
+		if (!this.setupSocket() || !this.setupOwnAddress()) {
+			throw new ExitProgram("Setting up the client failed");
+		}
+		try {
+			this.requestSession();
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			throw new ExitProgram("Starting a session failed: " + e.getLocalizedMessage());
+		}
+		if (!this.sessionActive) {
+			throw new ExitProgram("Server did not start a session");
+		}
+		this.running = true;
+	}
 
 	// ------------------ Client Setup --------------------------
 	/**
@@ -422,6 +521,23 @@ public class FileTransferClient {
 						this.showNamedError("Downloading file failed");
 					}
 					break;
+
+				case TUICommands.DOWNLOAD_RANGE:
+					File fileToDownloadRange = this.selectServerFile();
+					long rangeOffset = this.textUI.getLong("Offset of the first byte to download?");
+					long rangeLength = this.textUI.getLong("Number of bytes to download?");
+					if (!this.downloadFileRange(fileToDownloadRange, rangeOffset, rangeLength)) {
+						this.showNamedError("Downloading range of file failed");
+					}
+					break;
+
+				case TUICommands.DOWNLOAD_STRIPED:
+					File fileToDownloadStriped = this.selectServerFile();
+					int stripes = this.textUI.getInt("Number of stripes to download in parallel?");
+					if (!this.downloadStriped(fileToDownloadStriped, stripes)) {
+						this.showNamedError("Downloading file in stripes failed");
+					}
+					break;
 					
 				case TUICommands.UPLOAD_SINGLE:
 					File fileToUpload = this.selectLocalFile();
@@ -497,15 +613,22 @@ public class FileTransferClient {
 		try {
 			String sessionRequest = FileTransferProtocol.INIT_SESSION 
 					+ FileTransferProtocol.DELIMITER 
-					+ this.name;
+					+ this.name
+					+ FileTransferProtocol.DELIMITER 
+					+ this.maxPacketSize;
 			
+			this.connectionId = ConnectionTable.NO_CONNECTION; // not in a session yet
 			Packet responsePacket = this.requestServer(sessionRequest);
 			String[] responseSplit = this.getArguments(responsePacket.getPayloadString());
 
 			if (responseSplit[0].equals(FileTransferProtocol.INIT_SESSION)) {
 				this.sessionActive = true;
 				this.serverPort =  Integer.parseInt(responseSplit[1]); // update to clientHandler
-				this.showNamedMessage("Session started with server port = " + this.serverPort);
+				this.connectionId = responsePacket.getConnectionId();
+				this.packetSize = responseSplit.length > 2 // else: server does not negotiate
+						? Integer.parseInt(responseSplit[2]) : FileTransferProtocol.DEFAULT_PACKET_SIZE;
+				this.showNamedMessage("Session started with server port = " + this.serverPort
+						+ ", using packets of " + this.packetSize + " bytes");
 				return true;
 			} else {
 				this.sessionActive = false;
@@ -563,15 +686,119 @@ public class FileTransferClient {
 	 * @return boolean indicating if succeeded
 	 */
 	public boolean downloadSingleFile(File fileToDownload) {
-		boolean success = false;
+		return this.downloadFileRange(fileToDownload, 0, -1);
+	}
+	
+	/**
+	 * Request download of a range of a single file from the server,
+	 * and start a downloadHelper to write it at its place in the local file 
+	 * (which is created sparse if it does not exist, and otherwise kept outside the range).
+	 * @param File fileToDownload (NOTE: file as on server, not as to write on client!)
+	 * @param offset of the first byte to download
+	 * @param length number of bytes to download (cut off at the end of the file by the server), 
+	 * 		or -1 to download the whole file
+	 * @return boolean indicating if succeeded
+	 */
+	public boolean downloadFileRange(File fileToDownload, long offset, long length) {
+		if (length >= 0 && offset < 0) {
+			this.showNamedError("Invalid range: offset should not be negative");
+			return false;
+		}
 		this.showNamedMessage("WARNING: overwriting existing files!"); 
+		
+		DownloadHelper downloadHelper = this.requestDownload(fileToDownload, offset, length);
+		if (downloadHelper == null) {
+			return false;
+		}
+		new Thread(downloadHelper).start();
+		return true;
+	}
+	
+	/**
+	 * Request download of a single file from the server in stripes: contiguous ranges 
+	 * downloaded in parallel, each by its own uploader and downloadHelper (with own socket 
+	 * and thread), all writing at their place in one preallocated file.
+	 * Note: a file smaller than stripes * MIN_STRIPE_SIZE is downloaded in less stripes
+	 * @param File fileToDownload (NOTE: file as on server, not as to write on client!)
+	 * @param stripes number of stripes to download in parallel
+	 * @return boolean indicating if succeeded
+	 */
+	public boolean downloadStriped(File fileToDownload, int stripes) {
+		if (stripes < 1) {
+			this.showNamedError("Invalid number of stripes: should be at least 1");
+			return false;
+		}
+		this.showNamedMessage("WARNING: overwriting existing files!"); 
+		
+		// first stripe: request the whole file, to know its size (narrowed before starting)
+		DownloadHelper firstStripe = this.requestDownload(fileToDownload, 0, Long.MAX_VALUE);
+		if (firstStripe == null) {
+			return false;
+		}
+		long totalFileSize = firstStripe.getTotalFileSize();
+		int stripeCount = (int) Math.max(1, Math.min(stripes, totalFileSize / MIN_STRIPE_SIZE));
+		long stripeLength = (totalFileSize + stripeCount - 1) / stripeCount;
+		firstStripe.setRange(0, Math.min(stripeLength, totalFileSize));
+		
+		List<DownloadHelper> stripeHelpers = new ArrayList<>();
+		stripeHelpers.add(firstStripe);
+		boolean success = true;
+		try {
+			util.FileOperations.setFileLength(new File(this.fileStorage.toString() 
+					+ File.separator + fileToDownload.getName()), totalFileSize);
+		} catch (IOException e) {
+			this.showNamedError("Preallocating file failed: " + e.getLocalizedMessage());
+			success = false;
+		}
+		for (int i = 1; i < stripeCount && success; i++) {
+			long offset = i * stripeLength;
+			DownloadHelper stripe = this.requestDownload(fileToDownload, offset, 
+					Math.min(stripeLength, totalFileSize - offset));
+			if (stripe == null) {
+				success = false;
+			} else {
+				stripeHelpers.add(stripe);
+				success = stripe.getTotalFileSize() == totalFileSize; // else: changed meanwhile
+			}
+		}
+		
+		if (!success) { // stop the stripes requested so far, and their uploaders
+			this.showNamedError("Requesting stripes failed: cancelling striped download");
+			for (DownloadHelper stripe : stripeHelpers) {
+				stripe.cancel();
+				this.downloads.remove(stripe);
+			}
+			return false;
+		}
+		
+		this.showNamedMessage("Downloading in " + stripeCount + " stripes of " 
+				+ stripeLength + " bytes");
+		for (DownloadHelper stripe : stripeHelpers) {
+			stripe.setShowProgress(false);
+			new Thread(stripe).start();
+		}
+		return true;
+	}
+	
+	/**
+	 * Request download of (a range of) a single file from the server,
+	 * and create a downloadHelper to receive it (not started yet).
+	 * @param File fileToDownload (NOTE: file as on server, not as to write on client!)
+	 * @param offset of the first byte to download
+	 * @param length number of bytes to download (cut off at the end of the file by the server), 
+	 * 		or -1 to download the whole file
+	 * @return downloadHelper to start, or null if the request failed
+	 */
+	protected DownloadHelper requestDownload(File fileToDownload, long offset, long length) {
+		DatagramSocket downloadSocket = null;
+		DownloadHelper downloadHelper = null;
 		try {
 			// create downloadHandler
 			File fileToWrite = new File(this.fileStorage.toString() +
 					File.separator + fileToDownload.getName());
-			DatagramSocket downloadSocket = TransportLayer.openNewDatagramSocket();
+			downloadSocket = TransportLayer.openNewDatagramSocket();
 			
-			DownloadHelper downloadHelper = new DownloadHelper(this,
+			downloadHelper = new DownloadHelper(this,
 					downloadSocket, this.serverAddress, -2, -1, fileToWrite, -1); 
 			// note: uploaderPort, fileSize and startID still to set
 			this.downloads.add(downloadHelper);
@@ -579,7 +806,14 @@ public class FileTransferClient {
 			// request file, provide downloaderHelper port
 			String singleFileRequest = FileTransferProtocol.DOWNLOAD + 
 					FileTransferProtocol.DELIMITER + 
-					downloadSocket.getLocalPort();
+					downloadSocket.getLocalPort() + 
+					FileTransferProtocol.DELIMITER + 
+					Math.min(this.packetSize, PathMtu.getLimit(this.serverAddress)); 
+			// note: downloadHelper will probe the path for the largest size, if not known yet
+			if (length >= 0) {
+				singleFileRequest += FileTransferProtocol.DELIMITER + offset
+						+ FileTransferProtocol.DELIMITER + length;
+			}
 			
 			byte[] fileToDownloadBytes = util.Bytes.serialiseObjectToByteArray(fileToDownload); 
 			
@@ -588,6 +822,7 @@ public class FileTransferClient {
 			
 			if (responseSplit[0].contentEquals(FileTransferProtocol.UPLOAD)) {
 				downloadHelper.setUploaderPort(Integer.parseInt(responseSplit[1])); 
+				downloadHelper.setConnectionId(responsePacket.getConnectionId());
 				this.showNamedMessage("Uploader is on server port = " 
 						+ Integer.parseInt(responseSplit[1])); 
 
@@ -595,22 +830,39 @@ public class FileTransferClient {
 				this.showNamedMessage("Uploader reports total file size = " 
 						+ totalFileSize + " bytes");
 				
-				if (!this.checkFreeSpace(totalFileSize)) {
+				long rangeLength = responseSplit.length > 6 // else: whole file
+						? Long.parseLong(responseSplit[6]) : -1;
+				if (!this.checkFreeSpace(rangeLength >= 0 ? rangeLength : totalFileSize)) {
 					this.downloads.remove(downloadHelper);
-					return false;
+					downloadSocket.close();
+					return null;
 				}
 				downloadHelper.setTotalFileSize(totalFileSize);
+				if (rangeLength >= 0) {
+					try {
+						downloadHelper.setRange(Long.parseLong(responseSplit[5]), rangeLength);
+						this.showNamedMessage("Uploader sends range of " + rangeLength 
+								+ " bytes from byte " + responseSplit[5]);
+					} catch (IllegalArgumentException e) {
+						this.showNamedError("Invalid range from uploader: " 
+								+ e.getLocalizedMessage());
+						this.downloads.remove(downloadHelper);
+						downloadSocket.close();
+						return null;
+					}
+				}
 				
 				int startID = Integer.parseInt(responseSplit[3]);
 				this.showNamedMessage("Uploader starts at ID = " + startID);
 				downloadHelper.setStartID(startID);
 				
-				// now everything is known: start download helper
-				new Thread(downloadHelper).start();
-				success = true;
+				if (responseSplit.length > 4) { // else: server does not negotiate
+					downloadHelper.setPacketSize(Integer.parseInt(responseSplit[4]));
+				}
+				
+				return downloadHelper; // now everything is known: ready to start
 			} else {
 				this.showNamedError("Invalid response to download request");
-				success = false;
 			}
 
 		} catch (IOException e) {
@@ -624,7 +876,11 @@ public class FileTransferClient {
 					+ e.getLocalizedMessage()); 
 		}
 
-		return success;
+		this.downloads.remove(downloadHelper); // request failed: nothing to download
+		if (downloadSocket != null) {
+			downloadSocket.close();
+		}
+		return null;
 	}
 	
 	/**
@@ -641,7 +897,7 @@ public class FileTransferClient {
 			// create uploadHandler
 			DatagramSocket uploadSocket = TransportLayer.openNewDatagramSocket();
 
-			int fileSizeToUpload = (int) fileToUpload.length(); // TODO casting long to int!
+			long fileSizeToUpload = fileToUpload.length();
 
 			UploadHelper uploadHelper = new UploadHelper(this, uploadSocket,
 					this.serverAddress, -2, fileSizeToUpload, fileToUpload); 
@@ -656,7 +912,9 @@ public class FileTransferClient {
 					FileTransferProtocol.DELIMITER + 
 					fileSizeToUpload +
 					FileTransferProtocol.DELIMITER + 
-					uploadHelper.getStartId(); 
+					uploadHelper.getStartId() + 
+					FileTransferProtocol.DELIMITER + 
+					Math.min(this.packetSize, PathMtu.getLimit(this.serverAddress)); 
 			
 			byte[] fileToUploadBytes = util.Bytes.serialiseObjectToByteArray(fileToUpload); 
 			
@@ -665,8 +923,27 @@ public class FileTransferClient {
 			
 			if (responseSplit[0].contentEquals(FileTransferProtocol.DOWNLOAD)) {
 				uploadHelper.setDownloaderPort(Integer.parseInt(responseSplit[1])); 
+				uploadHelper.setConnectionId(responsePacket.getConnectionId());
 				this.showNamedMessage("Downloader is on server port = " 
 						+ Integer.parseInt(responseSplit[1])); 
+				if (responseSplit.length > 2) { // else: server does not negotiate
+					uploadHelper.setPacketSize(Integer.parseInt(responseSplit[2]));
+				}
+				if (responseSplit.length > 3) { // else: server does not continue uploads
+					try {
+						long startOffset = Long.parseLong(responseSplit[3]);
+						uploadHelper.setStartOffset(startOffset);
+						if (startOffset > 0) {
+							this.showNamedMessage("Server continues interrupted upload from byte " 
+									+ startOffset);
+						}
+					} catch (IllegalArgumentException e) { // including NumberFormatException
+						this.showNamedError("Invalid offset to start from: " + e.getLocalizedMessage());
+						this.uploads.remove(uploadHelper);
+						uploadSocket.close();
+						return false;
+					}
+				}
 
 				// now everything is known: start download helper
 				new Thread(uploadHelper).start();
@@ -853,7 +1130,7 @@ public class FileTransferClient {
 				new FileFilter() {
 					@Override
 					public boolean accept(File file) {
-						return !file.isHidden();
+						return !file.isHidden() && !TransferJournal.isTransferFile(file);
 					}
 				});
 		return filesArray;
@@ -1018,6 +1295,7 @@ public class FileTransferClient {
 						this.serverPort,
 						bytesToSend, byteOffset
 				);
+			packet.setConnectionId(this.connectionId);
 			
 			TransportLayer.sendPacket(
 					this.socket,
@@ -1070,6 +1348,38 @@ public class FileTransferClient {
 		return receivedPacket;
 	}
 	
+	/**
+	 * Get the packet size of transfers in the active session, as agreed with the server.
+	 * @return packet size in bytes
+	 */
+	public int getPacketSize() {
+		return this.packetSize;
+	}
+	
+	/**
+	 * Get the local storage location of this client (where downloads are written).
+	 * @return path of the file storage
+	 */
+	public Path getFileStorage() {
+		return this.fileStorage;
+	}
+	
+	/**
+	 * Get the downloads of this client.
+	 * @return list of downloadHelpers
+	 */
+	public List<Helper> getDownloads() {
+		return this.downloads;
+	}
+	
+	/**
+	 * Get the uploads of this client.
+	 * @return list of uploadHelpers
+	 */
+	public List<Helper> getUploads() {
+		return this.uploads;
+	}
+	
 	/**
 	 * Shutdown client.
 	 */
@@ -1089,7 +1399,7 @@ public class FileTransferClient {
 	 * @param message to display
 	 */
 	public void showNamedMessage(String message) {
-		textUI.showNamedMessage(this.name, message);
+		LOG.info(this.name, message);
 	}
 	
 	/**
@@ -1097,7 +1407,7 @@ public class FileTransferClient {
 	 * @param message to display
 	 */
 	public void showNamedError(String message) {
-		textUI.showNamedError(this.name, message);
+		LOG.error(this.name, message);
 	}
 	
 	/** 
@@ -1140,11 +1450,19 @@ public class FileTransferClient {
 		System.out.println("Welcome to the FileTransfer Client! \n Starting...");
 		
 		int port; 
+		int maxPacketSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
 		
-		if (args.length < 0 || args.length > 1) {
-			System.out.println("Syntax: FileTranferClient <port>");
+		if (args.length == 2 && args[1].startsWith(PACKET_SIZE_ARGUMENT + "=") 
+				&& util.Arguments.isPositiveNumber(
+						args[1].substring(PACKET_SIZE_ARGUMENT.length() + 1), Integer.MAX_VALUE)) {
+			maxPacketSize = Integer.parseInt(args[1].substring(PACKET_SIZE_ARGUMENT.length() + 1));
+		} else if (args.length > 1) {
+			System.out.println("Syntax: FileTranferClient <port> [" + PACKET_SIZE_ARGUMENT 
+					+ "=<bytes>]");
 			return;
-		} else if (args.length == 1) {
+		}
+		
+		if (args.length >= 1) {
 			port = Integer.parseInt(args[0]);
 			System.out.println("Using specified client port " + port + "...");
 		} else {
@@ -1152,7 +1470,7 @@ public class FileTransferClient {
 			System.out.println("Using default client port " + port + "...");
 		}
 			
-		FileTransferClient client = new FileTransferClient(port);
+		FileTransferClient client = new FileTransferClient(port, maxPacketSize);
 		System.out.println("Starting client...");
 	}
 
@@ -0,0 +1,93 @@
+package helpers;
+
+/**
+ * Congestion controller with slow start and additive-increase/multiplicative-decrease (AIMD).
+ * Note: like TCP NewReno, the window is decreased only once for all losses in one window
+ * @author huub.lievestro
+ *
+ */
+public class AimdController implements CongestionController {
+
+	/**
+	 * Congestion window at start, in packets.
+	 */
+	public static final int INITIAL_WINDOW = 4;
+
+	/**
+	 * Minimal congestion window, in packets.
+	 */
+	public static final int MIN_WINDOW = 1;
+
+	/**
+	 * Maximal congestion window, in packets.
+	 */
+	private int maxWindow;
+
+	/**
+	 * Congestion window, in packets (fractional, to increase by one packet per window).
+	 */
+	private double congestionWindow;
+
+	/**
+	 * Slow start threshold: below it the window doubles every window, above it grows by one.
+	 */
+	private double slowStartThreshold;
+
+	/**
+	 * Highest packet send at last decrease: losses up to it belong to the same window.
+	 */
+	private int recoveryNr;
+
+	/**
+	 * Create a new AimdController.
+	 * @param maxWindow maximal congestion window, in packets
+	 */
+	public AimdController(int maxWindow) {
+		this.maxWindow = maxWindow;
+		this.congestionWindow = Math.min(INITIAL_WINDOW, maxWindow);
+		this.slowStartThreshold = maxWindow;
+		this.recoveryNr = -1;
+	}
+
+	@Override
+	public synchronized int getWindow() {
+		return (int) this.congestionWindow;
+	}
+
+	@Override
+	public synchronized void onAck() {
+		if (this.congestionWindow < this.slowStartThreshold) { // slow start
+			this.congestionWindow += 1;
+		} else { // congestion avoidance: additive increase
+			this.congestionWindow += 1 / this.congestionWindow;
+		}
+		this.congestionWindow = Math.min(this.congestionWindow, this.maxWindow);
+	}
+
+	@Override
+	public synchronized void onLoss(int lostNr, int highestSentNr) {
+		if (lostNr <= this.recoveryNr) { // already decreased for this window
+			return;
+		}
+		this.recoveryNr = highestSentNr;
+		this.slowStartThreshold = Math.max(this.congestionWindow / 2, 2 * MIN_WINDOW);
+		this.congestionWindow = this.slowStartThreshold; // multiplicative decrease
+	}
+
+	@Override
+	public synchronized void onTimeout(int lostNr, int highestSentNr) {
+		if (lostNr <= this.recoveryNr) { // already decreased for this window
+			return;
+		}
+		this.recoveryNr = highestSentNr;
+		this.slowStartThreshold = Math.max(this.congestionWindow / 2, 2 * MIN_WINDOW);
+		this.congestionWindow = MIN_WINDOW; // restart with slow start
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "AIMD window of " + this.getWindow() + " packets (slow start threshold " 
+				+ (int) this.slowStartThreshold + ")";
+	}
+
+}
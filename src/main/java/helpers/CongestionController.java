@@ -0,0 +1,36 @@
+package helpers;
+
+/**
+ * Interface of a congestion controller, 
+ * which determines the send window of an uploader from ACK and loss signals.
+ * @author huub.lievestro
+ *
+ */
+public interface CongestionController {
+
+	/**
+	 * Get the current send window.
+	 * @return number of unacknowledged packets that may be send
+	 */
+	public int getWindow();
+
+	/**
+	 * Signal that a packet is acknowledged (for the first time).
+	 */
+	public void onAck();
+
+	/**
+	 * Signal that a packet is lost, detected by duplicate ACKs (= network still delivers).
+	 * @param lostNr packet number of the lost packet
+	 * @param highestSentNr packet number of the last packet send
+	 */
+	public void onLoss(int lostNr, int highestSentNr);
+
+	/**
+	 * Signal that the time-out of a packet elapsed (= network may be congested severely).
+	 * @param lostNr packet number of the timed-out packet
+	 * @param highestSentNr packet number of the last packet send
+	 */
+	public void onTimeout(int lostNr, int highestSentNr);
+
+}
@@ -4,18 +4,24 @@ import java.io.File;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import client.FileTransferClient;
 import exceptions.PacketException;
 import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
 import me.tongfei.progressbar.*;
+import network.ConnectionTable;
+import network.EventLoop;
+import network.IPacketEventHandler;
 import network.Packet;
 import network.TransportLayer;
 import protocol.FileTransferProtocol;
@@ -27,7 +33,13 @@ import server.FileTransferClientHandler;
  *  * @author huub.lievestro
  *
  */
-public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandler {
+public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandler, 
+		IPacketEventHandler {
+
+	/**
+	 * Logger of the download subsystem (per packet messages are debug messages).
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.DOWNLOAD);
 
 	/**
 	 * Connected process, which started this helper.
@@ -49,11 +61,22 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	 */
 	private int uploaderPort;
 
+	/**
+	 * Socket address of the uploader (kept, so it is not created for every packet to send).
+	 */
+	private InetSocketAddress uploaderSocketAddress;
+
 	/**
 	 * Indicate running on client side: need to initiate (uploader will wait)
 	 * Note: this may be needed to let downloader open a way through Firewall(s) first.
 	 */
 	private boolean initiate;
+	
+	/**
+	 * Indicate if a progress bar is shown while downloading on a client
+	 * (off for the stripes of a striped download, which would overwrite each other's bar).
+	 */
+	private boolean showProgress;
 
 	/**
 	 * Total file size to download.
@@ -92,9 +115,10 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	long duration;
 
 	/**
-	 * List of received packets (expected packets are included as null.
+	 * Packet numbers received so far (one bit per packet of the file).
+	 * Note: payloads are written to file directly, so no packets are kept
 	 */
-	private List<Packet> receivedPacketList;
+	private BitSet receivedPackets;
 
 	/**
 	 * Last Frame Received, from uploader. 
@@ -104,10 +128,70 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	/**
 	 * Receive Window Size,
 	 * represent how many out-of-order packets this receiver is willing to buffer.
-	 * Note: makes no sense to set >SWS: impossible for >SWS packets to arrive out of order
+	 * Note: set to the maximal window, so it never limits the (congestion) window of the uploader
 	 */
 	private int RWS;
 	
+	/**
+	 * Maximal receive buffer to request for the socket, in bytes 
+	 * (the operating system may limit it further).
+	 */
+	public static final int MAX_RECEIVE_BUFFER_SIZE = 8 * 1024 * 1024;
+	
+	/**
+	 * Maximal time to wait for the reply to a probe of the path MTU, in milliseconds
+	 * (shorter once the RTT is measured).
+	 */
+	public static final int PROBE_TIMEOUT = 200;
+	
+	/**
+	 * Number of times a probe is send, before its packet size is considered not to get through.
+	 */
+	public static final int PROBE_ATTEMPTS = 2;
+	
+	/**
+	 * Precision of the binary search of probes, in bytes (the path MTU is at most this larger).
+	 */
+	public static final int PROBE_PRECISION = 16;
+	
+	/**
+	 * Minimal time without packets from the uploader, before a complete download is shut down,
+	 * in milliseconds: meanwhile resends are ACKed again, in case the last ACK got lost.
+	 */
+	public static final long LINGER_TIME = 1000;
+	
+	/**
+	 * Number of bytes received in order, after which the journal is saved again
+	 * (at most this many bytes are received again, after an interruption).
+	 */
+	public static final long JOURNAL_INTERVAL = 16 * 1024 * 1024;
+	
+	/**
+	 * Indicates the file is received and written, and this helper only lingers (see LINGER_TIME).
+	 */
+	private boolean finished;
+	
+	/**
+	 * Indicates this helper is driven by received packets (started by start(), not run()).
+	 */
+	private boolean eventDriven;
+	
+	/**
+	 * Time-out to shut down after lingering, when event driven (null if not lingering).
+	 */
+	private util.TimeOutEntry lingerTimeOut;
+	
+	/**
+	 * Highest packet number received (to limit the bitmap of a SACK to the received packets).
+	 */
+	private int highestReceivedNr;
+	
+	/**
+	 * Indicates selective repeat: acknowledge with a SACK (cumulative ACK and bitmap of
+	 * received packets after it), so the uploader only has to resend the missing packets.
+	 */
+	private boolean selectiveRepeat;
+	
 	/**
 	 * Count of how many times the ID has wrapped around. 
 	 * 	(wraparound = passed ID_MAX and started at zero again)
@@ -149,9 +233,65 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	private int thresholdResend;
 	
 	/**
-	 * Contents of the file, received from the uploader and to write on disk.
+	 * Estimator of the round-trip time, to derive the retransmission time-out from.
+	 * Note: START and RESUME make the uploader send right away, so their implicit ACK is timed
+	 */
+	private RttEstimator rttEstimator;
+	
+	/**
+	 * Channel to write the received payloads to, directly at their position in the file.
+	 */
+	private FileChannel fileChannel;
+	
+	/**
+	 * Number of bytes of the file written, including those of an earlier download continued.
+	 */
+	private long receivedBytes;
+	
+	/**
+	 * Journal of the bytes written to the part file, to continue the download if interrupted
+	 * (null until loaded).
+	 */
+	private TransferJournal journal;
+	
+	/**
+	 * Offset in the file to download from: the bytes before it were received earlier
+	 * (or are not requested).
+	 */
+	private long startOffset;
+	
+	/**
+	 * Number of bytes to download from the startOffset, or -1 to download the whole file.
+	 * Note: a range is written directly into the file (sparse), without part file or journal
 	 */
-	private byte[] fileContents;
+	private long rangeLength;
+	
+	/**
+	 * Offset up to which the received bytes are saved in the journal.
+	 */
+	private long journaledOffset;
+	
+	/**
+	 * ID of the connection of this helper, to put in the header of every packet.
+	 * Note: zero if the uploader does not share its port with other connections
+	 */
+	private int connectionId;
+	
+	/**
+	 * Size of the packets of this transfer, including the header.
+	 */
+	private int packetSize;
+	
+	/**
+	 * Table of connections sharing the downloadSocket, to unregister from at shutdown
+	 * (null if the downloadSocket is owned by this helper).
+	 */
+	private ConnectionTable connectionTable;
+	
+	/**
+	 * Indicates if this helper is unregistered from the shared downloadSocket (= shutdown).
+	 */
+	private volatile boolean sharedSocketReleased;
 	
 	/**
 	 * Name of this downloadHelper (mainly for printing named messages).
@@ -180,6 +320,7 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		this.downloadSocket = downloadSocket;
 		this.uploaderAddress = uploaderAddress;
 		this.uploaderPort = uploaderPort;
+		this.textUI = new userInterface.TUI(); // before any message is shown
 		
 		if (parent instanceof FileTransferClient) { 
 			this.initiate = true;
@@ -196,19 +337,22 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 			this.initiate = true;  
 		}
 		
+		this.showProgress = true;
 		this.totalFileSize = totalFileSize;
 		this.fileToWrite = fileToWrite;
 		this.complete = false;
+		this.finished = false;
+		this.eventDriven = false;
 		
 		this.paused = false; 
 		this.startTime = System.nanoTime();
 		this.duration = 0;
-		
-		this.textUI = new userInterface.TUI();
 
 		this.LFR = -1;
-		this.RWS = 10; 
-		//makes no sense to set >SWS: impossible for >SWS packets to arrive out of order
+		this.RWS = FileTransferProtocol.MAX_WINDOW_SIZE; 
+		this.highestReceivedNr = -1;
+		this.selectiveRepeat = true;
+		this.packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
 		
 		this.startID = startID;
 		if (this.startID < (FileTransferProtocol.MAX_ID - this.RWS)) {
@@ -221,11 +365,13 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		
 		this.totalResendPackets = 0;
 		this.thresholdResend = 25;
-		this.packetNeedAck = new ArrayList<Packet>();
+		this.packetNeedAck = new CopyOnWriteArrayList<Packet>(); // also added to by pause/resume
 		this.indexAcked = -1; // no packet acked
+		this.rttEstimator = new RttEstimator();
 		
-		fileContents = new byte[0]; 
-		// Note: totalSize is known, but this array only keeps actually arrived bytes
+		this.receivedBytes = 0; 
+		this.startOffset = 0;
+		this.rangeLength = -1;
 	}
 
 	/**
@@ -236,55 +382,359 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		this.showNamedMessage("Starting download helper...");
 
 		if (initiate) {
-			this.initiateTransfer();
+			this.probePacketSize();
 		} 
 
-		this.showNamedMessage("Total file size = " + this.totalFileSize + " bytes");
-		this.totalPackets = (int)
-				Math.ceil(this.totalFileSize / FileTransferProtocol.MAX_PAYLOAD_LENGTH) + 1;
-		this.showNamedMessage("Number of packets to receive: " + this.totalPackets);
-		this.receivedPacketList = new ArrayList<Packet>(
-				Collections.nCopies(this.totalPackets, null));
-		
-		this.showNamedMessage("Receiving...");
+		if (!this.prepareReceiving()) {
+			return;
+		}
+
 
-		if (initiate) { // running on a client: show progress bar
-			try (ProgressBar pb = new ProgressBar(this.fileToWrite.getName(), this.totalFileSize, 1, 
-					System.out, ProgressBarStyle.COLORFUL_UNICODE_BLOCK, " Bytes", 1, false, null)) {
+		if (initiate) { // running on a client: start uploader (at offset to receive)
+			this.initiateTransfer();
+		}
+		
+		if (initiate && this.showProgress) {
+			long rangeOffset = this.isRange() ? this.startOffset : 0; // else: progress of the file
+			try (ProgressBar pb = new ProgressBar(this.fileToWrite.getName(), 
+					this.getEndOffset() - rangeOffset, 1, System.out, 
+					ProgressBarStyle.COLORFUL_UNICODE_BLOCK, " Bytes", 1, false, null)) {
 				pb.setExtraMessage("Downloading..."); 
 
-				while (!this.complete) { 
+				while (!this.complete && !this.isSocketClosed()) { 
 					this.receiveBytes();
-					pb.stepTo(this.fileContents.length);
+					pb.stepTo(this.receivedBytes - rangeOffset);
 				} 
 				pb.setExtraMessage("Done!"); 
 			}
-		} else { // running on server
-			while (!this.complete) {
+		} else { // running on server, or a stripe of a striped download
+			while (!this.complete && !this.isSocketClosed()) {
 				this.receiveBytes();
 			} 
 		}
 
+		if (this.complete) { // else: shut down before (journal is saved, to continue later)
+			this.finishTransfer();
+		}
+	}
+
+	/**
+	 * Download file, driven by the packets received from the event loop (instead of own thread).
+	 * Note: downloadSocket must be backed by a DatagramChannel
+	 * @param eventLoop to register the downloadSocket on, or null if the downloadSocket is shared
+	 * 		(packets are then passed on by the owner of the socket)
+	 * @throws IOException
+	 */
+	public void start(EventLoop eventLoop) throws IOException {
+		this.showNamedMessage("Starting download helper (event driven)...");
+		this.eventDriven = true;
+
+		if (initiate) { // before registering: probing receives the replies itself
+			this.probePacketSize();
+		}
+		if (!this.prepareReceiving()) {
+			return;
+		}
+		if (eventLoop != null) {
+			eventLoop.register(this.downloadSocket, this);
+		}
+
+		if (initiate) {
+			this.initiateTransfer();
+		}
+	}
+
+	/**
+	 * Process a packet received from the event loop, and finish when download is complete.
+	 * @param receivedPacket from the uploader
+	 */
+	@Override
+	public synchronized void packetReceived(Packet receivedPacket) {
+		if (this.isSocketClosed()) {
+			return;
+		}
+
+		this.processReceivedPacket(receivedPacket);
+
+		if (this.finished) { // uploader still resends: wait longer
+			this.lingerTimeOut.cancel();
+			this.lingerTimeOut = util.TimeOut.setTimeOut(this.getLingerTime(), this, this);
+		} else if (this.complete) {
+			this.finishTransfer();
+		}
+	}
+
+	/**
+	 * Prepare receiving: determine number of packets to receive, and open the file.
+	 * @return true if ready to receive, and false if not (helper is shut down)
+	 */
+	public boolean prepareReceiving() {
+		this.showNamedMessage("Total file size = " + this.totalFileSize + " bytes");
+		if (this.isRange()) {
+			this.showNamedMessage("Downloading range of " + this.rangeLength + " bytes from byte " 
+					+ this.startOffset);
+			this.receivedBytes = this.startOffset;
+		} else if (this.journal == null) {
+			this.loadJournal();
+		}
+		try {
+			this.totalPackets = FileTransferProtocol.countPackets(
+					this.getEndOffset() - this.startOffset, this.getPayloadLength());
+		} catch (IllegalArgumentException e) {
+			this.showNamedError(e.getLocalizedMessage());
+			this.showNamedError("Cannot continue to download: going to shutdown");
+			this.shutdown();
+			return false;
+		}
+		this.showNamedMessage("Number of packets to receive: " + this.totalPackets 
+				+ " (of " + this.packetSize + " bytes)");
+		if (this.packetSize > FileTransferProtocol.DEFAULT_PACKET_SIZE 
+				&& this.connectionTable == null) { // room for a burst of large packets
+			try {
+				this.downloadSocket.setReceiveBufferSize(
+						Math.min(this.RWS * this.packetSize, MAX_RECEIVE_BUFFER_SIZE));
+			} catch (SocketException e) {
+				this.showNamedError("Enlarging socket buffer failed: " + e.getLocalizedMessage());
+				this.showNamedError("Downloader continues, but more packets may be dropped!");
+			}
+		}
+		this.receivedPackets = new BitSet(this.totalPackets);
+		
+		if (!this.openFile()) {
+			return false;
+		}
+		
+		this.showNamedMessage("Receiving...");
+		return true;
+	}
+
+	/**
+	 * Load the journal of an earlier, interrupted download of this file (if any),
+	 * to continue from the first byte it did not receive.
+	 * Note: call once the total file size is known, and before receiving
+	 * @return offset in the file to download from (zero if not continuing)
+	 */
+	public long loadJournal() {
+		this.journal = new TransferJournal(this.fileToWrite, this.totalFileSize);
+		if (this.journal.load()) {
+			this.startOffset = this.journal.getFirstMissingOffset();
+			this.showNamedMessage("Continuing interrupted download from byte " + this.startOffset);
+		} else {
+			this.startOffset = 0;
+		}
+		this.journaledOffset = this.startOffset;
+		this.receivedBytes = this.startOffset; // already in the part file
+		return this.startOffset;
+	}
+	
+	/**
+	 * Download only a range of the file, and write it at its place in the (sparse) file.
+	 * Note: set before receiving
+	 * @param offset of the first byte to download
+	 * @param length number of bytes to download
+	 * @throws IllegalArgumentException if the range is not inside the file
+	 */
+	public void setRange(long offset, long length) {
+		if (length < 0 || offset < 0 || offset > this.totalFileSize - length) {
+			throw new IllegalArgumentException("Range of " + length + " bytes from " + offset 
+					+ " is not inside the file of " + this.totalFileSize + " bytes");
+		}
+		this.startOffset = offset;
+		this.rangeLength = length;
+	}
+	
+	/**
+	 * Check if only a range of the file is downloaded.
+	 * @return true if a range is set
+	 */
+	public boolean isRange() {
+		return this.rangeLength >= 0;
+	}
+	
+	/**
+	 * Get the offset after the last byte to download.
+	 * @return end of the range, or the file size if downloading the whole file
+	 */
+	public long getEndOffset() {
+		return this.isRange() ? this.startOffset + this.rangeLength : this.totalFileSize;
+	}
+	
+	/**
+	 * Write file, show statistics and shutdown, after the complete file is received.
+	 */
+	public void finishTransfer() {
 		this.showNamedMessage("File received completely");
 		this.writeFile();
 		this.duration += System.nanoTime() - this.startTime;
 		this.showStats();
+		this.finished = true;
+		
+		if (this.eventDriven) { // keep on receiving from the event loop, until time-out
+			this.lingerTimeOut = util.TimeOut.setTimeOut(this.getLingerTime(), this, this);
+			return;
+		}
+		this.linger();
 		this.showNamedMessage("Download complete: helper shutting down");
 		this.shutdown();
 	}
+	
+	/**
+	 * Keep on ACKing resends of the uploader, until no packet is received for a while.
+	 * Note: the last ACK may get lost, after which the uploader resends until it is ACKed
+	 */
+	public void linger() {
+		try {
+			this.downloadSocket.setSoTimeout((int) this.getLingerTime());
+			while (!this.isSocketClosed()) {
+				Packet receivedPacket = TransportLayer.receivePacket(this.downloadSocket);
+				if (receivedPacket != null) {
+					this.processReceivedPacket(receivedPacket);
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// uploader is done: all its packets are ACKed
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			this.showNamedError("Receiving packet failed: " + e.getLocalizedMessage());
+			this.showNamedError("Downloader stops, but uploader may not know it is done!");
+		}
+	}
+	
+	/**
+	 * Get the time to linger, after the download is complete.
+	 * @return LINGER_TIME, or longer if the uploader may wait longer to resend
+	 */
+	public long getLingerTime() {
+		return Math.max(LINGER_TIME, 2 * this.rttEstimator.getRto());
+	}
+
+	/**
+	 * Open the File object for writing the received payloads.
+	 * @return true if file is opened, and false if not (helper is shut down)
+	 */
+	public boolean openFile() {
+		try {
+			if (this.isRange()) { // write into the file itself, keeping what is outside the range
+				this.fileChannel = util.FileOperations.openWritableFileChannel(
+						this.fileToWrite, false);
+			} else {
+				this.fileChannel = util.FileOperations.openWritableFileChannel(
+						this.journal.getPartFile(), this.startOffset == 0);
+			}
+		} catch (IOException e) {
+			this.showNamedError("Opening file failed: " + e.getLocalizedMessage());
+			this.showNamedError("Cannot continue to download: going to shutdown");
+			this.shutdown();
+			return false;
+		}
+		return true;
+	}
 
 	/** 
 	 * Send initiation by downloader,
 	 *  (may be needed to let downloader open a way through Firewall(s) first).
 	 */
 	public void initiateTransfer() {
-		this.sendBytesToUploader(0, FileTransferProtocol.START_DOWNLOAD, true);
+		byte[] start = (new String(FileTransferProtocol.START_DOWNLOAD) 
+				+ FileTransferProtocol.DELIMITER + this.packetSize
+				+ FileTransferProtocol.DELIMITER + this.startOffset
+				+ (this.isRange() ? FileTransferProtocol.DELIMITER + this.rangeLength : "")).getBytes();
+		this.sendBytesToUploader(0, start, true);
 		// uploader will not retry (opposite to when ack is lost): so require ack 
 		this.showNamedMessage("Download initiated...");
 	}
 
 	/**
-	 * Transfer the byte[] of the File of the uploader, contained in Packets.
+	 * Find the largest packet size that gets through to the uploader (path MTU discovery),
+	 * by a binary search with probes, and use it for this transfer (if smaller than negotiated).
+	 * Note: the result is cached per uploader address, so later transfers skip probing
+	 */
+	public void probePacketSize() {
+		if (this.packetSize <= FileTransferProtocol.DEFAULT_PACKET_SIZE) {
+			return; // default packets are assumed to get through (as do requests to the server)
+		}
+		
+		Integer cached = PathMtu.getCached(this.uploaderAddress);
+		if (cached != null) {
+			this.packetSize = Math.min(this.packetSize, cached);
+			this.showNamedMessage("Path to uploader known: using packets of " 
+					+ this.packetSize + " bytes");
+			return;
+		}
+		
+		this.showNamedMessage("Probing largest packet size to uploader...");
+		int low = FileTransferProtocol.DEFAULT_PACKET_SIZE; // largest size that got through
+		int high = Math.min(this.packetSize, PathMtu.getInterfaceLimit(this.uploaderAddress));
+		
+		if (!this.sendProbe(low)) { // measures the RTT, to wait shorter for the other probes
+			this.showNamedError("Uploader does not reply to probes: using default packets");
+			low = high = FileTransferProtocol.DEFAULT_PACKET_SIZE; // do not cache
+		} else if (this.sendProbe(high)) { // often limited by the local interface only
+			low = high;
+			PathMtu.cache(this.uploaderAddress, low);
+		} else {
+			high--;
+			while (high - low >= PROBE_PRECISION) {
+				int size = (low + high + 1) / 2;
+				if (this.sendProbe(size)) {
+					low = size;
+				} else {
+					high = size - 1;
+				}
+			}
+			PathMtu.cache(this.uploaderAddress, low);
+		}
+		
+		try {
+			this.downloadSocket.setSoTimeout(0); // revert socket to default operation
+		} catch (SocketException e) {
+			this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
+			this.showNamedError("Downloader continues, but socket may time out!");
+		}
+		
+		this.packetSize = low;
+		this.showNamedMessage("Largest packet size to uploader is " + low + " bytes");
+	}
+	
+	/**
+	 * Send a probe of a packet size to the uploader, and wait for its reply.
+	 * @param size of the packet to probe
+	 * @return true if the probe got through (= uploader replied)
+	 */
+	public boolean sendProbe(int size) {
+		byte[] probe = PathMtu.buildProbe(FileTransferProtocol.PROBE, size,
+				size - FileTransferProtocol.TOTAL_HEADER_SIZE);
+		
+		for (int attempt = 0; attempt < PROBE_ATTEMPTS; attempt++) {
+			long timeout = Math.min(PROBE_TIMEOUT, this.rttEstimator.getRto());
+			long sendTime = System.nanoTime();
+			this.sendBytesToUploader(0, probe, false);
+			
+			long deadline = sendTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+			try {
+				long remaining = timeout;
+				while (remaining > 0) {
+					this.downloadSocket.setSoTimeout((int) remaining);
+					Packet reply = TransportLayer.receivePacket(this.downloadSocket);
+					if (reply != null && this.checkSource(reply) && PathMtu.getProbeSize(
+							FileTransferProtocol.PROBE_ACK, reply.getPayloadBytes()) == size) {
+						if (attempt == 0) { // Karn's rule: reply to a resend probe is ambiguous
+							this.rttEstimator.addSample(System.nanoTime() - sendTime);
+						}
+						return true;
+					} // else: reply to an earlier probe
+					remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				}
+			} catch (SocketTimeoutException e) {
+				// no reply: probe (or its reply) is lost
+			} catch (IOException | PacketException | UtilDatagramException e) {
+				this.showNamedError("Probing failed: " + e.getLocalizedMessage());
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Transfer the bytes of the File of the uploader, contained in Packets.
 	 */
 	public void receiveBytes() {
 		try { //to receive a packet from the network layer
@@ -292,11 +742,7 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 			Packet receivedPacket = TransportLayer.receivePacket(this.downloadSocket);
 
 			if (receivedPacket != null) {
-				if (this.checkSource(receivedPacket)) { // if not: do nothing = drop packet
-					this.ackAllPackets();
-					this.processPacket(receivedPacket);
-					this.checkComplete();
-				}
+				this.processReceivedPacket(receivedPacket);
 			} else { // wait ~10ms (or however long the OS makes us wait) before trying again
 				try {
 					this.showNamedError("Receiving packet was null: dropping it and trying again");
@@ -307,8 +753,8 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 			}
 			
 		} catch (SocketTimeoutException eTO) {
-			if (!initiate) { // running on server: more textual output
-				this.showNamedMessage("Socket timed-out: retry receive");
+			if (!initiate && LOG.isDebugEnabled()) { // running on server: per packet
+				LOG.debug(this.name, "Socket timed-out: retry receive");
 			}
 			this.receiveBytes();
 		} catch (IOException | PacketException | UtilDatagramException e) {
@@ -317,6 +763,22 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		}
 	}
 	
+	/**
+	 * Check source of received Packet, process it and check if download is complete.
+	 * @param receivedPacket from the network layer
+	 */
+	public void processReceivedPacket(Packet receivedPacket) {
+		if (receivedPacket.getId() == PathMtu.getProbeAckId(this.startID) && PathMtu.getProbeSize(
+				FileTransferProtocol.PROBE_ACK, receivedPacket.getPayloadBytes()) > 0) {
+			return; // late reply to a probe: not a packet of the file
+		}
+		if (this.checkSource(receivedPacket)) { // if not: do nothing = drop packet
+			this.ackAllPackets();
+			this.processPacket(receivedPacket);
+			this.checkComplete();
+		}
+	}
+	
 	/**
 	 * Process received Packet with byte[] from uploader.
 	 * Security note: source should already be checked when receiving packet!
@@ -326,46 +788,87 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 
 		int packetNr = this.idToNr(receivedPacket.getId());
 
-		if (!initiate) { // running on server: more textual output
-			this.showNamedMessage("Received packet with ID = " 
+		if (!initiate && LOG.isDebugEnabled()) { // running on server: per packet
+			LOG.debug(this.name, "Received packet with ID = " 
 					+ receivedPacket.getId() + ", could be nr " + packetNr);
 		}
 
-		if (packetNr > LFR && packetNr <= LFR + RWS) { // = inside receive window
-			if (!initiate) { // running on server: more textual output
-				this.showNamedMessage("Processing packet " + packetNr);
+		if (packetNr > LFR && packetNr <= LFR + RWS // = inside receive window
+				&& packetNr < this.totalPackets) { 
+			if (!initiate && LOG.isDebugEnabled()) { // running on server: per packet
+				LOG.debug(this.name, "Processing packet " + packetNr);
 			}
 
-			this.receivedPacketList.add(packetNr, receivedPacket);
-
-			for (int iNext = 0; packetNr + iNext < this.receivedPacketList.size(); iNext++) {
-				Packet nextPacket = this.receivedPacketList.get(packetNr + iNext);
-				if (nextPacket != null) { // append the packet's data to the fileContents array
-					int oldlength = fileContents.length;
-					int datalen = nextPacket.getPayloadLength();
-					fileContents = Arrays.copyOf(fileContents, oldlength + datalen);
-					System.arraycopy(nextPacket.getPayloadBytes(),
-							0, fileContents, oldlength, datalen); 
-				} else { // set last received to the packet before null packet (= to receive)
-					LFR = packetNr + iNext - 1;
-					break;
-				}
+			if (!this.receivedPackets.get(packetNr)) { // not a duplicate
+				this.writePayload(packetNr, receivedPacket);
+				receivedPacket.releasePayload(); // payload is in the file now
+				this.receivedPackets.set(packetNr);
+				this.highestReceivedNr = Math.max(this.highestReceivedNr, packetNr);
+			}
+
+			// set last received to the packet before first packet to receive
+			LFR = Math.min(this.receivedPackets.nextClearBit(LFR + 1), this.totalPackets) - 1;
+			if (this.journal != null 
+					&& this.getReceivedOffset() - this.journaledOffset >= JOURNAL_INTERVAL) {
+				this.saveJournal();
 			}
 			this.sendAck(packetNr);
 		
-		} else if (packetNr < LFR) { // this packet was already ACKed, but maybe ACK got lost
+		} else if (packetNr <= LFR) { // this packet was already ACKed, but maybe ACK got lost
 			this.sendAck(packetNr); // resend ACK
 		
 		} else {
-			if (initiate) { // running on client: add line break after progress bar
-				this.showNamedMessage(" ");
+			if (LOG.isDebugEnabled()) { // per packet
+				LOG.debug(this.name, "DROPPING packet with ID = " + receivedPacket.getId());
 			}
-			this.showNamedMessage("DROPPING packet with ID = " + receivedPacket.getId());
 			this.droppedPackets++;
 			this.sendAck(this.LFR); // resend last ACK
 		}
 	}
 
+	/**
+	 * Write the payload of a received Packet directly to its position in the file.
+	 * @param packetNr of the received Packet
+	 * @param receivedPacket containing the payload to write
+	 */
+	public void writePayload(int packetNr, Packet receivedPacket) {
+		long position = this.startOffset + (long) packetNr * this.getPayloadLength();
+		try {
+			this.receivedBytes += util.FileOperations.writeFileChannel(this.fileChannel, 
+					receivedPacket.getPayloadView(), position);
+		} catch (IOException e) {
+			this.showNamedError("Writing to file failed: " + e.getLocalizedMessage());
+			this.showNamedError("Cannot continue to download: going to shutdown");
+			this.shutdown();
+		}
+	}
+
+	/**
+	 * Get the offset up to which all bytes of the file are received.
+	 * @return offset after the last packet received in order
+	 */
+	public long getReceivedOffset() {
+		return Math.min(this.startOffset + (long) (this.LFR + 1) * this.getPayloadLength(), 
+				this.getEndOffset());
+	}
+	
+	/**
+	 * Save the bytes received in order to the journal, after flushing them to storage
+	 * (so the journal never contains bytes which may still get lost).
+	 */
+	public void saveJournal() {
+		long receivedOffset = this.getReceivedOffset();
+		try {
+			this.fileChannel.force(false);
+			this.journal.addRange(this.startOffset, receivedOffset);
+			this.journal.save();
+			this.journaledOffset = receivedOffset;
+		} catch (IOException e) {
+			this.showNamedError("Saving journal failed: " + e.getLocalizedMessage());
+			this.showNamedError("Downloader continues, but an interruption may lose more bytes");
+		}
+	}
+	
 	/**
 	 * Send acknowledgement packet to uploader, and pause packet if downloader wants to pause.
 	 * Note: also checks for ID wraparound (= going beyond MAX_ID and starting at zero again)
@@ -374,9 +877,13 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	public void sendAck(int nrToAck) {
 		int packetID = nrToId(nrToAck);
 		
-		this.sendBytesToUploader(packetID, FileTransferProtocol.ACK, false);
-		if (!initiate) { // running on server: more textual output
-			this.showNamedMessage("Packet " + nrToAck + " with ID = " + packetID + " ACK send");
+		if (this.selectiveRepeat) { // ID not used: packet numbers are in the SACK payload
+			this.sendBytesToUploader(0, this.buildSack(), false);
+		} else {
+			this.sendBytesToUploader(packetID, FileTransferProtocol.ACK, false);
+		}
+		if (!initiate && LOG.isDebugEnabled()) { // running on server: per packet
+			LOG.debug(this.name, "Packet " + nrToAck + " with ID = " + packetID + " ACK send");
 		}
 		
 		// check if ID could wrap around in the new receive window:
@@ -391,12 +898,33 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		}
 	}
 	
+	/**
+	 * Build a SACK payload: last packet received in order (LFR), 
+	 * followed by a bitmap of the packets received inside the receive window after it.
+	 * @return byte[] SACK payload
+	 */
+	public byte[] buildSack() {
+		int bitmapLength = Math.max(0, Math.min(this.RWS, this.highestReceivedNr - this.LFR));
+		byte[] sack = new byte[FileTransferProtocol.SACK_BITMAP_START + (bitmapLength + 7) / 8];
+		ByteBuffer buffer = ByteBuffer.wrap(sack);
+		buffer.put(FileTransferProtocol.SACK);
+		buffer.putInt(this.LFR);
+		
+		for (int i = 0; i < bitmapLength; i++) {
+			int packetNr = this.LFR + 1 + i;
+			if (packetNr < this.totalPackets && this.receivedPackets.get(packetNr)) {
+				sack[FileTransferProtocol.SACK_BITMAP_START + i / 8] |= 1 << (i % 8);
+			}
+		}
+		return sack;
+	}
+	
 	/**
 	 * Check if the download is complete, by comparing actual received bytes to totalFileSize.
 	 * Note: sets instance variable complete to true, doesn't return a boolean.
 	 */
 	public void checkComplete() {
-		if (fileContents.length >= this.totalFileSize) {
+		if (this.receivedBytes >= this.getEndOffset()) {
 			this.complete = true;
 		} else {
 			this.complete = false;
@@ -404,13 +932,15 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	}
 
 	/**
-	 * Write the received bytes to File (on more permanent storage).
+	 * Write the received bytes to File (on more permanent storage), and close it.
+	 * Note: payloads are already written while receiving, this only flushes them to storage.
 	 * Note: if writing fails, user is asked if helper should try again.
 	 */
 	public void writeFile() {
 		this.showNamedMessage("Writing file contents to file...");
 		try {
-			util.FileOperations.setFileContents(this.fileContents, this.fileToWrite);
+			this.fileChannel.force(false);
+			this.fileChannel.close();
 		} catch (IOException e) {
 			this.showNamedError("Writing of file failed: " + e.getLocalizedMessage());
 			if (this.textUI.getBoolean("Try again?")) {
@@ -419,6 +949,16 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 				this.showNamedError("File not written, downloadHelper going to shutdown");
 				this.shutdown();
 			}
+			return;
+		}
+		try {
+			if (this.journal != null) { // else: range written into the file itself
+				this.journal.complete();
+			}
+		} catch (IOException e) {
+			this.showNamedError("Renaming received file failed: " + e.getLocalizedMessage());
+			this.showNamedError("File left as " + this.journal.getPartFile().getAbsolutePath());
+			return;
 		}
 		this.showNamedMessage("... file written to " + this.fileToWrite.getAbsolutePath());
 	}
@@ -439,11 +979,15 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 					this.uploaderPort,
 					bytesToSend
 					);
+			packet.setConnectionId(this.connectionId);
 
 			this.sendPacketToUploader(packet);
 			
 			if (requireAck) { // here: Ack = receiving any packet from uploader
-				util.TimeOut.setTimeOut(1000, this, packet); 
+				packet.setSendTime(System.nanoTime());
+				packet.setTimeOut(util.TimeOut.setTimeOut(this.rttEstimator.getRto(), 
+						this, packet)); 
+				this.packetNeedAck.add(packet);
 			}
 			
 			//this.showNamedMessage("Bytes send!"); // for debugging
@@ -461,10 +1005,14 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	 */
 	public void sendPacketToUploader(Packet packet) {
 		try {
+			if (this.uploaderSocketAddress == null 
+					|| this.uploaderSocketAddress.getPort() != this.uploaderPort) { // port set later
+				this.uploaderSocketAddress = new InetSocketAddress(this.uploaderAddress, this.uploaderPort);
+			}
 			TransportLayer.sendPacket(
 					this.downloadSocket,
 					packet,
-					this.uploaderPort
+					this.uploaderSocketAddress
 			);
 		} catch (IOException | UtilByteException | UtilDatagramException e) {
 			this.showNamedError("Sending packet failed: " + e.getLocalizedMessage());
@@ -475,32 +1023,56 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	
 	/**
 	 * If time-out elapsed and packet is not acknowledged: resend packet.	
+	 * (or, when lingering and event driven: shut down)
 	 * @param tag Object that called timeoutElapsed	    
 	 */
 	@Override
 	public void timeoutElapsed(Object tag) {
+		if (tag == this) { // lingered long enough, after the download completed
+			synchronized (this) {
+				if (!this.isSocketClosed()) {
+					this.showNamedMessage("Download complete: helper shutting down");
+					this.shutdown();
+				}
+			}
+			return;
+		}
+		
 		Packet packet = (Packet) tag;
-		if (!packet.isAck()) {
-			this.showNamedMessage("TIME OUT packet with ID = " 
-					+ packet.getId() + " without ACK: resend!");
+		synchronized (this) { // an ACK may arrive meanwhile (see ackAllPackets)
+			if (packet.isAck()) {
+				return;
+			}
+			if (LOG.isDebugEnabled()) {
+				LOG.debug(this.name, "TIME OUT packet with ID = " 
+						+ packet.getId() + " without ACK: resend!");
+			}
+			packet.setRetransmitted(true);
+			this.rttEstimator.backoff();
 			sendPacketToUploader(packet);
+			packet.setTimeOut(util.TimeOut.setTimeOut(this.rttEstimator.getRto(), this, packet)); 
 			
 			this.restrictResend(packet);
 		}
 	}
 	
 	/**
-	 * Set ack to true on all packets needing an acknowledgement.
+	 * Set ack to true on all packets needing an acknowledgement, and cancel their time-outs.
 	 * Note: receiving any further packet from uploader is used as implicit ack.
+	 * Synchronized with timeoutElapsed, so no packet is resend after it is acknowledged
 	 */
-	private void ackAllPackets() {
+	private synchronized void ackAllPackets() {
 		int nrPacketsNeedingAck = this.packetNeedAck.size();
-		if (nrPacketsNeedingAck > 0 && this.indexAcked < nrPacketsNeedingAck) {
-			for (int i = this.indexAcked + 1; i < nrPacketsNeedingAck; i++) {
-				this.packetNeedAck.get(i).setAck(true);
+		for (int i = this.indexAcked + 1; i < nrPacketsNeedingAck; i++) {
+			Packet packet = this.packetNeedAck.get(i);
+			packet.setAck(true);
+			packet.getTimeOut().cancel();
+			if (!packet.isRetransmitted()) { // Karn's rule: ACK of a resend packet is ambiguous
+				this.rttEstimator.addSample(System.nanoTime() - packet.getSendTime());
 			}
-		} 
-		// else: no packets in need of an acknoledgement
+		}
+		this.indexAcked = nrPacketsNeedingAck - 1;
+		// Note: if none, no packets in need of an acknowledgement
 	}
 	
 	/**
@@ -517,8 +1089,6 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 							+ " network too unreliable = aborting transfer");
 			this.showNamedError("Cannot continue to upload: going to shutdown");
 			this.shutdown();
-
-			packet.setAck(true); // TODO not actually true, abort timeout in other way!
 		}
 	}
 
@@ -542,13 +1112,25 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		this.uploaderPort = uploaderPort;
 	}
 	
+	public long getTotalFileSize() {
+		return this.totalFileSize;
+	}
+	
 	public void setTotalFileSize(long totalFileSize) {
 		this.totalFileSize = totalFileSize;
 	}
 	
+	public void setShowProgress(boolean showProgress) {
+		this.showProgress = showProgress;
+	}
+	
 	public void setStartID(int startID) {
 		this.startID = startID;
 	}
+	
+	public long getStartOffset() {
+		return this.startOffset;
+	}
 
 	/**
 	 * Pause this downloader.
@@ -559,14 +1141,17 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		this.sendBytesToUploader(0, FileTransferProtocol.PAUSE_DOWNLOAD, false);
 		this.duration += System.nanoTime() - this.startTime;
 		
-		try {
-			this.downloadSocket.setSoTimeout(1000); 
-			// otherwise, thread will block in .receive and not be able to get local resume command
-		} catch (SocketException e) {
-			this.showNamedError("Setting socket time-out failed: " + e.getLocalizedMessage());
-			this.showNamedError("Uploader continues, "
-					+ "but may not continue while waiting for RESUME packet!");
-		} 
+		if (this.connectionTable == null) { // a shared socket is not received from here
+			try {
+				this.downloadSocket.setSoTimeout(1000); 
+				// otherwise, thread will block in .receive 
+				// and not be able to get local resume command
+			} catch (SocketException e) {
+				this.showNamedError("Setting socket time-out failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, "
+						+ "but may not continue while waiting for RESUME packet!");
+			} 
+		}
 		this.showNamedMessage("=PAUSED");
 	}
 	
@@ -580,25 +1165,93 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		// uploader will not retry (opposite to when ack is lost): require ack 
 		this.startTime = System.nanoTime(); // restart times
 		
-		try {
-			this.downloadSocket.setSoTimeout(0); /// revert socket to default operation
-		} catch (SocketException e) {
-			this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
-			this.showNamedError("Uploader continues, but socket may time out!");
-		} 	
+		if (this.connectionTable == null) { // a shared socket is not received from here
+			try {
+				this.downloadSocket.setSoTimeout(0); /// revert socket to default operation
+			} catch (SocketException e) {
+				this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, but socket may time out!");
+			} 	
+		}
 		this.showNamedMessage("=RESUMED"); 
 	}
 	
+	/**
+	 * Cancel this download (also if not started yet): the uploader is asked to stop 
+	 * via a CANCEL packet, and this downloader shuts down.
+	 * Note: the CANCEL packet is not acknowledged, as nobody is left to resend it
+	 */
+	public void cancel() {
+		this.sendBytesToUploader(0, FileTransferProtocol.CANCEL_DOWNLOAD, false);
+		this.shutdown();
+	}
+	
 	public boolean isPaused() {
 		return this.paused;
 	}
 	
+	/**
+	 * Check if the download is complete.
+	 * @return true if all bytes of the file are received
+	 */
+	public boolean isComplete() {
+		return this.complete;
+	}
+	
 	/**
 	 * Check if helper has closed its socket (= shutdown).
 	 * @return true if socket is closed
 	 */
 	public boolean isSocketClosed() {
-		return this.downloadSocket.isClosed();
+		return this.sharedSocketReleased || this.downloadSocket.isClosed();
+	}
+	
+	/**
+	 * Use a socket shared with other connections: put connectionId in the header of every packet,
+	 * and unregister from the connectionTable at shutdown (instead of closing the socket).
+	 * @param connectionTable in which this helper is registered
+	 * @param connectionId of this helper in the connectionTable
+	 */
+	public void setSharedSocket(ConnectionTable connectionTable, int connectionId) {
+		this.connectionTable = connectionTable;
+		this.connectionId = connectionId;
+	}
+	
+	public void setConnectionId(int connectionId) {
+		this.connectionId = connectionId;
+	}
+	
+	public int getPacketSize() {
+		return this.packetSize;
+	}
+	
+	/**
+	 * Set the size of the packets of this transfer (as negotiated with the uploader).
+	 * @param packetSize in bytes, including the header
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize;
+	}
+	
+	/**
+	 * Get the maximal payload of the packets of this transfer.
+	 * @return payload length in bytes (packet size without the header)
+	 */
+	public int getPayloadLength() {
+		return this.packetSize - FileTransferProtocol.TOTAL_HEADER_SIZE;
+	}
+	
+	public boolean isSelectiveRepeat() {
+		return this.selectiveRepeat;
+	}
+	
+	/**
+	 * Set selective repeat (SACK) or plain (ACK per packet) acknowledgements.
+	 * Note: uploader handles both, so this only has to be set on the downloader
+	 * @param selectiveRepeat true to acknowledge with SACKs
+	 */
+	public void setSelectiveRepeat(boolean selectiveRepeat) {
+		this.selectiveRepeat = selectiveRepeat;
 	}
 	
 	/**
@@ -609,10 +1262,12 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 		this.showNamedMessage("Transfer complete: " + this.complete);
 		this.showNamedMessage("-------------------------------->");
 		this.showNamedMessage("Total file size: " + this.totalFileSize + " bytes");
+		this.showNamedMessage("Transferred: " + (this.getEndOffset() - this.startOffset) + " bytes");
 		this.showNamedMessage("Transfer duration: " + (this.duration * 1e-6) + " milliseconds"); 
-		this.showNamedMessage("Average transferspeed: " 
-				+ (this.totalFileSize / (this.duration * 1e-9)) + " bytes/second"); 
+		this.showNamedMessage("Average transferspeed: " + ((this.getEndOffset() - this.startOffset)
+				/ (this.duration * 1e-9)) + " bytes/second"); 
 		this.showNamedMessage("Number of dropped packets: " + this.droppedPackets);
+		this.showNamedMessage("Retransmission time-out: " + this.rttEstimator);
 		this.showNamedMessage("--------------------------------<");
 	}
 	
@@ -624,7 +1279,25 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 			this.showNamedError("WARNING! preliminairy shutdown: transfer not complete!");
 		}
 		this.showNamedMessage("Helper is shutting down.");
-		this.downloadSocket.close();
+		if (this.connectionTable != null) { // socket is shared: only stop receiving packets
+			this.connectionTable.unregister(this.connectionId);
+			this.sharedSocketReleased = true;
+		} else {
+			this.downloadSocket.close();
+		}
+		this.ackAllPackets(); // stop resending
+
+		if (!this.complete && this.journal != null 
+				&& this.fileChannel != null && this.fileChannel.isOpen()) {
+			this.saveJournal(); // a new download of the file continues from here
+		}
+		if (this.fileChannel != null) {
+			try {
+				this.fileChannel.close();
+			} catch (IOException e) {
+				this.showNamedError("Closing file failed: " + e.getLocalizedMessage());
+			}
+		}
 	}
 	
 	/**
@@ -632,7 +1305,7 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	 * @param message to display
 	 */
 	public void showNamedMessage(String message) {
-		textUI.showNamedMessage(this.name, message);
+		LOG.info(this.name, message);
 	}
 	
 	/**
@@ -640,7 +1313,7 @@ public class DownloadHelper implements Helper, Runnable, util.ITimeoutEventHandl
 	 * @param message to display
 	 */
 	public void showNamedError(String message) {
-		textUI.showNamedError(this.name, message);
+		LOG.error(this.name, message);
 	}
 
 	@Override 
@@ -0,0 +1,48 @@
+package helpers;
+
+/**
+ * Congestion controller with a fixed send window (= no congestion control).
+ * @author huub.lievestro
+ *
+ */
+public class FixedWindowController implements CongestionController {
+
+	/**
+	 * Fixed send window, in packets.
+	 */
+	private int window;
+
+	/**
+	 * Create a new FixedWindowController.
+	 * @param window fixed send window, in packets
+	 */
+	public FixedWindowController(int window) {
+		this.window = window;
+	}
+
+	@Override
+	public int getWindow() {
+		return this.window;
+	}
+
+	@Override
+	public void onAck() {
+		// fixed window: nothing to do
+	}
+
+	@Override
+	public void onLoss(int lostNr, int highestSentNr) {
+		// fixed window: nothing to do
+	}
+
+	@Override
+	public void onTimeout(int lostNr, int highestSentNr) {
+		// fixed window: nothing to do
+	}
+
+	@Override
+	public String toString() {
+		return "fixed window of " + this.window + " packets";
+	}
+
+}
@@ -29,4 +29,9 @@ public interface Helper {
 	 */
 	public boolean isSocketClosed(); // interface method (does not have a body)
 	
+	/**
+	 * Shutdown Helper: stop transferring, and close its socket.
+	 */
+	public void shutdown(); // interface method (does not have a body)
+	
 }
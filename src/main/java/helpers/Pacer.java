@@ -0,0 +1,113 @@
+package helpers;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces the packets of an uploader, by spacing them evenly at a target rate
+ * (instead of sending a whole window back to back).
+ * Note: the rate is set explicitly, or derived from the congestion window and RTT
+ * @author huub.lievestro
+ *
+ */
+public class Pacer {
+
+	/**
+	 * Factor applied to the rate derived from window/RTT, so the window can still be used up
+	 * (and grow) while pacing.
+	 */
+	public static final double PACING_GAIN = 1.25;
+
+	/**
+	 * Maximal send credit built up while idle, in nanoseconds: packets due within it are send
+	 * back to back, which keeps the rate when woken up late (time-outs may elapse a tick late).
+	 */
+	public static final long MAX_BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(2);
+
+	/**
+	 * Target rate in bytes/second (zero to derive it from the window and RTT).
+	 */
+	private long targetRate;
+
+	/**
+	 * Moment (as System.nanoTime()) the next packet may be send.
+	 */
+	private long nextSendTime;
+
+	/**
+	 * Create a new Pacer.
+	 * @param targetRate in bytes/second, or zero to derive it from the window and RTT
+	 */
+	public Pacer(long targetRate) {
+		this.targetRate = targetRate;
+		this.nextSendTime = System.nanoTime();
+	}
+
+	/**
+	 * Get the target rate.
+	 * @return target rate in bytes/second (zero if derived from the window and RTT)
+	 */
+	public long getTargetRate() {
+		return this.targetRate;
+	}
+
+	/**
+	 * Get the rate to send at.
+	 * @param window current send window, in packets
+	 * @param packetSize of the packets send, in bytes
+	 * @param smoothedRtt in milliseconds (negative if not measured yet)
+	 * @return rate in bytes/second, or zero if not known yet (= not paced)
+	 */
+	public long getRate(int window, int packetSize, double smoothedRtt) {
+		if (this.targetRate > 0) {
+			return this.targetRate;
+		} else if (smoothedRtt <= 0) {
+			return 0;
+		}
+		return (long) (PACING_GAIN * window * packetSize * 1000 / smoothedRtt);
+	}
+
+	/**
+	 * Get the time to wait before the next packet may be send.
+	 * @return delay in nanoseconds (zero if it may be send right away)
+	 */
+	public synchronized long getDelay() {
+		return Math.max(0, this.nextSendTime - System.nanoTime());
+	}
+
+	/**
+	 * Wait until the next packet may be send.
+	 * Note: parks the calling thread instead of spinning, and wakes up once it is due
+	 */
+	public void pace() {
+		long delay = this.getDelay();
+		while (delay > 0) {
+			LockSupport.parkNanos(delay);
+			delay = this.getDelay();
+		}
+	}
+
+	/**
+	 * Account for a packet that is send, to determine when the next one may be send.
+	 * @param bytes size of the packet send
+	 * @param rate to send at, in bytes/second (zero if not paced)
+	 */
+	public synchronized void onSend(int bytes, long rate) {
+		long now = System.nanoTime();
+		if (rate <= 0) {
+			this.nextSendTime = now;
+			return;
+		}
+		this.nextSendTime = Math.max(this.nextSendTime, now - MAX_BURST_NANOS)
+				+ TimeUnit.SECONDS.toNanos(bytes) / rate;
+	}
+
+	@Override
+	public String toString() {
+		if (this.targetRate > 0) {
+			return "paced at " + this.targetRate + " bytes/second";
+		}
+		return "paced at window/RTT (gain " + PACING_GAIN + ")";
+	}
+
+}
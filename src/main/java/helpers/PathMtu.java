@@ -0,0 +1,131 @@
+package helpers;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Path MTU discovery: the largest packet that gets through to a peer without fragmentation.
+ * Note: results of probing are cached per peer address, so later transfers can skip probing
+ * @author huub.lievestro
+ *
+ */
+public class PathMtu {
+
+	/**
+	 * Size of the IPv4 and UDP headers, in bytes (to subtract from the MTU).
+	 */
+	public static final int IPV4_UDP_OVERHEAD = 28;
+
+	/**
+	 * Size of the IPv6 and UDP headers, in bytes (to subtract from the MTU).
+	 */
+	public static final int IPV6_UDP_OVERHEAD = 48;
+
+	/**
+	 * Largest packet size found by probing, per peer address.
+	 */
+	private static Map<InetAddress, Integer> probedSizes = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the packet size found by probing earlier.
+	 * @param peer address to get the packet size for
+	 * @return packet size in bytes, or null if this peer is not probed yet
+	 */
+	public static Integer getCached(InetAddress peer) {
+		return probedSizes.get(peer);
+	}
+
+	/**
+	 * Cache the packet size found by probing.
+	 * @param peer address that is probed
+	 * @param packetSize largest packet size that got through, in bytes
+	 */
+	public static void cache(InetAddress peer, int packetSize) {
+		probedSizes.put(peer, packetSize);
+	}
+
+	/**
+	 * Get the largest packet size that may get through to a peer without fragmentation.
+	 * @param peer address to get the packet size for
+	 * @return packet size found by probing, or else the limit of the local interface
+	 */
+	public static int getLimit(InetAddress peer) {
+		Integer cached = getCached(peer);
+		return cached != null ? cached : getInterfaceLimit(peer);
+	}
+
+	/**
+	 * Get the largest packet size the local interface towards a peer sends without fragmentation.
+	 * Note: packets may still be fragmented further along the path (so this is an upper bound)
+	 * @param peer address to get the packet size for
+	 * @return packet size in bytes (MAX_PACKET_SIZE if the interface is unknown)
+	 */
+	public static int getInterfaceLimit(InetAddress peer) {
+		try (DatagramSocket socket = new DatagramSocket()) {
+			socket.connect(peer, FileTransferProtocol.DEFAULT_SERVER_PORT); // only selects route
+			NetworkInterface networkInterface =
+					NetworkInterface.getByInetAddress(socket.getLocalAddress());
+			if (networkInterface == null || networkInterface.getMTU() <= 0) {
+				return FileTransferProtocol.MAX_PACKET_SIZE;
+			}
+			int overhead = peer instanceof Inet6Address ? IPV6_UDP_OVERHEAD : IPV4_UDP_OVERHEAD;
+			return Math.min(networkInterface.getMTU() - overhead,
+					FileTransferProtocol.MAX_PACKET_SIZE);
+		} catch (IOException e) {
+			return FileTransferProtocol.MAX_PACKET_SIZE;
+		}
+	}
+
+	/**
+	 * Build the payload of a probe (or a reply to it).
+	 * @param type of probe: FileTransferProtocol.PROBE or PROBE_ACK
+	 * @param packetSize being probed
+	 * @param payloadLength of the payload (padded with zeros)
+	 * @return payload of the probe
+	 */
+	public static byte[] buildProbe(byte[] type, int packetSize, int payloadLength) {
+		byte[] marker = (new String(type) + FileTransferProtocol.DELIMITER + packetSize
+				+ FileTransferProtocol.DELIMITER).getBytes();
+		byte[] payload = new byte[Math.max(payloadLength, marker.length)];
+		System.arraycopy(marker, 0, payload, 0, marker.length);
+		return payload;
+	}
+
+	/**
+	 * Get the packet size being probed from the payload of a probe (or a reply to it).
+	 * @param type of probe: FileTransferProtocol.PROBE or PROBE_ACK
+	 * @param payload to inspect
+	 * @return packet size being probed, or -1 if the payload is not a probe of this type
+	 */
+	public static int getProbeSize(byte[] type, byte[] payload) {
+		if (payload == null || payload.length <= type.length
+				|| payload[type.length] != FileTransferProtocol.DELIMITER.charAt(0)) {
+			return -1;
+		}
+		String[] marker = new String(payload, 0, Math.min(payload.length, type.length + 12))
+				.split(FileTransferProtocol.DELIMITER);
+		try {
+			return marker[0].equals(new String(type)) ? Integer.parseInt(marker[1]) : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Get the ID an uploader replies to a probe with.
+	 * Note: the ID before the first packet, so a late reply is never taken for a packet of the file
+	 * @param startID of the transfer
+	 * @return ID of replies to probes
+	 */
+	public static int getProbeAckId(int startID) {
+		return startID == 0 ? FileTransferProtocol.MAX_ID - 1 : startID - 1;
+	}
+
+}
@@ -0,0 +1,131 @@
+package helpers;
+
+/**
+ * Estimator of the round-trip time (RTT), to derive the retransmission time-out (RTO) from.
+ * Note: follows RFC 6298, with a lower minimal RTO (suitable for LAN)
+ * @author huub.lievestro
+ *
+ */
+public class RttEstimator {
+
+	/**
+	 * Gain of a new sample in the smoothed RTT (alpha = 1/8).
+	 */
+	private static final double ALPHA = 0.125;
+
+	/**
+	 * Gain of a new sample in the RTT variance (beta = 1/4).
+	 */
+	private static final double BETA = 0.25;
+
+	/**
+	 * RTO to use before any RTT is measured, in milliseconds.
+	 */
+	public static final long INITIAL_RTO = 1000;
+
+	/**
+	 * Minimal RTO, in milliseconds.
+	 */
+	public static final long MIN_RTO = 10;
+
+	/**
+	 * Maximal RTO (also when backing off), in milliseconds.
+	 */
+	public static final long MAX_RTO = 60000;
+
+	/**
+	 * Smoothed RTT, in nanoseconds (negative if no RTT measured yet).
+	 */
+	private double smoothedRtt;
+
+	/**
+	 * Variance of the RTT, in nanoseconds.
+	 */
+	private double rttVariance;
+
+	/**
+	 * Current RTO, in milliseconds (including backoff).
+	 */
+	private long rto;
+
+	/**
+	 * Time of last backoff, in nanoseconds (to back off only once for a burst of time-outs).
+	 */
+	private long lastBackoffTime;
+
+	/**
+	 * Create a new RttEstimator.
+	 */
+	public RttEstimator() {
+		this.smoothedRtt = -1;
+		this.rttVariance = 0;
+		this.rto = INITIAL_RTO;
+		this.lastBackoffTime = System.nanoTime() - INITIAL_RTO * 1000000;
+	}
+
+	/**
+	 * Add a measured RTT sample, and update the RTO (removing any backoff).
+	 * Note: only add samples of packets that were not retransmitted (Karn's rule)
+	 * @param sample RTT measured, in nanoseconds
+	 */
+	public synchronized void addSample(long sample) {
+		if (sample < 0) {
+			return;
+		}
+		
+		if (this.smoothedRtt < 0) { // first measurement
+			this.smoothedRtt = sample;
+			this.rttVariance = sample / 2.0;
+		} else {
+			this.rttVariance = (1 - BETA) * this.rttVariance 
+					+ BETA * Math.abs(this.smoothedRtt - sample);
+			this.smoothedRtt = (1 - ALPHA) * this.smoothedRtt + ALPHA * sample;
+		}
+
+		long rtoNanos = (long) (this.smoothedRtt + Math.max(1000000, 4 * this.rttVariance));
+		this.rto = Math.min(MAX_RTO, Math.max(MIN_RTO, (rtoNanos + 999999) / 1000000));
+	}
+
+	/**
+	 * Back off the RTO exponentially, after a time-out.
+	 * Note: a burst of time-outs within one RTO only backs off once
+	 */
+	public synchronized void backoff() {
+		long now = System.nanoTime();
+		if (now - this.lastBackoffTime >= this.rto * 1000000) {
+			this.rto = Math.min(MAX_RTO, this.rto * 2);
+			this.lastBackoffTime = now;
+		}
+	}
+
+	/**
+	 * Get the current RTO.
+	 * @return RTO in milliseconds
+	 */
+	public synchronized long getRto() {
+		return this.rto;
+	}
+
+	/**
+	 * Get the smoothed RTT.
+	 * @return smoothed RTT in milliseconds, or -1 if no RTT measured yet
+	 */
+	public synchronized double getSmoothedRtt() {
+		return this.smoothedRtt < 0 ? -1 : this.smoothedRtt * 1e-6;
+	}
+
+	/**
+	 * Get the variance of the RTT.
+	 * @return RTT variance in milliseconds
+	 */
+	public synchronized double getRttVariance() {
+		return this.rttVariance * 1e-6;
+	}
+
+	@Override
+	public String toString() {
+		return "RTO = " + this.getRto() + " ms (smoothed RTT = " + this.getSmoothedRtt() 
+				+ " ms, RTT variance = " + this.getRttVariance() + " ms)";
+	}
+
+}
@@ -0,0 +1,116 @@
+package helpers;
+
+import network.Packet;
+
+/**
+ * Ring buffer of the packets send by an uploader, which are not acknowledged yet.
+ * Packets are found by their packet number, and their slot is reused once the packet
+ * and all packets before it are acknowledged, so it holds at most one window of packets.
+ * @author huub.lievestro
+ *
+ */
+public class SendBuffer {
+
+	/**
+	 * Slots of the buffer, indexed by packet number (modulo the capacity).
+	 */
+	private Packet[] slots;
+
+	/**
+	 * Mask to find the slot of a packet number (capacity is a power of two).
+	 */
+	private int mask;
+
+	/**
+	 * Number of the oldest packet not acknowledged yet (all packets before it are).
+	 */
+	private int base;
+
+	/**
+	 * Number of the next packet to add (= number of packets send so far).
+	 */
+	private int next;
+
+	/**
+	 * Create a new SendBuffer.
+	 * @param capacity maximal number of packets not acknowledged, rounded up to a power of two
+	 */
+	public SendBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.slots = new Packet[size];
+		this.mask = size - 1;
+		this.base = 0;
+		this.next = 0;
+	}
+
+	/**
+	 * Check if there is room to add the next packet.
+	 * @return true if less than capacity packets are waiting for acknowledgement
+	 */
+	public boolean hasRoom() {
+		return this.next - this.base < this.slots.length;
+	}
+
+	/**
+	 * Add the next packet send (with number getSentPackets()).
+	 * @param packet send
+	 * @throws IllegalStateException if the buffer is full
+	 */
+	public void add(Packet packet) {
+		if (!this.hasRoom()) {
+			throw new IllegalStateException("Send buffer is full: oldest packet " + this.base
+					+ " not acknowledged yet");
+		}
+		this.slots[this.next & this.mask] = packet;
+		this.next++;
+	}
+
+	/**
+	 * Get a packet waiting for acknowledgement.
+	 * @param packetNr of the packet
+	 * @return packet, or null if not send yet or already released
+	 */
+	public Packet get(int packetNr) {
+		if (packetNr < this.base || packetNr >= this.next) {
+			return null;
+		}
+		return this.slots[packetNr & this.mask];
+	}
+
+	/**
+	 * Check if a packet is acknowledged.
+	 * @param packetNr of the packet
+	 * @return true if acknowledged (also if already released), false if not or not send yet
+	 */
+	public boolean isAcknowledged(int packetNr) {
+		if (packetNr < this.base) {
+			return packetNr >= 0;
+		}
+		Packet packet = this.get(packetNr);
+		return packet != null && packet.isAck();
+	}
+
+	/**
+	 * Release the acknowledged packets at the start of the buffer, so their slots are reused.
+	 * Note: call after acknowledging a packet
+	 */
+	public void release() {
+		while (this.base < this.next && this.slots[this.base & this.mask].isAck()) {
+			this.slots[this.base & this.mask] = null;
+			this.base++;
+		}
+	}
+
+	public int getBase() {
+		return base;
+	}
+
+	public int getSentPackets() {
+		return next;
+	}
+
+	public int getCapacity() {
+		return slots.length;
+	}
+
+}
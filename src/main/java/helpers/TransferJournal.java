@@ -0,0 +1,215 @@
+package helpers;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Journal of the byte ranges of a file received so far, so an interrupted download can continue.
+ * A download is written to a part file (name of the file plus PART_EXTENSION), which is renamed
+ * to the file once complete; meanwhile the journal (part file plus JOURNAL_EXTENSION) lists
+ * the received ranges, so a new download of the same file continues where the last one stopped.
+ * Note: an earlier download is only continued if the total file size is the same
+ * @author huub.lievestro
+ *
+ */
+public class TransferJournal {
+
+	/**
+	 * Extension of the file being downloaded, until it is complete.
+	 */
+	public static final String PART_EXTENSION = ".part";
+
+	/**
+	 * Extension of the journal, added to the name of the part file.
+	 */
+	public static final String JOURNAL_EXTENSION = ".journal";
+
+	/**
+	 * Extension of a journal being written, before it replaces the last one.
+	 */
+	private static final String TEMPORARY_EXTENSION = ".tmp";
+
+	/**
+	 * File to download (only created when complete).
+	 */
+	private File file;
+
+	/**
+	 * File the download is written to, until it is complete.
+	 */
+	private File partFile;
+
+	/**
+	 * File the received ranges are saved to.
+	 */
+	private File journalFile;
+
+	/**
+	 * Total size of the file, in bytes.
+	 */
+	private long totalFileSize;
+
+	/**
+	 * Received ranges: start offset mapped to end offset (exclusive), not overlapping or adjacent.
+	 */
+	private TreeMap<Long, Long> ranges;
+
+	/**
+	 * Create a new (empty) TransferJournal.
+	 * @param file to download
+	 * @param totalFileSize of the file, in bytes
+	 */
+	public TransferJournal(File file, long totalFileSize) {
+		this.file = file;
+		this.partFile = new File(file.getPath() + PART_EXTENSION);
+		this.journalFile = new File(this.partFile.getPath() + JOURNAL_EXTENSION);
+		this.totalFileSize = totalFileSize;
+		this.ranges = new TreeMap<>();
+	}
+
+	/**
+	 * Load the ranges received by an earlier download of the file, if any.
+	 * Note: starts empty if there is no journal or part file, or if the file size differs
+	 * @return true if an earlier download is continued
+	 */
+	public synchronized boolean load() {
+		this.ranges.clear();
+		if (!this.journalFile.isFile() || !this.partFile.isFile()) {
+			return false;
+		}
+
+		try (BufferedReader reader = new BufferedReader(new FileReader(this.journalFile))) {
+			String line = reader.readLine();
+			if (line == null || Long.parseLong(line.trim()) != this.totalFileSize) {
+				return false; // another version of the file
+			}
+			while ((line = reader.readLine()) != null) {
+				if (line.isBlank()) {
+					continue;
+				}
+				String[] range = line.trim().split(" ");
+				this.addRange(Long.parseLong(range[0]), Long.parseLong(range[1]));
+			}
+		} catch (IOException | IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			this.ranges.clear(); // unreadable: start again
+			return false;
+		}
+		return !this.ranges.isEmpty();
+	}
+
+	/**
+	 * Add a received range, merging it with the ranges it overlaps or touches.
+	 * @param start offset of the range
+	 * @param end offset after the range (exclusive)
+	 * @throws IllegalArgumentException if the range is not inside the file
+	 */
+	public synchronized void addRange(long start, long end) {
+		if (start < 0 || end < start || end > this.totalFileSize) {
+			throw new IllegalArgumentException("Range " + start + "-" + end
+					+ " is not inside the file of " + this.totalFileSize + " bytes");
+		}
+		if (start == end) {
+			return;
+		}
+
+		Map.Entry<Long, Long> before = this.ranges.floorEntry(start);
+		if (before != null && before.getValue() >= start) { // extends the range before it
+			start = before.getKey();
+			end = Math.max(end, before.getValue());
+		}
+		Map.Entry<Long, Long> after = this.ranges.ceilingEntry(start);
+		while (after != null && after.getKey() <= end) { // swallows the ranges after it
+			end = Math.max(end, after.getValue());
+			this.ranges.remove(after.getKey());
+			after = this.ranges.ceilingEntry(start);
+		}
+		this.ranges.put(start, end);
+	}
+
+	/**
+	 * Get the offset of the first byte not received yet.
+	 * @return offset to continue downloading from (totalFileSize if all received)
+	 */
+	public synchronized long getFirstMissingOffset() {
+		Long end = this.ranges.get(0L);
+		return end != null ? end : 0;
+	}
+
+	/**
+	 * Get the number of bytes received so far.
+	 * @return total length of the received ranges
+	 */
+	public synchronized long getReceivedBytes() {
+		long received = 0;
+		for (Map.Entry<Long, Long> range : this.ranges.entrySet()) {
+			received += range.getValue() - range.getKey();
+		}
+		return received;
+	}
+
+	/**
+	 * Save the received ranges, replacing the journal saved before as a whole
+	 * (so an interruption while saving leaves the last journal intact).
+	 * Note: flush the received bytes to the part file first, so the journal never claims more
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		File temporaryFile = new File(this.journalFile.getPath() + TEMPORARY_EXTENSION);
+		try (PrintWriter writer = new PrintWriter(new FileWriter(temporaryFile))) {
+			writer.println(this.totalFileSize);
+			for (Map.Entry<Long, Long> range : this.ranges.entrySet()) {
+				writer.println(range.getKey() + " " + range.getValue());
+			}
+			if (writer.checkError()) {
+				throw new IOException("Writing journal " + temporaryFile + " failed");
+			}
+		}
+		Files.move(temporaryFile.toPath(), this.journalFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Finish the download: rename the part file to the file, and delete the journal.
+	 * @throws IOException
+	 */
+	public void complete() throws IOException {
+		Files.move(this.partFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		Files.deleteIfExists(this.journalFile.toPath());
+	}
+
+	/**
+	 * Check if a file is the part file or journal of a download (to hide it from file lists).
+	 * @param file to check
+	 * @return true if its name ends with PART_EXTENSION or JOURNAL_EXTENSION
+	 */
+	public static boolean isTransferFile(File file) {
+		String name = file.getName();
+		return name.endsWith(PART_EXTENSION) || name.endsWith(JOURNAL_EXTENSION)
+				|| name.endsWith(JOURNAL_EXTENSION + TEMPORARY_EXTENSION);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public File getPartFile() {
+		return partFile;
+	}
+
+	public File getJournalFile() {
+		return journalFile;
+	}
+
+	public long getTotalFileSize() {
+		return totalFileSize;
+	}
+
+}
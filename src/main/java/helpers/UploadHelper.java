@@ -4,12 +4,13 @@ import java.io.File;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import client.FileTransferClient;
 import exceptions.PacketException;
@@ -17,6 +18,9 @@ import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
 import me.tongfei.progressbar.ProgressBar;
 import me.tongfei.progressbar.ProgressBarStyle;
+import network.ConnectionTable;
+import network.EventLoop;
+import network.IPacketEventHandler;
 import network.Packet;
 import network.TransportLayer;
 import protocol.FileTransferProtocol;
@@ -28,7 +32,13 @@ import server.FileTransferClientHandler;
  * @author huub.lievestro
  *
  */
-public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler { 
+public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler, 
+		IPacketEventHandler { 
+
+	/**
+	 * Logger of the upload subsystem (per packet messages are debug messages).
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.UPLOAD);
 
 	/**
 	 * Connected process, which started this helper.
@@ -50,6 +60,11 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	 */
 	private int downloaderPort;
 
+	/**
+	 * Socket address of the downloader (kept, so it is not created for every packet to send).
+	 */
+	private InetSocketAddress downloaderSocketAddress;
+
 	/**
 	 * Indicate running on client side: need to initiate (uploader will wait).
 	 * Note: this may be needed to let downloader open a way through Firewall(s) first.
@@ -67,9 +82,9 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	File fileToRead;
 
 	/** 
-	 * List of send packets.
+	 * Send packets which are not acknowledged yet (at most MAX_SWS, the largest window).
 	 */
-	private List<Packet> packetList;
+	private SendBuffer sendBuffer;
 
 	/** 
 	 * Last Acknowledged Frame (by downloader).
@@ -77,11 +92,28 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	private int LAR;
 	
 	/**
-	 * Sliding Window Size, 
-	 * represents how many unacknowledged packets may be send.
-	 * Note: may not exceed (FileTransferProtocol.MAX_ID + 1)/ 2 - 1;
+	 * Maximal Sliding Window Size: the window of the downloader, 
+	 * which may not exceed (FileTransferProtocol.MAX_ID + 1)/ 2 - 1 (half of the ID space).
 	 */
-	private int SWS;
+	public static final int MAX_SWS = Math.min((FileTransferProtocol.MAX_ID + 1) / 2 - 1, 
+			FileTransferProtocol.MAX_WINDOW_SIZE);
+	
+	/**
+	 * Congestion controller, determining the Sliding Window Size (SWS), 
+	 * which represents how many unacknowledged packets may be send.
+	 */
+	private CongestionController congestionController;
+	
+	/**
+	 * Pacer spacing the packets send evenly (null if the window is send back to back).
+	 */
+	private Pacer pacer;
+	
+	/**
+	 * Time-out to send the packets of the window which are due later, when paced and event driven
+	 * (null if none is set).
+	 */
+	private util.TimeOutEntry pacingTimeOut;
 	
 	/**
 	 * Count of how many times the ID has wrapped around. 
@@ -97,12 +129,24 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	/**
 	 * Keeps track of where we are in the data.
 	 */
-	private int filePointer;
+	private long filePointer;
+	
+	/**
+	 * Offset in the file to upload from: the bytes before it were received earlier 
+	 * (or are not requested).
+	 */
+	private long startOffset;
+	
+	/**
+	 * Number of bytes to upload from the startOffset, or -1 to upload the rest of the file.
+	 */
+	private long rangeLength;
 	
 	/**
-	 * Contents of the file, read from the File object.
+	 * Channel to read the contents of the file from, one payload at a time when needed
+	 * (so the file is never loaded into memory as a whole).
 	 */
-	private byte[] fileContents;
+	private FileChannel fileChannel;
 	
 	/** 
 	 * Number of packets to send in total.
@@ -119,6 +163,28 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	 */
 	private int totalAckPackets;
 	
+	/**
+	 * ID of the connection of this helper, to put in the header of every packet.
+	 * Note: zero if the downloader does not share its port with other connections
+	 */
+	private int connectionId;
+	
+	/**
+	 * Size of the packets of this transfer, including the header.
+	 */
+	private int packetSize;
+	
+	/**
+	 * Table of connections sharing the uploadSocket, to unregister from at shutdown
+	 * (null if the uploadSocket is owned by this helper).
+	 */
+	private ConnectionTable connectionTable;
+	
+	/**
+	 * Indicates if this helper is unregistered from the shared uploadSocket (= shutdown).
+	 */
+	private volatile boolean sharedSocketReleased;
+	
 	/**
 	 * Name of this uploadHelper (mainly for printing named messages).
 	 */
@@ -142,6 +208,33 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	private int thresholdResend;
 	
 
+	/**
+	 * Estimator of the round-trip time, to derive the retransmission time-out from.
+	 */
+	private RttEstimator rttEstimator;
+	
+	/**
+	 * Number of duplicate ACKs after which the next packet is resend right away,
+	 * instead of waiting for its time-out (zero disables fast retransmit).
+	 * Note: with SACKs, a duplicate is a SACK acknowledging packets above a missing packet
+	 */
+	private int dupAckThreshold;
+	
+	/**
+	 * Packet number of the last duplicate ACK(s).
+	 */
+	private int duplicateAckNr;
+	
+	/**
+	 * Number of duplicate ACKs for duplicateAckNr.
+	 */
+	private int duplicateAckCount;
+	
+	/**
+	 * Number of packets resend by fast retransmit.
+	 */
+	private int totalFastRetransmits;
+	
 	/**
 	 * Indicating upload complete.
 	 */
@@ -151,6 +244,11 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	 * Indicate if paused or not.
 	 */
 	private boolean paused;
+
+	/**
+	 * Indicate if the downloader initiated the upload (only used when event driven).
+	 */
+	private boolean initiated;
 	
 	/**
 	 * (re)start time of upload.
@@ -177,6 +275,7 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.uploadSocket = uploadSocket;
 		this.downloaderAddress = downloaderAddress;
 		this.downloaderPort = downloaderPort;
+		this.textUI = new userInterface.TUI(); // before any message is shown
 		
 		if (parent instanceof FileTransferClient) {
 			this.waitForInitiate = false;
@@ -201,12 +300,11 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.startTime = System.nanoTime();
 		this.duration = 0;
 		
-		this.textUI = new userInterface.TUI();
-		
-		this.packetList = new ArrayList<Packet>();
+		this.sendBuffer = new SendBuffer(MAX_SWS);
 
 		this.LAR = -1;
-		this.SWS = 10; // MAY NOT EXCEED (FileTransferProtocol.MAX_ID + 1)/ 2 - 1;
+		this.congestionController = new AimdController(MAX_SWS);
+		this.packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
 
 		this.startID = 0; // TODO for now always starting at zero, because of some weird behaviour
 		// would be better to start at random: 
@@ -214,8 +312,16 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		
 		this.totalResendPackets = 0;
 		this.thresholdResend = 25; 
+		this.rttEstimator = new RttEstimator();
+		
+		this.dupAckThreshold = 3;
+		this.duplicateAckNr = -1;
+		this.duplicateAckCount = 0;
+		this.totalFastRetransmits = 0;
 		
 		this.filePointer = 0;
+		this.startOffset = 0;
+		this.rangeLength = -1;
 	}
 
 	/**
@@ -234,31 +340,113 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.idWrapCounter = 0;
 		this.transferBytes();
 		
+		if (this.complete) { // else: shut down before
+			this.finishTransfer();
+		}
+	}
+
+	/**
+	 * Upload file, driven by the packets received from the event loop (instead of own thread).
+	 * Note: uploadSocket must be backed by a DatagramChannel
+	 * @param eventLoop to register the uploadSocket on, or null if the uploadSocket is shared
+	 * 		(packets are then passed on by the owner of the socket)
+	 * @throws IOException
+	 */
+	public void start(EventLoop eventLoop) throws IOException {
+		this.showNamedMessage("Starting upload helper (event driven)...");
+		this.readFile();
+
+		this.totalAckPackets = 0;
+		this.currentPacketToSend = 0;
+		this.idWrapCounter = 0;
+		this.initiated = !this.waitForInitiate;
+		if (eventLoop != null) {
+			eventLoop.register(this.uploadSocket, this);
+		}
+
+		if (this.initiated) {
+			this.showNamedMessage("Starting byte transfer...");
+			this.sendWindow();
+		} else {
+			this.showNamedMessage("Waiting for initiation by downloader...");
+		}
+	}
+
+	/**
+	 * Process a packet received from the event loop, and send the packets this allows.
+	 * @param receivedPacket from the downloader
+	 */
+	@Override
+	public synchronized void packetReceived(Packet receivedPacket) {
+		if (this.isSocketClosed() || !this.checkSource(receivedPacket)) {
+			return;
+		}
+
+		if (!this.initiated) {
+			if (this.processInitiation(receivedPacket)) {
+				this.initiated = true;
+				this.showNamedMessage("Downloader initiated upload!");
+				this.showNamedMessage("Starting byte transfer...");
+			}
+		} else {
+			this.processPacket(receivedPacket);
+		}
+
+		if (this.initiated) {
+			this.sendWindow();
+		}
+
+		if (this.isTransferDone() && !this.isSocketClosed()) {
+			this.showNamedMessage("Sending completed!"); 
+			this.complete = true;
+			this.finishTransfer();
+		}
+	}
+
+	/**
+	 * Show statistics and shutdown, after the complete file is send.
+	 */
+	public void finishTransfer() {
 		this.showNamedMessage("File send completely");
 		this.duration += System.nanoTime() - this.startTime;
 		this.showStats();
 		this.showNamedMessage("Upload complete: helper shutting down");
 		this.shutdown();
-
-		
 	}
 
 	/**
-	 * Read contents of File object into uploader byte[].
+	 * Open File object for reading, payloads are read from it when they are send.
 	 */
 	public void readFile() {
 		try {
-			this.fileContents = util.FileOperations.getFileContents(this.fileToRead);
+			this.fileChannel = util.FileOperations.openFileChannel(this.fileToRead);
+			this.totalFileSize = this.fileChannel.size();
 		} catch (IOException e) {
 			this.showNamedError("Reading file failed: " + e.getLocalizedMessage());
 			this.showNamedError("Cannot continue to upload: going to shutdown");
 			this.shutdown();
+			return;
 		}
 
-		this.totalPackets = (int) 
-				Math.ceil(fileContents.length / FileTransferProtocol.MAX_PAYLOAD_LENGTH) + 1;
-		this.showNamedMessage("Total number of packets to send: " + this.totalPackets);
-
+		this.countPackets();
+	}
+	
+	/**
+	 * Determine the number of packets to send, for the size of the file and the packets.
+	 * Note: shuts down if the file needs more packets than can be numbered
+	 */
+	public void countPackets() {
+		try {
+			this.totalPackets = FileTransferProtocol.countPackets(
+					this.getEndOffset() - this.startOffset, this.getPayloadLength());
+		} catch (IllegalArgumentException e) {
+			this.showNamedError(e.getLocalizedMessage());
+			this.showNamedError("Cannot continue to upload: going to shutdown");
+			this.shutdown();
+			return;
+		}
+		this.showNamedMessage("Total number of packets to send: " + this.totalPackets
+				+ " (of " + this.packetSize + " bytes)");
 	}
 	
 	/** 
@@ -270,7 +458,7 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 			this.showNamedMessage("Waiting for initiation by downloader...");
 			boolean proceed = false;
 
-			while (!proceed) {
+			while (!proceed && !this.isSocketClosed()) {
 				try {
 					Packet receivedPacket = TransportLayer.receivePacket(this.uploadSocket);
 
@@ -278,13 +466,7 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 						continue;
 					}
 
-					if (Arrays.equals(receivedPacket.getPayloadBytes(), 
-							FileTransferProtocol.START_DOWNLOAD)) {
-						proceed = true;
-					} else {
-						this.showNamedError("Unknown packet received: " 
-								+ new String(receivedPacket.getPayload()));
-					}
+					proceed = this.processInitiation(receivedPacket);
 				} catch (IOException | PacketException | UtilDatagramException e) {
 					this.showNamedError("Receiving packet failed: " + e.getLocalizedMessage());
 					this.showNamedError("Uploader continues, but may have missed initiation!");
@@ -295,7 +477,102 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	}
 	
 	/**
-	 * Transfer the byte[] of the File to the downloader, contained in Packets.
+	 * Process a packet received while waiting for initiation:
+	 * reply to probes of the path MTU, and use the packet size and offset the downloader starts with.
+	 * Note: shuts down if the downloader cancels instead
+	 * @param receivedPacket from the downloader
+	 * @return true if the downloader initiated the upload (START)
+	 */
+	public boolean processInitiation(Packet receivedPacket) {
+		byte[] payload = receivedPacket.getPayloadBytes();
+		
+		if (receivedPacket.payloadBytesEqual(FileTransferProtocol.CANCEL_DOWNLOAD)) {
+			this.showNamedMessage("Downloader cancelled the upload");
+			this.shutdown();
+			return false;
+		}
+		
+		int probeSize = PathMtu.getProbeSize(FileTransferProtocol.PROBE, payload);
+		if (probeSize > 0) { // it got through: reply with a small packet 
+			this.sendProbeAck(probeSize);
+			return false;
+		}
+		
+		String[] start = new String(payload).split(FileTransferProtocol.DELIMITER);
+		if (!start[0].equals(new String(FileTransferProtocol.START_DOWNLOAD))) {
+			this.showNamedError("Unknown packet received: " + new String(payload));
+			return false;
+		}
+		
+		boolean recount = false;
+		if (start.length > 1) { // downloader probed the path: may use smaller packets
+			try {
+				int startSize = FileTransferProtocol.negotiatePacketSize(
+						Integer.parseInt(start[1]), this.packetSize);
+				if (startSize != this.packetSize) {
+					this.packetSize = startSize;
+					recount = true;
+				}
+			} catch (NumberFormatException e) {
+				this.showNamedError("Invalid packet size to start with: keeping " 
+						+ this.packetSize + " bytes");
+			}
+		}
+		if (start.length > 2) { // downloader may continue an interrupted download
+			try {
+				long offset = Long.parseLong(start[2]);
+				if (offset != this.startOffset) {
+					this.setStartOffset(offset);
+					this.showNamedMessage("Continuing interrupted upload from byte " + offset);
+					recount = true;
+				}
+			} catch (IllegalArgumentException e) { // including NumberFormatException
+				this.showNamedError("Invalid offset to start from: starting from byte " 
+						+ this.startOffset);
+			}
+		}
+		if (start.length > 3) { // downloader asks for a range only (e.g. one stripe of the file)
+			try {
+				long length = Long.parseLong(start[3]);
+				if (length != this.getEndOffset() - this.startOffset) {
+					this.setRange(this.startOffset, length);
+					this.showNamedMessage("Uploading range of " + length + " bytes");
+					recount = true;
+				}
+			} catch (IllegalArgumentException e) { // including NumberFormatException
+				this.showNamedError("Invalid range length: uploading up to byte " 
+						+ this.getEndOffset());
+			}
+		}
+		if (recount) {
+			this.countPackets();
+		}
+		return true;
+	}
+	
+	/**
+	 * Reply to a probe of the path MTU that got through.
+	 * @param probeSize packet size of the probe
+	 */
+	public void sendProbeAck(int probeSize) {
+		try {
+			Packet probeAck = new Packet(
+					PathMtu.getProbeAckId(this.startID),
+					this.uploadSocket.getLocalAddress(),
+					this.uploadSocket.getLocalPort(), 
+					this.downloaderAddress, 
+					this.downloaderPort,
+					PathMtu.buildProbe(FileTransferProtocol.PROBE_ACK, probeSize, 0)
+					);
+			probeAck.setConnectionId(this.connectionId);
+			TransportLayer.sendPacket(this.uploadSocket, probeAck, this.downloaderPort);
+		} catch (PacketException | IOException | UtilByteException | UtilDatagramException e) {
+			this.showNamedError("Replying to probe failed: " + e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * Transfer the bytes of the File to the downloader, contained in Packets.
 	 */
 	public void transferBytes() {
 
@@ -303,12 +580,12 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 			try (ProgressBar pb = new ProgressBar(this.fileToRead.getName(), this.totalPackets, 1, 
 					System.out, ProgressBarStyle.COLORFUL_UNICODE_BLOCK, " Packets", 1, false, null)) {
 				pb.setExtraMessage("Uploading..."); 
-				while (!(filePointer >= fileContents.length && totalAckPackets == totalPackets)) { 
-					// while not (reached end of the file AND all packets are acknowledged)
-					if ((currentPacketToSend <= LAR + SWS // inside send window size = send packet
-							&& currentPacketToSend < totalPackets)
-							&& !this.paused) { // if paused only listen 
-						this.sendNextPacket();
+				while (!this.isTransferDone() && !this.isSocketClosed()) { 
+					if (this.canSendNextPacket()) {
+						this.listenUntilDue(); // may get a PAUSE, or be shut down meanwhile
+						if (this.canSendNextPacket() && !this.isSocketClosed()) {
+							this.sendNextPacket();
+						}
 					} else {
 						this.listenForAck();
 						pb.stepTo(this.totalAckPackets);
@@ -318,43 +595,136 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 
 			}
 		} else { // running on server: more textual output
-			while (!(filePointer >= fileContents.length && totalAckPackets == totalPackets)) { 
-				// while not (reached end of the file AND all packets are acknowledged)
-				if ((currentPacketToSend <= LAR + SWS // inside send window size = send the packet
-						&& currentPacketToSend < totalPackets)
-						&& !this.paused) { // if paused only listen 
-					this.sendNextPacket();
+			while (!this.isTransferDone() && !this.isSocketClosed()) { 
+				if (this.canSendNextPacket()) {
+					this.listenUntilDue(); // may get a PAUSE, or be shut down meanwhile
+					if (this.canSendNextPacket() && !this.isSocketClosed()) {
+						this.sendNextPacket();
+					}
 				} else {
 					this.listenForAck();
 				}
 			}
 		}
+		if (!this.isTransferDone()) {
+			this.showNamedError("Sending stopped: helper is shut down");
+			return;
+		}
 		this.showNamedMessage("Sending completed!"); 
 
 		this.complete = true;
 	}
+
+	/**
+	 * Check if the transfer is done.
+	 * @return true if reached end of the file (or range) AND all packets are acknowledged
+	 */
+	public boolean isTransferDone() {
+		return filePointer >= this.getEndOffset() && totalAckPackets == totalPackets;
+	}
+
+	/**
+	 * Check if the next packet may be send.
+	 * @return true if inside send window and send buffer, not all packets are send, and not paused
+	 */
+	public boolean canSendNextPacket() {
+		return currentPacketToSend <= LAR + this.congestionController.getWindow() 
+				&& currentPacketToSend < totalPackets
+				&& this.sendBuffer.hasRoom() // oldest unacknowledged packet not a buffer behind
+				&& !this.paused; // if paused only listen 
+	}
+
+	/**
+	 * Send all packets inside the send window, that are not send yet.
+	 */
+	public void sendWindow() {
+		while (this.canSendNextPacket() && !this.isSocketClosed()) {
+			if (this.pacer != null && this.pacer.getDelay() > 0) { // do not block the event loop
+				this.schedulePacing();
+				return;
+			}
+			this.sendNextPacket();
+		}
+	}
+	
+	/**
+	 * Set a time-out to continue sending the window once the next packet is due.
+	 */
+	public void schedulePacing() {
+		if (this.pacingTimeOut == null) {
+			long delay = Math.max(1, TimeUnit.NANOSECONDS.toMillis(this.pacer.getDelay()));
+			this.pacingTimeOut = util.TimeOut.setTimeOut(delay, this, this.pacer);
+		}
+	}
 	
 	/**
 	 * Send next packet to the downloader.
 	 */
 	public void sendNextPacket() {
-		int packetID = nrToId(this.currentPacketToSend);
-		
-		if (packetID == 0 && this.currentPacketToSend != 0) {
-			this.idWrapCounter++;
-			//this.showNamedMessage("packet ID wrap around"); // for debugging
+		if (this.pacer != null) { // wait until due (already due when called by sendWindow)
+			this.pacer.pace();
+		}
+		synchronized (this) { // currentPacketToSend is read by timeoutElapsed
+			int packetID = nrToId(this.currentPacketToSend);
+			
+			if (packetID == 0 && this.currentPacketToSend != 0) {
+				this.idWrapCounter++;
+				//this.showNamedMessage("packet ID wrap around"); // for debugging
+			}
+			
+			byte[] payload = generatePayload();
+			this.sendBytesToDownloader(packetID, payload); 
+	
+			filePointer += payload.length; 
+			if (this.pacer != null) {
+				this.pacer.onSend(FileTransferProtocol.TOTAL_HEADER_SIZE + payload.length, 
+						this.pacer.getRate(this.congestionController.getWindow(), this.packetSize, 
+								this.rttEstimator.getSmoothedRtt()));
+			}
+			
+			if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+				LOG.debug(this.name, "Packet " + currentPacketToSend 
+						+ " with ID = " + packetID + " send..");
+			}
+			currentPacketToSend++;
+		}
+	}
+	
+	/**
+	 * Process packets from the downloader until the next packet is due (only when paced),
+	 * so ACKs are not left waiting while this thread paces.
+	 */
+	public void listenUntilDue() {
+		if (this.pacer == null) {
+			return;
 		}
 		
-		this.sendBytesToDownloader(packetID, generatePayload()); 
-
-		filePointer += Math.min(FileTransferProtocol.MAX_PAYLOAD_LENGTH,
-				fileContents.length - filePointer); 
+		long delay = TimeUnit.NANOSECONDS.toMillis(this.pacer.getDelay());
+		while (delay > 0 && !this.paused) { // remaining sub-millisecond delay is parked
+			try {
+				this.uploadSocket.setSoTimeout((int) delay);
+				Packet receivedPacket = TransportLayer.receivePacket(this.uploadSocket);
+				if (receivedPacket != null && this.checkSource(receivedPacket)) {
+					this.processPacket(receivedPacket);
+				}
+			} catch (SocketTimeoutException e) {
+				// next packet is due
+			} catch (IOException | PacketException | UtilDatagramException e) {
+				this.showNamedError("Receiving packet failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, but may have missed an ACK!");
+				break;
+			}
+			delay = TimeUnit.NANOSECONDS.toMillis(this.pacer.getDelay());
+		}
 		
-		if (waitForInitiate) { // running on server: more textual output
-			this.showNamedMessage("Packet " + currentPacketToSend 
-					+ " with ID = " + packetID + " send..");
+		if (!this.paused) {
+			try {
+				this.uploadSocket.setSoTimeout(0); // revert socket to default operation
+			} catch (SocketException e) {
+				this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, but socket may time out!");
+			}
 		}
-		currentPacketToSend++;
 	}
 	
 	/**
@@ -363,8 +733,8 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	public void listenForAck() {
 		try {
 			if (!this.paused) {
-				if (waitForInitiate) { // running on server: more textual output
-					this.showNamedMessage("Listening for ACK(s)...");
+				if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+					LOG.debug(this.name, "Listening for ACK(s)...");
 				}
 			}
 			
@@ -380,21 +750,7 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 					continue;
 				}
 
-				if (Arrays.equals(receivedPacket.getPayloadBytes(), FileTransferProtocol.ACK)) {
-					int packetNr = this.idToNr(receivedPacket.getId());
-					LAR = packetNr;
-					this.setPacketAck(packetNr);
-					ackReceived = true;
-				} else if (Arrays.equals(receivedPacket.getPayloadBytes(),
-						FileTransferProtocol.PAUSE_DOWNLOAD)) {
-					this.pause();
-				} else if (Arrays.equals(receivedPacket.getPayloadBytes(),
-						FileTransferProtocol.RESUME_DOWNLOAD)) {
-					this.resume();
-				} else {
-					this.showNamedError("Unknown packet received: " 
-							+ new String(receivedPacket.getPayload()));
-				}
+				ackReceived = this.processPacket(receivedPacket);
 			}
 		} catch (SocketTimeoutException e) {
 			// this.showNamedMessage("Socket timed-out: retry receive"); // for debugging
@@ -406,39 +762,185 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	}
 	
 	/**
-	 * Generate payload for next packet to send.
+	 * Process a packet received from the downloader (ACK, PAUSE, RESUME or CANCEL).
+	 * Note: synchronized with timeoutElapsed, so no packet is resend after it is acknowledged
+	 * @param receivedPacket to process
+	 * @return true if the packet was an ACK
+	 */
+	public synchronized boolean processPacket(Packet receivedPacket) {
+		if (receivedPacket.payloadBytesEqual(FileTransferProtocol.ACK)) {
+			int packetNr = this.idToNr(receivedPacket.getId());
+			if (this.sendBuffer.isAcknowledged(packetNr)) { 
+				this.countDuplicateAck(packetNr); // next packet may be lost
+			}
+			LAR = packetNr;
+			this.setPacketAck(packetNr);
+			return true;
+		} else if (this.isSack(receivedPacket.getPayloadView())) {
+			this.processSack(receivedPacket.getPayloadView());
+			return true;
+		} else if (receivedPacket.payloadBytesEqual(FileTransferProtocol.PAUSE_DOWNLOAD)) {
+			this.pause();
+		} else if (receivedPacket.payloadBytesEqual(FileTransferProtocol.RESUME_DOWNLOAD)) {
+			this.resume();
+		} else if (receivedPacket.payloadBytesEqual(FileTransferProtocol.CANCEL_DOWNLOAD)) {
+			this.showNamedMessage("Downloader cancelled the upload");
+			this.shutdown();
+		} else {
+			this.showNamedError("Unknown packet received: " 
+					+ new String(receivedPacket.getPayload()));
+		}
+		return false;
+	}
+	
+	/**
+	 * Check if a payload is a SACK (selective acknowledgement).
+	 * @param payload to check
+	 * @return true if payload is a SACK
+	 */
+	public boolean isSack(ByteBuffer payload) {
+		if (payload.limit() < FileTransferProtocol.SACK_BITMAP_START) {
+			return false;
+		}
+		for (int i = 0; i < FileTransferProtocol.SACK.length; i++) {
+			if (payload.get(i) != FileTransferProtocol.SACK[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Process a SACK: acknowledge all packets up to the cumulative ACK (and move LAR to it),
+	 * and all packets in its bitmap; only the missing packets will be resend on time-out.
+	 * @param sack payload to process
+	 */
+	public void processSack(ByteBuffer sack) {
+		int cumulativeNr = sack.getInt(FileTransferProtocol.SACK.length);
+		int sentPackets = this.sendBuffer.getSentPackets();
+		boolean duplicate = cumulativeNr <= LAR; // no progress: packet after it may be lost
+		
+		for (int nr = Math.max(LAR + 1, 0); nr <= cumulativeNr && nr < sentPackets; nr++) {
+			this.setPacketAck(nr);
+		}
+		if (cumulativeNr > LAR) {
+			LAR = Math.min(cumulativeNr, sentPackets - 1);
+		}
+		
+		int bitmapLength = (sack.limit() - FileTransferProtocol.SACK_BITMAP_START) * 8;
+		for (int i = 0; i < bitmapLength; i++) {
+			int nr = cumulativeNr + 1 + i;
+			if (nr >= sentPackets) {
+				break;
+			}
+			if ((sack.get(FileTransferProtocol.SACK_BITMAP_START + i / 8) & (1 << (i % 8))) != 0) {
+				if (duplicate) { // packets received above the missing packet
+					this.countDuplicateAck(cumulativeNr);
+					duplicate = false; // count every SACK only once
+				}
+				if (!this.sendBuffer.isAcknowledged(nr)) {
+					this.setPacketAck(nr);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Count a duplicate ACK, and fast retransmit the next packet when threshold is reached.
+	 * @param ackedNr packet number which is acknowledged again
+	 */
+	public void countDuplicateAck(int ackedNr) {
+		if (ackedNr != this.duplicateAckNr) { // new window position
+			this.duplicateAckNr = ackedNr;
+			this.duplicateAckCount = 0;
+		}
+		this.duplicateAckCount++;
+		
+		if (this.duplicateAckCount == this.dupAckThreshold) { // only once per window position
+			this.fastRetransmit(ackedNr + 1);
+		}
+	}
+	
+	/**
+	 * Resend a packet right away (instead of waiting for its time-out).
+	 * @param nrToResend packet number to resend
+	 */
+	public void fastRetransmit(int nrToResend) {
+		Packet packet = this.sendBuffer.get(nrToResend);
+		if (packet == null || packet.isAck()) { // not send yet, or already acknowledged
+			return;
+		}
+		
+		if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+			LOG.debug(this.name, "Duplicate ACKs for packet " + this.duplicateAckNr 
+					+ ": fast retransmit of packet " + nrToResend);
+		}
+		if (packet.getTimeOut() != null) { // a new time-out is set when resending
+			packet.getTimeOut().cancel();
+		}
+		packet.setRetransmitted(true);
+		this.congestionController.onLoss(nrToResend, this.currentPacketToSend - 1);
+		this.totalFastRetransmits++;
+		this.sendPacketToDownloader(packet);
+		
+		this.restrictResend(packet);
+	}
+	
+	/**
+	 * Generate payload for next packet to send, by reading it from the file.
 	 * @return byte[] payload for next packet
 	 */
 	public byte[] generatePayload() {
-		int datalen = Math.min(FileTransferProtocol.MAX_PAYLOAD_LENGTH,
-				fileContents.length - filePointer);
+		int datalen = (int) Math.min(this.getPayloadLength(),
+				this.getEndOffset() - filePointer);
 		
 		byte[] payload = new byte[datalen];
-		System.arraycopy(fileContents, filePointer, payload, 0, datalen); 
+		try {
+			util.FileOperations.readFileChannel(this.fileChannel, 
+					ByteBuffer.wrap(payload), filePointer);
+		} catch (IOException e) {
+			this.showNamedError("Reading file failed: " + e.getLocalizedMessage());
+			this.showNamedError("Cannot continue to upload: going to shutdown");
+			this.shutdown();
+		}
 
 		return payload;
 	}
 
 	/**
-	 * Set a Packet from the packetList to acknowledged.
+	 * Set a Packet from the sendBuffer to acknowledged, and release it when it is the oldest.
 	 * @param nrToAck of packet to set to acknowledged
 	 */
 	public void setPacketAck(int nrToAck) {
 		boolean found = false;
-		Packet p = this.packetList.get(nrToAck); 
-		if (p.getId() == nrToId(nrToAck)) { // check if no shift in list
+		Packet p = this.sendBuffer.get(nrToAck); // null if already acknowledged and released
+		if (p == null && this.sendBuffer.isAcknowledged(nrToAck)) {
+			if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+				LOG.debug(this.name, "Packet " + nrToAck + " was already ACKed: duplicate!");
+			}
+			found = true;
+		} else if (p != null && p.getId() == nrToId(nrToAck)) { // check if no shift in buffer
 			if (!p.isAck()) {
 				p.setAck(true);
+				if (!p.isRetransmitted()) { // Karn's rule: ACK of a resend packet is ambiguous
+					this.rttEstimator.addSample(System.nanoTime() - p.getSendTime());
+				}
+				this.congestionController.onAck();
+				if (p.getTimeOut() != null) { // no need to wait for it anymore
+					p.getTimeOut().cancel(); 
+				}
+				p.releasePayload(); // will not be resend: only keep unacknowledged payloads
+				this.sendBuffer.release(); // slot can be reused, if this was the oldest
 				
-				if (waitForInitiate) { // running on server: more textual output
-					this.showNamedMessage("Packet " + nrToAck + " ACKed!");
+				if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+					LOG.debug(this.name, "Packet " + nrToAck + " ACKed!");
 				}
 				
 				totalAckPackets++;
 			} else {
 				
-				if (waitForInitiate) { // running on server: more textual output
-					this.showNamedMessage("Packet " + nrToAck + " was already ACKed: duplicate!");
+				if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+					LOG.debug(this.name, "Packet " + nrToAck + " was already ACKed: duplicate!");
 				}
 			}
 			found = true;
@@ -466,10 +968,11 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 					this.downloaderPort,
 					bytesToSend
 					);
+			packet.setConnectionId(this.connectionId);
 
 			this.sendPacketToDownloader(packet);
 
-			packetList.add(packet);
+			this.sendBuffer.add(packet);
 
 			//this.showNamedMessage("Bytes send!"); // for debugging 
 
@@ -485,31 +988,52 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	 */
 	public void sendPacketToDownloader(Packet packet) {
 		try {
+			if (this.downloaderSocketAddress == null 
+					|| this.downloaderSocketAddress.getPort() != this.downloaderPort) { // port set later
+				this.downloaderSocketAddress = new InetSocketAddress(this.downloaderAddress, this.downloaderPort);
+			}
 			TransportLayer.sendPacket(
 					this.uploadSocket,
 					packet,
-					this.downloaderPort
+					this.downloaderSocketAddress
 			);
 		} catch (IOException | UtilByteException | UtilDatagramException e) {
 			this.showNamedError("Sending packet failed: " + e.getLocalizedMessage());
 			this.showNamedError("Uploader continues, but something may be missing!");
 		}
 		
-		util.TimeOut.setTimeOut(1000, this, packet); 
+		packet.setSendTime(System.nanoTime());
+		packet.setTimeOut(util.TimeOut.setTimeOut(this.rttEstimator.getRto(), this, packet)); 
 	}
 		
 	/**
 	 * If time-out elapsed and packet is not acknowledged: resend packet.	
+	 * (or, when paced and event driven: send the packets of the window which are due)
 	 * @param tag Object that called timeoutElapsed	    
 	 */
 	@Override
 	public void timeoutElapsed(Object tag) {
+		if (tag instanceof Pacer) { // next packet of the window is due
+			synchronized (this) {
+				this.pacingTimeOut = null;
+				this.sendWindow();
+			}
+			return;
+		}
+		
 		Packet packet = (Packet) tag;
-		if (!packet.isAck()) {
-			if (waitForInitiate) { // running on server: more textual output
-				this.showNamedMessage("TIME OUT packet with ID = " 
+		synchronized (this) { // an ACK may arrive meanwhile (see processPacket)
+			if (packet.isAck()) { // payload is released already: do not resend
+				return;
+			}
+			if (waitForInitiate && LOG.isDebugEnabled()) { // running on server: per packet
+				LOG.debug(this.name, "TIME OUT packet with ID = " 
 						+ packet.getId() + " without ACK: resend!");
 			}
+			packet.setRetransmitted(true);
+			this.rttEstimator.backoff();
+			// oldest unacknowledged packet
+			this.congestionController.onTimeout(this.LAR + 1, this.currentPacketToSend - 1);
 			sendPacketToDownloader(packet);
 			
 			this.restrictResend(packet);
@@ -530,8 +1054,6 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 							+ " network too unreliable = aborting transfer");
 			this.showNamedError("Cannot continue to upload: going to shutdown");
 			this.shutdown();
-
-			packet.setAck(true); // TODO not actually true, abort timeout in other way!
 		}
 	}
 		
@@ -564,14 +1086,17 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.paused = true;
 		this.duration += System.nanoTime() - this.startTime;
 
-		try {
-			this.uploadSocket.setSoTimeout(1000); 
-			// otherwise, thread will block in .receive and not be able to get local resume command
-		} catch (SocketException e) {
-			this.showNamedError("Setting socket time-out failed: " + e.getLocalizedMessage());
-			this.showNamedError("Uploader continues, "
-					+ "but may not continue while waiting for RESUME packet!");
-		} 
+		if (this.connectionTable == null) { // a shared socket is not received from here
+			try {
+				this.uploadSocket.setSoTimeout(1000); 
+				// otherwise, thread will block in .receive 
+				// and not be able to get local resume command
+			} catch (SocketException e) {
+				this.showNamedError("Setting socket time-out failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, "
+						+ "but may not continue while waiting for RESUME packet!");
+			} 
+		}
 		this.showNamedMessage("=PAUSED");
 	}
 	
@@ -583,14 +1108,16 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.paused = false;
 		this.startTime = System.nanoTime(); // restart timer
 
-		try {
-			this.uploadSocket.setSoTimeout(0); // revert socket to default operation
-		} catch (SocketException e) {
-			this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
-			this.showNamedError("Uploader continues, but socket may time out!");
-		} 
+		if (this.connectionTable == null) { // a shared socket is not received from here
+			try {
+				this.uploadSocket.setSoTimeout(0); // revert socket to default operation
+			} catch (SocketException e) {
+				this.showNamedError("Removing socket time-out failed: " + e.getLocalizedMessage());
+				this.showNamedError("Uploader continues, but socket may time out!");
+			} 
+		}
 		
-		this.sendNextPacket(); // otherwise there will be no new ACK, to open sender window
+		this.sendWindow(); // otherwise there will be no new ACK, to open sender window
 		
 		this.showNamedMessage("=RESUMED");
 	}
@@ -599,12 +1126,71 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		return this.paused;
 	}
 	
+	/**
+	 * Set the congestion controller, which determines the send window.
+	 * @param congestionController to use (e.g. FixedWindowController to disable control)
+	 */
+	public void setCongestionController(CongestionController congestionController) {
+		this.congestionController = congestionController;
+	}
+	
+	/**
+	 * Set the pacer, which spaces the packets of the window evenly.
+	 * @param pacer to use (or null to send the window back to back)
+	 */
+	public void setPacer(Pacer pacer) {
+		this.pacer = pacer;
+	}
+	
+	/**
+	 * Set number of duplicate ACKs, after which a packet is resend right away.
+	 * @param dupAckThreshold number of duplicate ACKs (zero disables fast retransmit)
+	 */
+	public void setDupAckThreshold(int dupAckThreshold) {
+		this.dupAckThreshold = dupAckThreshold;
+	}
+	
 	/**
 	 * Check if helper has closed its socket (= shutdown).
 	 * @return true if socket is closed
 	 */
 	public boolean isSocketClosed() {
-		return this.uploadSocket.isClosed();
+		return this.sharedSocketReleased || this.uploadSocket.isClosed();
+	}
+	
+	/**
+	 * Use a socket shared with other connections: put connectionId in the header of every packet,
+	 * and unregister from the connectionTable at shutdown (instead of closing the socket).
+	 * @param connectionTable in which this helper is registered
+	 * @param connectionId of this helper in the connectionTable
+	 */
+	public void setSharedSocket(ConnectionTable connectionTable, int connectionId) {
+		this.connectionTable = connectionTable;
+		this.connectionId = connectionId;
+	}
+	
+	public void setConnectionId(int connectionId) {
+		this.connectionId = connectionId;
+	}
+	
+	public int getPacketSize() {
+		return this.packetSize;
+	}
+	
+	/**
+	 * Set the size of the packets of this transfer (as negotiated with the downloader).
+	 * @param packetSize in bytes, including the header
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize;
+	}
+	
+	/**
+	 * Get the maximal payload of the packets of this transfer.
+	 * @return payload length in bytes (packet size without the header)
+	 */
+	public int getPayloadLength() {
+		return this.packetSize - FileTransferProtocol.TOTAL_HEADER_SIZE;
 	}
 	
 	/**
@@ -615,10 +1201,17 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 		this.showNamedMessage("Transfer complete: " + this.complete);
 		this.showNamedMessage("-------------------------------->");
 		this.showNamedMessage("Total file size: " + this.totalFileSize + " bytes");
+		this.showNamedMessage("Transferred: " + (this.getEndOffset() - this.startOffset) + " bytes");
 		this.showNamedMessage("Transfer duration: " + (this.duration * 1e-6) + " milliseconds"); 
-		this.showNamedMessage("Average transferspeed: " 
-				+ (this.totalFileSize / (this.duration * 1e-9)) + " bytes/second"); 
+		this.showNamedMessage("Average transferspeed: " + ((this.getEndOffset() - this.startOffset)
+				/ (this.duration * 1e-9)) + " bytes/second"); 
 		this.showNamedMessage("Number of resend packets: " + this.totalResendPackets);
+		this.showNamedMessage("Number of fast retransmits: " + this.totalFastRetransmits);
+		this.showNamedMessage("Congestion control: " + this.congestionController);
+		if (this.pacer != null) {
+			this.showNamedMessage("Pacing: " + this.pacer);
+		}
+		this.showNamedMessage("Retransmission time-out: " + this.rttEstimator);
 		this.showNamedMessage("--------------------------------<");
 	}
 	
@@ -630,19 +1223,87 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 			this.showNamedError("WARNING! preliminairy shutdown: transfer not complete!");
 		}
 		this.showNamedMessage("Helper is shutting down.");
-		this.uploadSocket.close();
+		if (this.connectionTable != null) { // socket is shared: only stop receiving packets
+			this.connectionTable.unregister(this.connectionId);
+			this.sharedSocketReleased = true;
+		} else {
+			this.uploadSocket.close();
+		}
+		
+		for (int i = this.sendBuffer.getBase(); i < this.sendBuffer.getSentPackets(); i++) {
+			Packet packet = this.sendBuffer.get(i); // stop waiting for acknowledgements
+			if (packet != null && !packet.isAck() && packet.getTimeOut() != null) {
+				packet.getTimeOut().cancel();
+			}
+		}
+		
+		if (this.fileChannel != null) {
+			try {
+				this.fileChannel.close();
+			} catch (IOException e) {
+				this.showNamedError("Closing file failed: " + e.getLocalizedMessage());
+			}
+		}
 	}
 	
 	public int getStartId() {
 		return startID;
 	}
+	
+	public long getStartOffset() {
+		return startOffset;
+	}
+	
+	/**
+	 * Continue an interrupted transfer: upload from an offset in the file, as asked by the 
+	 * downloader (it received the bytes before it earlier).
+	 * Note: set before the first packet is send
+	 * @param startOffset first byte to upload
+	 * @throws IllegalArgumentException if the offset is not inside the file
+	 */
+	public void setStartOffset(long startOffset) {
+		if (startOffset < 0 || startOffset > this.totalFileSize) {
+			throw new IllegalArgumentException("Offset " + startOffset 
+					+ " is not inside the file of " + this.totalFileSize + " bytes");
+		}
+		this.startOffset = startOffset;
+		this.filePointer = startOffset;
+	}
+	
+	/**
+	 * Upload only a range of the file, as requested by the downloader.
+	 * Note: set before the first packet is send
+	 * @param offset of the first byte to upload
+	 * @param length number of bytes to upload
+	 * @throws IllegalArgumentException if the range is not inside the file
+	 */
+	public void setRange(long offset, long length) {
+		if (length < 0 || offset < 0 || offset > this.totalFileSize - length) {
+			throw new IllegalArgumentException("Range of " + length + " bytes from " + offset 
+					+ " is not inside the file of " + this.totalFileSize + " bytes");
+		}
+		this.setStartOffset(offset);
+		this.rangeLength = length;
+	}
+	
+	/**
+	 * Get the offset after the last byte to upload.
+	 * @return end of the range, or the file size if uploading the rest of the file
+	 */
+	public long getEndOffset() {
+		return this.rangeLength < 0 ? this.totalFileSize : this.startOffset + this.rangeLength;
+	}
+	
+	public int getTotalResendPackets() {
+		return totalResendPackets;
+	}
 
 	/**
 	 * Show message on the textUIT with name of this uploadHelper.
 	 * @param message to display
 	 */
 	public void showNamedMessage(String message) {
-		textUI.showNamedMessage(this.name, message);
+		LOG.info(this.name, message);
 	}
 	
 	/**
@@ -650,7 +1311,7 @@ public class UploadHelper implements Helper, Runnable, util.ITimeoutEventHandler
 	 * @param message to display
 	 */
 	public void showNamedError(String message) {
-		textUI.showNamedError(this.name, message);
+		LOG.error(this.name, message);
 	}
 	
 	@Override 
@@ -0,0 +1,50 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Pool of direct ByteBuffers, large enough to hold a complete Packet (header and payload).
+ * Note: buffers are reused, so in steady state no new buffers are allocated
+ * @author huub.lievestro
+ *
+ */
+public class BufferPool {
+
+	/**
+	 * Maximal number of free buffers kept in the pool.
+	 */
+	private static final int MAX_FREE_BUFFERS = 64;
+
+	/**
+	 * Free buffers, ready to be reused.
+	 * Note: array based, so adding and taking buffers does not allocate
+	 */
+	private static Queue<ByteBuffer> freeBuffers = new ArrayBlockingQueue<>(MAX_FREE_BUFFERS);
+
+	/**
+	 * Take a buffer from the pool (or allocate a new one, if the pool is empty).
+	 * @return cleared direct ByteBuffer of MAX_PACKET_SIZE bytes
+	 */
+	public static ByteBuffer acquire() {
+		ByteBuffer buffer = freeBuffers.poll();
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(FileTransferProtocol.MAX_PACKET_SIZE);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool, so it can be reused.
+	 * Note: buffer may not be used by the caller anymore after releasing it
+	 * @param buffer to return
+	 */
+	public static void release(ByteBuffer buffer) {
+		freeBuffers.offer(buffer); // if pool is full: leave it to the garbage collector
+	}
+
+}
@@ -0,0 +1,127 @@
+package network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import exceptions.ServerFailureException;
+
+/**
+ * Table of connections (sessions and transfers) sharing one socket, 
+ * to pass received packets on to the handler of their connection ID.
+ * Note: lookups are lock-free, so they can be done by the receive loop for every packet
+ * @author huub.lievestro
+ *
+ */
+public class ConnectionTable {
+
+	/**
+	 * Connection ID of packets that do not belong to a connection (e.g. DISCOVER, INIT).
+	 */
+	public static final int NO_CONNECTION = 0;
+
+	/**
+	 * Number of bits of a connection ID used as slot in the table.
+	 */
+	private static final int SLOT_BITS = 12;
+
+	/**
+	 * Maximal number of connections in the table (slot zero is never used).
+	 */
+	private static final int CAPACITY = 1 << SLOT_BITS;
+
+	/**
+	 * Mask to get the slot from a connection ID.
+	 */
+	private static final int SLOT_MASK = CAPACITY - 1;
+
+	/**
+	 * Slots of the table, containing the registered connections.
+	 */
+	private AtomicReferenceArray<Connection> connections;
+
+	/**
+	 * Next connection ID to try: the bits above the slot make a reused slot get a new ID,
+	 * so late packets of a removed connection are not passed on to its successor.
+	 */
+	private AtomicInteger nextConnectionId;
+
+	/**
+	 * Create a new (empty) ConnectionTable.
+	 */
+	public ConnectionTable() {
+		this.connections = new AtomicReferenceArray<>(CAPACITY);
+		this.nextConnectionId = new AtomicInteger(1);
+	}
+
+	/**
+	 * Register a handler, to pass the packets of a new connection on to.
+	 * @param handler of the connection
+	 * @return connection ID of the new connection
+	 * @throws ServerFailureException if the table is full
+	 */
+	public int register(IPacketEventHandler handler) throws ServerFailureException {
+		for (int attempt = 0; attempt < CAPACITY; attempt++) {
+			int connectionId = this.nextConnectionId.getAndIncrement() & Integer.MAX_VALUE;
+			int slot = connectionId & SLOT_MASK;
+			if (slot == NO_CONNECTION) {
+				continue;
+			}
+			if (this.connections.compareAndSet(slot, null, new Connection(connectionId, handler))) {
+				return connectionId;
+			}
+		}
+		throw new ServerFailureException("Too many connections: cannot register a new one");
+	}
+
+	/**
+	 * Lookup the handler of a connection.
+	 * @param connectionId of the connection
+	 * @return handler of the connection, or null if not registered (anymore)
+	 */
+	public IPacketEventHandler lookup(int connectionId) {
+		Connection connection = this.connections.get(connectionId & SLOT_MASK);
+		if (connection == null || connection.connectionId != connectionId) {
+			return null;
+		}
+		return connection.handler;
+	}
+
+	/**
+	 * Unregister a connection, so its packets are not passed on anymore.
+	 * @param connectionId of the connection
+	 */
+	public void unregister(int connectionId) {
+		int slot = connectionId & SLOT_MASK;
+		Connection connection = this.connections.get(slot);
+		if (connection != null && connection.connectionId == connectionId) {
+			this.connections.compareAndSet(slot, connection, null);
+		}
+	}
+
+	/**
+	 * Registered connection: a connection ID and its handler.
+	 */
+	private static class Connection {
+
+		/**
+		 * ID of this connection.
+		 */
+		private final int connectionId;
+
+		/**
+		 * Handler to pass the packets of this connection on to.
+		 */
+		private final IPacketEventHandler handler;
+
+		/**
+		 * Create a new Connection.
+		 * @param connectionId of the connection
+		 * @param handler of the connection
+		 */
+		private Connection(int connectionId, IPacketEventHandler handler) {
+			this.connectionId = connectionId;
+			this.handler = handler;
+		}
+	}
+
+}
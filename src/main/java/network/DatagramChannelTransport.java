@@ -0,0 +1,104 @@
+package network;
+
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+import exceptions.PacketException;
+import exceptions.UtilDatagramException;
+import protocol.FileTransferProtocol;
+
+/**
+ * Codec for sending and receiving Packets on a DatagramChannel, 
+ * encoding and decoding them directly in (pooled) direct ByteBuffers.
+ * Note: used by the TransportLayer for sockets backed by a DatagramChannel
+ * @author huub.lievestro
+ *
+ */
+public class DatagramChannelTransport {
+
+	/**
+	 * Encode header and payload of a Packet into a buffer, ready to send.
+	 * Note: buffer is cleared first, and flipped afterwards
+	 * @param id of the Packet
+	 * @param byteOffset of the Packet
+	 * @param connectionId of the Packet
+	 * @param payload of the Packet
+	 * @param offset of the payload in the array
+	 * @param length of the payload
+	 * @param buffer to encode in 
+	 * @throws UtilDatagramException
+	 */
+	public static void encode(int id, int byteOffset, int connectionId, 
+			byte[] payload, int offset, int length, ByteBuffer buffer) throws UtilDatagramException {
+		if (id > FileTransferProtocol.MAX_ID || id < 0) {
+			throw new UtilDatagramException("ID cannot be larger than MAX_ID or negative");
+		}
+		if (FileTransferProtocol.TOTAL_HEADER_SIZE + length > buffer.capacity()) {
+			throw new UtilDatagramException("Cannot build datagram:"
+					+ " packet larger than maximum size");
+		}
+		
+		buffer.clear();
+		buffer.putInt(FileTransferProtocol.HEADER_ID_START, id);
+		buffer.putInt(FileTransferProtocol.HEADER_HEADER_LENGTH_START, 
+				FileTransferProtocol.TOTAL_HEADER_SIZE);
+		buffer.putInt(FileTransferProtocol.HEADER_BYTE_OFFSET_START, byteOffset);
+		buffer.putInt(FileTransferProtocol.HEADER_CONNECTION_ID_START, connectionId);
+		buffer.position(FileTransferProtocol.PAYLOAD_START);
+		buffer.put(payload, offset, length);
+		buffer.flip();
+	}
+
+	/**
+	 * Check if the received datagram in the buffer contains a valid header.
+	 * @param buffer containing the datagram (flipped)
+	 * @throws UtilDatagramException
+	 */
+	public static void checkReceived(ByteBuffer buffer) throws UtilDatagramException {
+		if (buffer.limit() < FileTransferProtocol.TOTAL_HEADER_SIZE) {
+			throw new UtilDatagramException("Datagram smaller than header");
+		}
+		int id = buffer.getInt(FileTransferProtocol.HEADER_ID_START);
+		if (id > FileTransferProtocol.MAX_ID || id < 0) {
+			throw new UtilDatagramException("ID cannot be larger than MAX_ID");
+		}
+		int headerLength = buffer.getInt(FileTransferProtocol.HEADER_HEADER_LENGTH_START);
+		if (headerLength < FileTransferProtocol.TOTAL_HEADER_SIZE || headerLength > buffer.limit()) {
+			throw new UtilDatagramException("Invalid header length");
+		}
+	}
+
+	/**
+	 * Create a Packet from a received datagram in a buffer.
+	 * @param buffer containing the datagram (flipped)
+	 * @param source of the datagram
+	 * @param receivingSocket on which the datagram was received
+	 * @return Packet object, created from the datagram
+	 * @throws PacketException
+	 */
+	public static Packet decode(ByteBuffer buffer, InetSocketAddress source,
+			DatagramSocket receivingSocket) throws PacketException {
+		int id = buffer.getInt(FileTransferProtocol.HEADER_ID_START);
+		int headerLength = buffer.getInt(FileTransferProtocol.HEADER_HEADER_LENGTH_START);
+		int byteOffset = buffer.getInt(FileTransferProtocol.HEADER_BYTE_OFFSET_START);
+		int connectionId = buffer.getInt(FileTransferProtocol.HEADER_CONNECTION_ID_START);
+
+		byte[] payload = new byte[buffer.limit() - headerLength];
+		buffer.position(headerLength);
+		buffer.get(payload);
+
+		Packet packet = new Packet(
+				id, 
+				source.getAddress(),
+				source.getPort(),
+				receivingSocket.getLocalAddress(),
+				receivingSocket.getPort(), 
+				payload, 
+				byteOffset
+				); 
+		packet.setConnectionId(connectionId);
+		return packet;
+	}
+
+}
@@ -0,0 +1,159 @@
+package network;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import exceptions.PacketException;
+import exceptions.UtilDatagramException;
+
+/**
+ * Event loop, which multiplexes many sockets on one Selector (and thus one thread).
+ * Every received packet is passed on to the handler registered for its socket.
+ * Note: sockets must be backed by a DatagramChannel 
+ * (see TransportLayer.openNewDatagramChannelSocket())
+ * @author huub.lievestro
+ *
+ */
+public class EventLoop implements Runnable {
+
+	/**
+	 * Logger of the server subsystem (the event loop runs the server side of transfers).
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.SERVER);
+
+	/**
+	 * Name shown with the messages of the event loop.
+	 */
+	private static final String NAME = "EventLoop";
+
+	/**
+	 * Maximal number of packets to receive from one socket, before serving the others.
+	 */
+	private static final int MAX_PACKETS_PER_EVENT = 64;
+
+	/**
+	 * Selector, to wait for any of the registered sockets to become readable.
+	 */
+	private Selector selector;
+
+	/**
+	 * Registrations requested by other threads, to be done by the event loop thread.
+	 * Note: registering while the selector is selecting would block
+	 */
+	private Queue<Runnable> pendingRegistrations;
+
+	/**
+	 * Indicates if the event loop is running.
+	 */
+	private volatile boolean running;
+
+	/**
+	 * Create a new EventLoop.
+	 * @throws IOException
+	 */
+	public EventLoop() throws IOException {
+		this.selector = Selector.open();
+		this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+		this.running = true;
+	}
+
+	/**
+	 * Register a socket, so every packet received on it is passed on to the handler.
+	 * Note: socket is made non-blocking, and can only be used to send via TransportLayer
+	 * @param socket to register (backed by a DatagramChannel)
+	 * @param handler to pass received packets on to
+	 * @throws IOException
+	 */
+	public void register(DatagramSocket socket, IPacketEventHandler handler) throws IOException {
+		DatagramChannel channel = socket.getChannel();
+		if (channel == null) {
+			throw new IOException("Cannot register socket: not backed by a DatagramChannel");
+		}
+		channel.configureBlocking(false);
+
+		this.pendingRegistrations.add(() -> {
+			try {
+				channel.register(this.selector, SelectionKey.OP_READ, handler);
+			} catch (IOException e) {
+				LOG.error(NAME, "Registering socket on event loop failed: " 
+						+ e.getLocalizedMessage());
+			}
+		});
+		this.selector.wakeup();
+	}
+
+	/**
+	 * Run the event loop, until it is stopped.
+	 */
+	@Override
+	public void run() {
+		while (this.running) {
+			try {
+				this.selector.select();
+			} catch (IOException e) {
+				LOG.error(NAME, "Selecting on event loop failed: " + e.getLocalizedMessage());
+				break;
+			}
+
+			Runnable registration = this.pendingRegistrations.poll();
+			while (registration != null) {
+				registration.run();
+				registration = this.pendingRegistrations.poll();
+			}
+
+			Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				if (key.isValid() && key.isReadable()) {
+					this.receivePackets(key);
+				}
+			}
+		}
+
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+			LOG.error(NAME, "Closing event loop failed: " + e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Receive the available packets on a readable socket, and pass them on to its handler.
+	 * @param key of the readable socket
+	 */
+	private void receivePackets(SelectionKey key) {
+		DatagramSocket socket = ((DatagramChannel) key.channel()).socket();
+		IPacketEventHandler handler = (IPacketEventHandler) key.attachment();
+
+		for (int i = 0; i < MAX_PACKETS_PER_EVENT && key.isValid(); i++) {
+			try {
+				Packet packet = TransportLayer.receivePacket(socket);
+				if (packet == null) { // no more packets available
+					break;
+				}
+				handler.packetReceived(packet);
+			} catch (PacketException | UtilDatagramException e) {
+				LOG.error(NAME, "Invalid packet received on event loop: " 
+						+ e.getLocalizedMessage()); // drop it, but continue with next packets
+			} catch (IOException e) { // e.g. socket closed by handler
+				key.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Stop the event loop.
+	 */
+	public void stop() {
+		this.running = false;
+		this.selector.wakeup();
+	}
+
+}
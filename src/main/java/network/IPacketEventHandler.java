@@ -0,0 +1,16 @@
+package network;
+
+/**
+ * Interface for handlers of received packets 
+ * (e.g. when driven by an EventLoop, instead of receiving in an own thread).
+ * 
+ * @author huub.lievestro
+ *
+ */
+public interface IPacketEventHandler {
+    /**
+     * Is triggered when a packet is received for this handler.
+     * @param packet that is received
+     */
+    void packetReceived(Packet packet);
+}
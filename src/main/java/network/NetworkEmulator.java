@@ -0,0 +1,324 @@
+package network;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import exceptions.UtilDatagramException;
+
+/**
+ * Emulates an impaired network link for the packets send via a socket (in one direction):
+ * drops, delays (with jitter), duplicates and reorders them, as configured.
+ * Note: seeded, so the same sequence of packets gets the same impairments;
+ * set it on a socket with TransportLayer.setNetworkEmulator() (or for all sockets)
+ * @author huub.lievestro
+ *
+ */
+public class NetworkEmulator {
+
+	/**
+	 * Seed of the random decisions, for repeatable emulation.
+	 */
+	private long seed;
+
+	/**
+	 * Random generator, deciding which packets are dropped, delayed, duplicated or reordered.
+	 */
+	private Random random;
+
+	/**
+	 * Fraction of the packets which is dropped (0 to 1).
+	 */
+	private double lossRate;
+
+	/**
+	 * Delay of every packet, in milliseconds.
+	 */
+	private int delay;
+
+	/**
+	 * Maximal deviation of the delay (uniform, plus or minus), in milliseconds.
+	 */
+	private int jitter;
+
+	/**
+	 * Fraction of the packets which is send twice (0 to 1).
+	 */
+	private double duplicateRate;
+
+	/**
+	 * Fraction of the packets which is held back, so later packets overtake it (0 to 1).
+	 */
+	private double reorderRate;
+
+	/**
+	 * Extra delay of a reordered packet, in milliseconds.
+	 */
+	private int reorderDelay;
+
+	/**
+	 * Thread delivering the delayed packets (null until the first packet is delayed).
+	 */
+	private ScheduledThreadPoolExecutor scheduler;
+
+	/**
+	 * Number of packets offered to this emulator.
+	 */
+	private long totalPackets;
+
+	/**
+	 * Number of packets dropped.
+	 */
+	private long droppedPackets;
+
+	/**
+	 * Number of packets duplicated.
+	 */
+	private long duplicatedPackets;
+
+	/**
+	 * Number of packets reordered.
+	 */
+	private long reorderedPackets;
+
+	/**
+	 * Create a new NetworkEmulator, which passes on all packets unchanged until configured.
+	 * @param seed of the random decisions
+	 */
+	public NetworkEmulator(long seed) {
+		this.seed = seed;
+		this.random = new Random(seed);
+		this.lossRate = 0;
+		this.delay = 0;
+		this.jitter = 0;
+		this.duplicateRate = 0;
+		this.reorderRate = 0;
+		this.reorderDelay = 10;
+	}
+
+	/**
+	 * Send a Packet via a socket, impaired as configured.
+	 * Note: delayed packets are send by the scheduler thread;
+	 * failing to send those is not reported (the packet is lost, as on a real network)
+	 * @param socket to send the Packet with
+	 * @param packet to send
+	 * @param destinationPort to send to
+	 * @throws IOException
+	 * @throws UtilDatagramException
+	 */
+	public void send(DatagramSocket socket, Packet packet, int destinationPort)
+			throws IOException, UtilDatagramException {
+		DatagramPacket datagram = util.Datagram.buildDatagram(packet, destinationPort);
+
+		long sendDelay;
+		boolean duplicate;
+		synchronized (this) { // decide in order of sending, so the emulation is repeatable
+			this.totalPackets++;
+			if (this.random.nextDouble() < this.lossRate) {
+				this.droppedPackets++;
+				return;
+			}
+			sendDelay = this.delay;
+			if (this.jitter > 0) {
+				sendDelay += this.random.nextInt(2 * this.jitter + 1) - this.jitter;
+			}
+			if (this.random.nextDouble() < this.reorderRate) {
+				this.reorderedPackets++;
+				sendDelay += this.reorderDelay;
+			}
+			duplicate = this.random.nextDouble() < this.duplicateRate;
+			if (duplicate) {
+				this.duplicatedPackets++;
+			}
+		}
+
+		this.deliver(socket, datagram, Math.max(0, sendDelay));
+		if (duplicate) {
+			this.deliver(socket, datagram, Math.max(0, sendDelay));
+		}
+	}
+
+	/**
+	 * Send a datagram via a socket, now or after a delay.
+	 * @param socket to send the datagram with
+	 * @param datagram to send
+	 * @param sendDelay in milliseconds (zero to send now, by the calling thread)
+	 * @throws IOException
+	 */
+	public void deliver(DatagramSocket socket, DatagramPacket datagram, long sendDelay)
+			throws IOException {
+		if (sendDelay == 0) {
+			sendDatagram(socket, datagram);
+			return;
+		}
+
+		this.getScheduler().schedule(() -> {
+			try {
+				sendDatagram(socket, datagram);
+			} catch (IOException e) {
+				// socket closed in the meantime: packet is lost
+			}
+		}, sendDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Send a datagram via a socket (also if backed by a non-blocking DatagramChannel).
+	 * @param socket to send the datagram with
+	 * @param datagram to send
+	 * @throws IOException
+	 */
+	public static void sendDatagram(DatagramSocket socket, DatagramPacket datagram)
+			throws IOException {
+		if (socket.getChannel() != null) {
+			socket.getChannel().send(ByteBuffer.wrap(datagram.getData(), datagram.getOffset(),
+					datagram.getLength()), new InetSocketAddress(datagram.getAddress(),
+							datagram.getPort()));
+		} else {
+			socket.send(datagram);
+		}
+	}
+
+	/**
+	 * Get the scheduler delivering the delayed packets, and start it if needed.
+	 * @return scheduler
+	 */
+	private synchronized ScheduledThreadPoolExecutor getScheduler() {
+		if (this.scheduler == null) {
+			this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+				Thread thread = new Thread(runnable, "NetworkEmulator-" + this.seed);
+				thread.setDaemon(true); // never keeps a program running
+				return thread;
+			});
+		}
+		return this.scheduler;
+	}
+
+	/**
+	 * Stop delivering delayed packets: those not send yet are lost.
+	 */
+	public synchronized void shutdown() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+	}
+
+	/**
+	 * Restart the random decisions from the seed, and reset the statistics.
+	 */
+	public synchronized void reset() {
+		this.random = new Random(this.seed);
+		this.totalPackets = 0;
+		this.droppedPackets = 0;
+		this.duplicatedPackets = 0;
+		this.reorderedPackets = 0;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public double getLossRate() {
+		return lossRate;
+	}
+
+	/**
+	 * Set the fraction of the packets which is dropped.
+	 * @param lossRate between 0 and 1
+	 */
+	public synchronized void setLossRate(double lossRate) {
+		this.lossRate = checkRate(lossRate);
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	public int getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * Set the delay of every packet.
+	 * Note: packets may overtake each other, if the jitter is larger than their spacing
+	 * @param delay in milliseconds
+	 * @param jitter maximal deviation of the delay (uniform, plus or minus), in milliseconds
+	 */
+	public synchronized void setDelay(int delay, int jitter) {
+		if (delay < 0 || jitter < 0) {
+			throw new IllegalArgumentException("Delay and jitter cannot be negative");
+		}
+		this.delay = delay;
+		this.jitter = jitter;
+	}
+
+	public double getDuplicateRate() {
+		return duplicateRate;
+	}
+
+	/**
+	 * Set the fraction of the packets which is send twice.
+	 * @param duplicateRate between 0 and 1
+	 */
+	public synchronized void setDuplicateRate(double duplicateRate) {
+		this.duplicateRate = checkRate(duplicateRate);
+	}
+
+	public double getReorderRate() {
+		return reorderRate;
+	}
+
+	/**
+	 * Set the fraction of the packets which is held back, so later packets overtake it.
+	 * @param reorderRate between 0 and 1
+	 * @param reorderDelay extra delay of a reordered packet, in milliseconds
+	 */
+	public synchronized void setReorderRate(double reorderRate, int reorderDelay) {
+		if (reorderDelay < 0) {
+			throw new IllegalArgumentException("Reorder delay cannot be negative");
+		}
+		this.reorderRate = checkRate(reorderRate);
+		this.reorderDelay = reorderDelay;
+	}
+
+	public synchronized long getTotalPackets() {
+		return totalPackets;
+	}
+
+	public synchronized long getDroppedPackets() {
+		return droppedPackets;
+	}
+
+	public synchronized long getDuplicatedPackets() {
+		return duplicatedPackets;
+	}
+
+	public synchronized long getReorderedPackets() {
+		return reorderedPackets;
+	}
+
+	/**
+	 * Check if a rate is a valid fraction.
+	 * @param rate to check
+	 * @return rate, if between 0 and 1
+	 */
+	private static double checkRate(double rate) {
+		if (rate < 0 || rate > 1) {
+			throw new IllegalArgumentException("Rate should be between 0 and 1, not " + rate);
+		}
+		return rate;
+	}
+
+	@Override
+	public String toString() {
+		return "loss " + this.lossRate * 100 + "%, delay " + this.delay + " +/- " + this.jitter
+				+ " ms, duplicate " + this.duplicateRate * 100 + "%, reorder "
+				+ this.reorderRate * 100 + "% (seed " + this.seed + ")";
+	}
+
+}
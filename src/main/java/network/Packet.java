@@ -1,6 +1,7 @@
 package network;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import exceptions.PacketException;
@@ -45,6 +46,21 @@ public class Packet {
 	 */
 	private boolean ack;
 	
+	/**
+	 * Time-out set for this Packet, which can be cancelled when it is acknowledged.
+	 */
+	private util.TimeOutEntry timeOut;
+	
+	/**
+	 * Time of (last) sending of this Packet, in nanoseconds (to measure round-trip time).
+	 */
+	private long sendTime;
+	
+	/**
+	 * Indicating if Packet is retransmitted (= its acknowledgement is no valid RTT sample).
+	 */
+	private boolean retransmitted;
+	
 	/**
 	 * Payload of the Packet,
 	 * consisting of String followed by byte[] part.
@@ -62,6 +78,12 @@ public class Packet {
 	 */
 	private int byteOffset;
 	
+	/**
+	 * ID of the connection (session or transfer) this Packet belongs to.
+	 * Note: only used when sessions and transfers share one port, zero if not
+	 */
+	private int connectionId;
+	
 	/**
 	 * Create a Packet.
 	 * @param id of new Packet
@@ -119,6 +141,16 @@ public class Packet {
 		}
 	}
 
+	/**
+	 * Release the payload of Packet (e.g. after it is acknowledged), 
+	 * so it does not have to be kept in memory anymore.
+	 */
+	public void releasePayload() {
+		this.payload = new byte[0];
+		this.payloadLength = 0;
+		this.byteOffset = 0;
+	}
+
 	/**
 	 * Get String payload of Packet (ignoring byte[] part).
 	 * @return String part of payload
@@ -144,6 +176,28 @@ public class Packet {
 		}
 	}
 	
+	/**
+	 * Get byte[] payload of Packet (ignoring String part) as a view, without copying it.
+	 * Note: read-only, and only valid as long as the payload is not set or released
+	 * @return read-only ByteBuffer with the byte[] part of the payload (position zero)
+	 */
+	public ByteBuffer getPayloadView() {
+		int length = Math.max(0, this.payloadLength - this.byteOffset);
+		return ByteBuffer.wrap(this.payload, Math.min(this.byteOffset, this.payloadLength), length)
+				.slice().asReadOnlyBuffer();
+	}
+	
+	/**
+	 * Check if the byte[] payload of Packet (ignoring String part) equals an array,
+	 * without copying it.
+	 * @param expected bytes to compare with
+	 * @return true if the byte[] part of the payload equals the expected bytes
+	 */
+	public boolean payloadBytesEqual(byte[] expected) {
+		return this.byteOffset <= this.payloadLength && Arrays.equals(
+				this.payload, this.byteOffset, this.payloadLength, expected, 0, expected.length);
+	}
+	
 	public int getId() {
 		return id;
 	}
@@ -186,6 +240,24 @@ public class Packet {
 	public void setAck(boolean ack) {
 		this.ack = ack;
 	}
+	public util.TimeOutEntry getTimeOut() {
+		return timeOut;
+	}
+	public void setTimeOut(util.TimeOutEntry timeOut) {
+		this.timeOut = timeOut;
+	}
+	public long getSendTime() {
+		return sendTime;
+	}
+	public void setSendTime(long sendTime) {
+		this.sendTime = sendTime;
+	}
+	public boolean isRetransmitted() {
+		return retransmitted;
+	}
+	public void setRetransmitted(boolean retransmitted) {
+		this.retransmitted = retransmitted;
+	}
 	public byte[] getPayload() {
 		return payload;
 	}
@@ -197,4 +269,12 @@ public class Packet {
 		return byteOffset;
 	}
 	
+	public int getConnectionId() {
+		return connectionId;
+	}
+	
+	public void setConnectionId(int connectionId) {
+		this.connectionId = connectionId;
+	}
+	
 }
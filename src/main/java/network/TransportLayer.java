@@ -3,7 +3,15 @@ package network;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
 import exceptions.PacketException;
 import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
@@ -11,11 +19,52 @@ import protocol.FileTransferProtocol;
 
 /**
  * This class provides transport layer functionalities.
+ * Note: sockets opened with openNewDatagramChannelSocket() are backed by a DatagramChannel,
+ * for which sending and receiving is done via DatagramChannelTransport (using pooled buffers).
+ * Sending can be impaired by a NetworkEmulator (per socket, or for all sockets), for testing
  * @author huub.lievestro
  *
  */
 public class TransportLayer {
 
+	/**
+	 * Logger of the transport layer.
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.SERVER);
+
+	/**
+	 * Name to log messages with.
+	 */
+	private static final String NAME = "TransportLayer";
+
+	/**
+	 * Number of packets dropped, because the send buffer of a non-blocking channel was full.
+	 */
+	private static final LongAdder DROPPED_SENDS = new LongAdder();
+
+	/**
+	 * Buffer to receive a datagram in, per receiving thread.
+	 * Note: sized for the largest packet, and reused (the payload is copied out of it)
+	 */
+	private static final ThreadLocal<byte[]> RECEIVE_BUFFER = 
+			ThreadLocal.withInitial(() -> new byte[FileTransferProtocol.MAX_PACKET_SIZE]);
+
+	/**
+	 * NetworkEmulators impairing the packets send via a socket (weak keys: closed sockets go).
+	 */
+	private static final Map<DatagramSocket, NetworkEmulator> EMULATORS = 
+			Collections.synchronizedMap(new WeakHashMap<>());
+
+	/**
+	 * NetworkEmulator impairing the packets send via any other socket (null if none).
+	 */
+	private static volatile NetworkEmulator defaultEmulator = null;
+
+	/**
+	 * Indicates if any NetworkEmulator is set, so sending without one skips the look-up.
+	 */
+	private static volatile boolean emulating = false;
+
 	/**
 	 * Open a new DatagramSocket.
 	 * @return new DatagramSocket
@@ -37,24 +86,99 @@ public class TransportLayer {
         return socket;
 	}
 	
+	/**
+	 * Open a new DatagramSocket, backed by a DatagramChannel.
+	 * @return new DatagramSocket, backed by a DatagramChannel
+	 * @throws IOException
+	 */
+	public static DatagramSocket openNewDatagramChannelSocket() throws IOException {
+		return openNewDatagramChannelSocket(0);
+	}
+	
+	/**
+	 * Open a new DatagramSocket, backed by a DatagramChannel and bound to a port.
+	 * @param port to bind (zero for any free port)
+	 * @return new DatagramSocket, backed by a DatagramChannel and bound to port
+	 * @throws IOException
+	 */
+	public static DatagramSocket openNewDatagramChannelSocket(int port) throws IOException {
+		DatagramChannel channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(port));
+		return channel.socket();
+	}
+	
 	/**
 	 * Send a Packet (in a DatagramPacket) via a DatagramSocket.
+	 * Note: creates the destination for every call, helpers keep theirs instead
 	 * @param socket used to send the DatagramPacket
 	 * @param packet to send
-	 * @param destinationPort to send to
+	 * @param destinationPort to send to (at the destination address of the packet)
 	 * @throws IOException
 	 * @throws UtilByteException
 	 * @throws UtilDatagramException
 	 */
 	public static void sendPacket(DatagramSocket socket, Packet packet, int destinationPort) 
 			throws IOException, UtilByteException, UtilDatagramException {
+		sendPacket(socket, packet, 
+				new InetSocketAddress(packet.getDestinationAddress(), destinationPort));
+	}
+	
+	/**
+	 * Send a Packet (in a DatagramPacket) via a DatagramSocket.
+	 * Note: a non-blocking channel with a full send buffer drops the packet (counted)
+	 * @param socket used to send the DatagramPacket
+	 * @param packet to send
+	 * @param destination to send to (address and port, kept by the sender to reuse)
+	 * @throws IOException
+	 * @throws UtilByteException
+	 * @throws UtilDatagramException
+	 */
+	public static void sendPacket(DatagramSocket socket, Packet packet, 
+			InetSocketAddress destination) 
+			throws IOException, UtilByteException, UtilDatagramException {
 		
-		DatagramPacket datagram = util.Datagram.buildDatagram(packet, destinationPort);
+		if (emulating) {
+			NetworkEmulator emulator = getNetworkEmulator(socket);
+			if (emulator != null) {
+				emulator.send(socket, packet, destination.getPort());
+				return;
+			}
+		}
+		
+		if (socket.getChannel() != null) { // encode directly in a pooled buffer
+			ByteBuffer buffer = BufferPool.acquire();
+			try {
+				DatagramChannelTransport.encode(packet.getId(), packet.getByteOffset(),
+						packet.getConnectionId(), packet.getPayload(), 0, packet.getPayloadLength(), buffer);
+				if (socket.getChannel().send(buffer, destination) == 0) { // send buffer full
+					DROPPED_SENDS.increment(); // resend after its time-out, as if lost
+					if (LOG.isDebugEnabled()) {
+						LOG.debug(NAME, "Send buffer full: dropped packet with ID = " 
+								+ packet.getId());
+					}
+				}
+			} finally {
+				BufferPool.release(buffer);
+			}
+			return;
+		}
+		
+		DatagramPacket datagram = util.Datagram.buildDatagram(packet, destination.getPort());
 		socket.send(datagram);	
 	}
 	
+	/**
+	 * Get the number of packets dropped, because the send buffer of a non-blocking channel 
+	 * was full.
+	 * @return number of dropped packets, since the start of the program
+	 */
+	public static long getDroppedSends() {
+		return DROPPED_SENDS.sum();
+	}
+	
 	/**
 	 * Receive a Packet (in a DatagramPacket) via a DatagramSocket.
+	 * Note: for a non-blocking channel, returns null if no datagram is available
 	 * @param socket used to receive the DatagramPacket
 	 * @return Packet received
 	 * @throws IOException
@@ -64,11 +188,61 @@ public class TransportLayer {
 	public static Packet receivePacket(DatagramSocket socket) 
 			throws IOException, PacketException, UtilDatagramException {
 		
-		byte[] buffer = new byte[FileTransferProtocol.MAX_PACKET_SIZE];
+		DatagramChannel channel = socket.getChannel();
+		if (channel != null && (!channel.isBlocking() || socket.getSoTimeout() == 0)) { 
+			// receive directly in a pooled buffer (a channel ignores the socket time-out)
+			ByteBuffer buffer = BufferPool.acquire();
+			try {
+				InetSocketAddress source = (InetSocketAddress) channel.receive(buffer);
+				if (source == null) {
+					return null;
+				}
+				buffer.flip();
+				DatagramChannelTransport.checkReceived(buffer);
+				return DatagramChannelTransport.decode(buffer, source, socket);
+			} finally {
+				BufferPool.release(buffer);
+			}
+		}
+		
+		byte[] buffer = RECEIVE_BUFFER.get();
         DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
         socket.receive(datagram);
         
         return util.Datagram.createPacketFromDatagram(datagram, socket);
 	}
 	
+	/**
+	 * Impair the packets send via a socket (one direction of a link) by a NetworkEmulator.
+	 * @param socket to impair the sending of
+	 * @param emulator to use, or null to send unimpaired again
+	 */
+	public static void setNetworkEmulator(DatagramSocket socket, NetworkEmulator emulator) {
+		if (emulator == null) {
+			EMULATORS.remove(socket);
+		} else {
+			EMULATORS.put(socket, emulator);
+		}
+		emulating = defaultEmulator != null || !EMULATORS.isEmpty();
+	}
+	
+	/**
+	 * Impair the packets send via all sockets without an own NetworkEmulator.
+	 * @param emulator to use, or null to send unimpaired again
+	 */
+	public static void setDefaultNetworkEmulator(NetworkEmulator emulator) {
+		defaultEmulator = emulator;
+		emulating = defaultEmulator != null || !EMULATORS.isEmpty();
+	}
+	
+	/**
+	 * Get the NetworkEmulator impairing the packets send via a socket.
+	 * @param socket to get the NetworkEmulator of
+	 * @return NetworkEmulator of the socket, else the default one (null if none)
+	 */
+	public static NetworkEmulator getNetworkEmulator(DatagramSocket socket) {
+		NetworkEmulator emulator = EMULATORS.get(socket);
+		return emulator != null ? emulator : defaultEmulator;
+	}
+	
 }
@@ -18,11 +18,24 @@ public class FileTransferProtocol {
 	 */
 	public static final int DEFAULT_SERVER_PORT = 4567; 
 	
+	/**
+	 * Maximal number of packets in the send or receive window of up-/download helpers.
+	 * Note: the downloader will buffer this many packets out of order, 
+	 * and the uploader will not send more unacknowledged packets (whatever its congestion window)
+	 */
+	public static final int MAX_WINDOW_SIZE = 1024;
+	
 	/**
 	 * Maximal size of a Packet (data for the DatagramPacket), consisting of header and payload.
-	 * Note: as imposed by the underlying UDP/Ipv4 protocols, this xould be maximal 65507 bytes.
+	 * Note: as imposed by the underlying UDP/Ipv4 protocols, this is maximal 65507 bytes.
 	 */
-	public static final int MAX_PACKET_SIZE = 1024;
+	public static final int MAX_PACKET_SIZE = 65507;
+	
+	/**
+	 * Default size of the Packets of a transfer, if no other size is negotiated.
+	 * Note: fits in one Ethernet frame, so packets are not fragmented on most links
+	 */
+	public static final int DEFAULT_PACKET_SIZE = 1024;
 
 
 	// -----------------------------------------------------------------------
@@ -52,12 +65,14 @@ public class FileTransferProtocol {
 	
 	/**
 	 * When send by client: initialise session with server.
-	 * 	Arguments (separated by delimiter): String nameOfClient
+	 * 	Arguments (separated by delimiter): String nameOfClient; int maxPacketSize (optional)
 	 * 	Bytes: -
 	 * 
 	 * When send by server: Respond to client sending INIT.
-	 * 	Arguments (separated by delimiter): int serverPort, running clientHandler
+	 * 	Arguments (separated by delimiter): int serverPort, running clientHandler; 
+	 * 		int maxPacketSize, agreed for transfers in this session
 	 * 	Bytes: -
+	 * 	Header: connection ID of the session (see HEADER_CONNECTION_ID_START)
 	 */
 	public static final String INIT_SESSION = "INIT"; 
 	
@@ -74,25 +89,31 @@ public class FileTransferProtocol {
 	
 	/**
 	 * When send by client: request download of file from server.
-	 * 	Arguments (separated by delimiter): int portOfDownloader
+	 * 	Arguments (separated by delimiter): int portOfDownloader; int packetSize (optional);
+	 * 		long offset; long length (optional: to download only this range of bytes)
 	 * 	Bytes: File fileToDownload
 	 * 
 	 * When send by server: Respond to client sending UPLOAD.
 	 * 	Arguments (separated by delimiter): 
-	 * 		int portOfUploader; long totalFileSize (in bytes); int startID
+	 * 		int portOfUploader; long totalFileSize (in bytes); int startID; int packetSize;
+	 * 		long offset; long length (only if a range was requested: length cut off at end of file)
 	 * 	Bytes: File[] fileToDownload (to client)
+	 * 	Header: connection ID of the transfer (see HEADER_CONNECTION_ID_START)
 	 */
 	public static final String DOWNLOAD = "DOWNLOAD";
 	
 	/**
 	 * When send by client: request upload of file to server.
 	 * 	Arguments (separated by delimiter): 
-	 * 		int portOfUploader; long totalFileSize (in bytes); int startID
+	 * 		int portOfUploader; long totalFileSize (in bytes); int startID; 
+	 * 		int packetSize (optional)
 	 * 	Bytes: File[] fileToUpload 
 	 * 
 	 * When send by server: Respond to client sending DOWNLOAD.
-	 * 	Arguments (separated by delimiter): int portOfDownloader
+	 * 	Arguments (separated by delimiter): int portOfDownloader; int packetSize;
+	 * 		long startOffset (first byte to upload: non-zero when continuing an interrupted upload)
 	 * 	Bytes: File fileToUpload (to server)
+	 * 	Header: connection ID of the transfer (see HEADER_CONNECTION_ID_START)
 	 */
 	public static final String UPLOAD = "UPLOAD";
 	
@@ -133,14 +154,45 @@ public class FileTransferProtocol {
 	/**
 	 * From downloader to uploader: start transmission of bytes
 	 * (used when downloader has to contact uploader first, e.g. trough firewalls)
+	 * 	Payload: START; int packetSize (optional: found by probing, at most the negotiated size);
+	 * 		long startOffset (optional: first byte the downloader misses, 
+	 * 		when continuing an interrupted download);
+	 * 		long length (optional: number of bytes to upload from the startOffset, 
+	 * 		when downloading a range, e.g. one stripe of a striped download)
 	 */
 	public static final byte[] START_DOWNLOAD = "START".getBytes(); 
 	
+	/**
+	 * From downloader to uploader, before START: probe if a packet of this size gets through.
+	 * 	Payload: PROBE; int packetSize; padded with zeros up to packetSize
+	 */
+	public static final byte[] PROBE = "PROBE".getBytes(); 
+	
+	/**
+	 * From uploader to downloader: reply to a PROBE that got through.
+	 * 	Payload: PROBEACK; int packetSize (of the probe)
+	 * 	Header: ID before the start ID (so it cannot be taken for a packet of the file)
+	 */
+	public static final byte[] PROBE_ACK = "PROBEACK".getBytes(); 
+	
 	/**
 	 * Mostly from downloader to uploader (but may be used v.v.): packet received!
 	 */
 	public static final byte[] ACK = "ACK".getBytes(); 
 	
+	/**
+	 * From downloader to uploader: selective acknowledgement (used for selective repeat).
+	 * 	Payload: SACK; int packet number of last packet received in order (cumulative ACK);
+	 * 		bitmap of received packets after it (bit i = packet cumulative + 1 + i, LSB first)
+	 * 	NOTE: packet numbers are not wrapped around like IDs, so no unwrapping needed
+	 */
+	public static final byte[] SACK = "SACK".getBytes(); 
+	
+	/**
+	 * Length of the fixed part of a SACK payload, before the bitmap, in bytes.
+	 */
+	public static final int SACK_BITMAP_START = SACK.length + 4; 
+	
 	/**
 	 * Mostly from downloader to uploader (but may be used v.v.): pause transfer.
 	 */
@@ -150,6 +202,12 @@ public class FileTransferProtocol {
 	 * Mostly from downloader to uploader (but may be used v.v.): resume transfer.
 	 */
 	public static final byte[] RESUME_DOWNLOAD = "RESUME".getBytes();
+	
+	/**
+	 * From downloader to uploader: cancel transfer (also before START), uploader shuts down.
+	 * 	NOTE: not acknowledged, so an uploader waiting for START may miss it
+	 */
+	public static final byte[] CANCEL_DOWNLOAD = "CANCEL".getBytes();
 
 
 	// -----------------------------------------------------------------------
@@ -186,12 +244,23 @@ public class FileTransferProtocol {
 	public static final int HEADER_BYTE_OFFSET_START = HEADER_HEADER_LENGTH_LAST + 1;
 	public static final int HEADER_BYTE_OFFSET_LAST = HEADER_BYTE_OFFSET_START + 3;
 
+	/**
+	 * Header field: connection ID. 
+	 * 	Length: 4 bytes (the int2Byte always puts in block of 4 bytes)
+	 * 	Representing: session or transfer the Packet belongs to, when they share one server port
+	 * 	NOTE: connection ID should be encoded with big-endian encoding
+	 * 	NOTE: zero when not sharing a port (e.g. DISCOVER, INIT): server handles it itself
+	 * 	NOTE: peers use the connection ID from the header of the INIT/DOWNLOAD/UPLOAD response
+	 */
+	public static final int HEADER_CONNECTION_ID_START = HEADER_BYTE_OFFSET_LAST + 1;
+	public static final int HEADER_CONNECTION_ID_LAST = HEADER_CONNECTION_ID_START + 3;
+
 	/**
 	 * Actual value of total header size: set to last assigned header field, in bytes.
 	 * NOTE: plus one, because indices start at zero (and lengths at one)
 	 * NOTE: this length may not be larger than 4 bytes [= 2^(4*8)]
 	 */
-	public static final int TOTAL_HEADER_SIZE = HEADER_BYTE_OFFSET_LAST + 1;
+	public static final int TOTAL_HEADER_SIZE = HEADER_CONNECTION_ID_LAST + 1;
 	
 	/**
 	 * Index of first byte of the payload, starting after the header. 
@@ -209,4 +278,39 @@ public class FileTransferProtocol {
 	 * Maximal value of the payload in a Packet (based on max packetSize - headerSize).
 	 */
 	public static final int MAX_PAYLOAD_LENGTH = MAX_PACKET_SIZE - TOTAL_HEADER_SIZE; 
+	
+	/**
+	 * Minimal size of the Packets of a transfer that may be negotiated.
+	 * Note: a SACK of a full receive window has to fit in one packet
+	 */
+	public static final int MIN_PACKET_SIZE = 512;
+	
+	/**
+	 * Agree on the size of the Packets of a transfer.
+	 * @param requestedSize packet size requested by the other side (or <= 0 if none)
+	 * @param maxSize maximal packet size supported by this side
+	 * @return agreed packet size, between MIN_PACKET_SIZE and MAX_PACKET_SIZE
+	 */
+	public static int negotiatePacketSize(int requestedSize, int maxSize) {
+		int size = requestedSize > 0 ? Math.min(requestedSize, maxSize) : DEFAULT_PACKET_SIZE;
+		return Math.max(MIN_PACKET_SIZE, Math.min(size, MAX_PACKET_SIZE));
+	}
+
+	/**
+	 * Determine the number of Packets to transfer a file with.
+	 * Note: sizes and offsets in the file are 64-bit, packet numbers are int (within the ID space)
+	 * @param totalFileSize in bytes
+	 * @param payloadLength of the Packets, in bytes
+	 * @return number of Packets (one more than full payloads: the last may be empty)
+	 * @throws IllegalArgumentException if the file needs more packets than can be numbered
+	 */
+	public static int countPackets(long totalFileSize, int payloadLength) {
+		long packets = totalFileSize / payloadLength + 1;
+		if (packets > MAX_ID) {
+			throw new IllegalArgumentException("File of " + totalFileSize + " bytes needs " 
+					+ packets + " packets of " + payloadLength + " bytes, more than " + MAX_ID 
+					+ ": use larger packets");
+		}
+		return (int) packets;
+	}
 }
@@ -18,12 +18,21 @@ import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
 import helpers.DownloadHelper;
 import helpers.Helper;
+import helpers.Pacer;
+import helpers.TransferJournal;
 import helpers.UploadHelper;
+import network.ConnectionTable;
+import network.IPacketEventHandler;
 import network.Packet;
 import network.TransportLayer;
 import protocol.FileTransferProtocol;
 
-public class FileTransferClientHandler implements Runnable {
+public class FileTransferClientHandler implements Runnable, IPacketEventHandler {
+
+	/**
+	 * Logger of the server subsystem.
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.SERVER);
 
 	/** 
 	 * The socket of this FileTranfer ClientHandler.
@@ -85,6 +94,17 @@ public class FileTransferClientHandler implements Runnable {
 	 */
 	boolean running;
 
+	/**
+	 * ID of the session of this ClientHandler, when the socket is shared with other connections.
+	 * Note: zero if the socket is owned by this ClientHandler
+	 */
+	private int connectionId;
+
+	/**
+	 * Maximal size of the packets of transfers in this session, as agreed with the client.
+	 */
+	private int packetSize;
+
 	/**
 	 * Construct a new FileTransfer client handler.
 	 * @param socket to use for receiving/sending 
@@ -109,9 +129,26 @@ public class FileTransferClientHandler implements Runnable {
 		this.uploads = new ArrayList<>();
 
 		this.running = true;
+		this.packetSize = FileTransferProtocol.DEFAULT_PACKET_SIZE;
 		this.setClient(initPacket);
 	}
 
+	/**
+	 * Set the session ID of this ClientHandler, when the socket is shared with other connections.
+	 * @param connectionId of the session
+	 */
+	public void setConnectionId(int connectionId) {
+		this.connectionId = connectionId;
+	}
+
+	/**
+	 * Set the maximal size of the packets of transfers in this session.
+	 * @param packetSize in bytes, as agreed with the client
+	 */
+	public void setPacketSize(int packetSize) {
+		this.packetSize = packetSize;
+	}
+
 	/**
 	 * Set client network information, based on received init packet.
 	 * @param initPacket containing the needed information
@@ -144,26 +181,36 @@ public class FileTransferClientHandler implements Runnable {
 				this.showNamedError("Someting went wrong with recieving a packet: is null!");
 				this.showNamedError("Not going to process it: trying to receive a new packet");
 			} else {
-				this.showNamedMessage("Received a packet: going to process it...");
-				this.showNamedMessage("Packet payload: " + new String(receivedPacket.getPayload()));
-
-				if (!(receivedPacket.getSourceAddress().equals(this.clientAddress)
-						&& receivedPacket.getSourcePort() == this.clientPort)) { 
-					this.showNamedError("SECURITY WARNING: this response is NOT"
-							+ " coming for known client > dropping it");
-					continue;
-				}
-
-				String receivedString = receivedPacket.getPayloadString();
-				this.showNamedMessage("Received String: " + receivedString);
-				byte[] receivedBytes = receivedPacket.getPayloadBytes();
-				this.showNamedMessage("Received bytes: " + receivedString);
-
-				this.processRequest(receivedString, receivedBytes);
+				this.packetReceived(receivedPacket);
 			}
 		}
 	}
 
+	/**
+	 * Check source of a received packet, and pass it on to processRequest.
+	 * Note: called by run(), or by the event loop of the server (when running on it)
+	 * @param receivedPacket from the client
+	 */
+	@Override
+	public void packetReceived(Packet receivedPacket) {
+		this.showNamedMessage("Received a packet: going to process it...");
+		this.showNamedMessage("Packet payload: " + new String(receivedPacket.getPayload()));
+
+		if (!(receivedPacket.getSourceAddress().equals(this.clientAddress)
+				&& receivedPacket.getSourcePort() == this.clientPort)) { 
+			this.showNamedError("SECURITY WARNING: this response is NOT"
+					+ " coming for known client > dropping it");
+			return;
+		}
+
+		String receivedString = receivedPacket.getPayloadString();
+		this.showNamedMessage("Received String: " + receivedString);
+		byte[] receivedBytes = receivedPacket.getPayloadBytes();
+		this.showNamedMessage("Received bytes: " + receivedString);
+
+		this.processRequest(receivedString, receivedBytes);
+	}
+
 	/**
 	 * Take input from the received packet and call corresponding method,
 	 *  with some relevant feedback to the user (via TUI) and client (over network).
@@ -193,8 +240,22 @@ public class FileTransferClientHandler implements Runnable {
 
 						int downloaderPort = Integer.parseInt(request[1]);
 						this.showNamedMessage("To downloader on port: " + downloaderPort);
-
-						this.downloadSingle(fileToUpload, downloaderPort);
+						
+						int packetSize = FileTransferProtocol.negotiatePacketSize(
+								request.length > 2 ? Integer.parseInt(request[2]) : 0, 
+								this.packetSize);
+						this.showNamedMessage("Using packets of " + packetSize + " bytes");
+
+						if (request.length > 4) { // only a range of the file requested
+							long offset = Long.parseLong(request[3]);
+							long length = Long.parseLong(request[4]);
+							this.showNamedMessage("Range of " + length + " bytes from byte " 
+									+ offset);
+							this.downloadSingle(fileToUpload, downloaderPort, packetSize, 
+									offset, length);
+						} else {
+							this.downloadSingle(fileToUpload, downloaderPort, packetSize);
+						}
 					} catch (NumberFormatException | ClassNotFoundException | IOException e) {
 						throw new ServerFailureException(e.getLocalizedMessage());
 					}
@@ -218,8 +279,14 @@ public class FileTransferClientHandler implements Runnable {
 						
 						int startID = Integer.parseInt(request[3]);
 						this.showNamedMessage("Uploader starts at ID " + startID);
+						
+						int packetSize = FileTransferProtocol.negotiatePacketSize(
+								request.length > 4 ? Integer.parseInt(request[4]) : 0, 
+								this.packetSize);
+						this.showNamedMessage("Using packets of " + packetSize + " bytes");
 
-						this.uploadSingle(fileToDownload, uploaderPort, totalFileSize, startID);
+						this.uploadSingle(fileToDownload, uploaderPort, totalFileSize, startID, 
+								packetSize);
 					} catch (NumberFormatException | ClassNotFoundException 
 							| IOException | NotEnoughFreeSpaceException e) {
 						throw new ServerFailureException(e.getLocalizedMessage());
@@ -291,7 +358,8 @@ public class FileTransferClientHandler implements Runnable {
 					new FileFilter() {
 						@Override
 						public boolean accept(File file) {
-							return !file.isHidden() && file.isFile();
+							return !file.isHidden() && file.isFile() 
+									&& !TransferJournal.isTransferFile(file);
 						}
 					});
 		} catch (NullPointerException e) {
@@ -313,31 +381,73 @@ public class FileTransferClientHandler implements Runnable {
 	 * Download a single file from the server to the client.
 	 * @param fileToUpload to the client
 	 * @param downloaderPort to upload to
+	 * @param packetSize of the transfer, as agreed with the client
 	 * @throws ServerFailureException
 	 */
-	public void downloadSingle(File fileToUpload, int downloaderPort) 
+	public void downloadSingle(File fileToUpload, int downloaderPort, int packetSize) 
 			throws ServerFailureException {
+		this.downloadSingle(fileToUpload, downloaderPort, packetSize, 0, -1);
+	}
+
+	/**
+	 * Download a range of a single file from the server to the client.
+	 * @param fileToUpload to the client
+	 * @param downloaderPort to upload to
+	 * @param packetSize of the transfer, as agreed with the client
+	 * @param offset of the first byte to download
+	 * @param length number of bytes to download (cut off at the end of the file), 
+	 * 		or -1 to download the whole file
+	 * @throws ServerFailureException if the offset is not inside the file
+	 */
+	public void downloadSingle(File fileToUpload, int downloaderPort, int packetSize, 
+			long offset, long length) throws ServerFailureException {
+		long fileSizeToUpload = fileToUpload.length();
+		if (length >= 0 && (offset < 0 || offset > fileSizeToUpload)) {
+			throw new ServerFailureException("Offset " + offset + " is not inside the file of " 
+					+ fileSizeToUpload + " bytes");
+		}
+		
 		try { // to create uploader helper with file and port from request
-			DatagramSocket uploadSocket = TransportLayer.openNewDatagramSocket();
-			int fileSizeToUpload = (int) fileToUpload.length(); // TODO casting long to int!
+			DatagramSocket uploadSocket = this.openHelperSocket();
 			UploadHelper uploadHelper = new UploadHelper(this, uploadSocket, 
 					this.clientAddress, downloaderPort, fileSizeToUpload, fileToUpload);
+			uploadHelper.setPacketSize(packetSize);
+			if (length >= 0) {
+				length = Math.min(length, fileSizeToUpload - offset);
+				uploadHelper.setRange(offset, length);
+			}
+			if (this.server.getPacingRate() >= 0) {
+				uploadHelper.setPacer(new Pacer(this.server.getPacingRate()));
+			}
 			this.uploads.add(uploadHelper);
 
 			// start upload helper
-			new Thread(uploadHelper).start();
+			int transferId = ConnectionTable.NO_CONNECTION;
+			if (this.server.getConnectionTable() != null) { // packets passed on by the server
+				transferId = this.server.getConnectionTable().register(uploadHelper);
+				uploadHelper.setSharedSocket(this.server.getConnectionTable(), transferId);
+				uploadHelper.start(null);
+			} else if (this.server.getEventLoop() != null) { // driven by the event loop of the server
+				uploadHelper.start(this.server.getEventLoop());
+			} else {
+				new Thread(uploadHelper).start();
+			}
 
 			// let downloadHelper know about uploader
+			String range = length >= 0 ? FileTransferProtocol.DELIMITER + offset 
+					+ FileTransferProtocol.DELIMITER + length : "";
 			byte[] singleFileResponse = (FileTransferProtocol.UPLOAD +
 					FileTransferProtocol.DELIMITER +
 					uploadSocket.getLocalPort() + 
 					FileTransferProtocol.DELIMITER + 
 					fileSizeToUpload +
 					FileTransferProtocol.DELIMITER + 
-					uploadHelper.getStartId()).getBytes();
+					uploadHelper.getStartId() +
+					FileTransferProtocol.DELIMITER + 
+					packetSize + range).getBytes();
 			byte[] fileToUploadBytes = util.Bytes.serialiseObjectToByteArray(fileToUpload);
 			this.sendBytesToClient(util.Bytes.concatArray(singleFileResponse, fileToUploadBytes),
-					singleFileResponse.length); 
+					singleFileResponse.length, transferId); 
 		} catch (IOException e) {
 			throw new ServerFailureException(e.getLocalizedMessage());
 		} 
@@ -349,36 +459,69 @@ public class FileTransferClientHandler implements Runnable {
 	 * @param uploaderPort to download from
 	 * @param totalFileSize to download
 	 * @param startID to start downloading with
+	 * @param packetSize of the transfer, as agreed with the client
 	 * @throws ServerFailureException
 	 * @throws NotEnoughFreeSpaceException
 	 */
-	public void uploadSingle(File fileToDownload, int uploaderPort, long totalFileSize, int startID) 
-			throws ServerFailureException, NotEnoughFreeSpaceException {
+	public void uploadSingle(File fileToDownload, int uploaderPort, long totalFileSize, int startID,
+			int packetSize) throws ServerFailureException, NotEnoughFreeSpaceException {
 		
 		if (this.checkFreeSpace(totalFileSize)) {
 
 			try { // to create uploader helper with file and port from request
-				DatagramSocket downloadSocket = TransportLayer.openNewDatagramSocket();
+				DatagramSocket downloadSocket = this.openHelperSocket();
 				DownloadHelper downloadHelper = new DownloadHelper(this, downloadSocket, 
 						this.clientAddress, uploaderPort, totalFileSize, fileToDownload, startID);
+				downloadHelper.setPacketSize(packetSize);
+				long startOffset = downloadHelper.loadJournal(); // uploader continues from there
 				this.downloads.add(downloadHelper);
 
-				// start upload helper
-				new Thread(downloadHelper).start();
+				// start download helper
+				int transferId = ConnectionTable.NO_CONNECTION;
+				if (this.server.getConnectionTable() != null) { // packets passed on by the server
+					transferId = this.server.getConnectionTable().register(downloadHelper);
+					downloadHelper.setSharedSocket(this.server.getConnectionTable(), transferId);
+					downloadHelper.start(null);
+				} else if (this.server.getEventLoop() != null) { // driven by event loop of server
+					downloadHelper.start(this.server.getEventLoop());
+				} else {
+					new Thread(downloadHelper).start();
+				}
 
 				// let uploadHelper know about downloader
 				byte[] singleFileResponse = (FileTransferProtocol.DOWNLOAD +
 						FileTransferProtocol.DELIMITER +
-						downloadSocket.getLocalPort()).getBytes(); 
+						downloadSocket.getLocalPort() +
+						FileTransferProtocol.DELIMITER + 
+						packetSize +
+						FileTransferProtocol.DELIMITER + 
+						startOffset).getBytes(); 
 				byte[] fileToDownloadBytes = util.Bytes.serialiseObjectToByteArray(fileToDownload);
 				this.sendBytesToClient(util.Bytes.concatArray(singleFileResponse,
-						fileToDownloadBytes), singleFileResponse.length);
+						fileToDownloadBytes), singleFileResponse.length, transferId);
 			} catch (IOException e) {
 				throw new ServerFailureException(e.getLocalizedMessage());
 			}
 		}
 	}
 
+	/**
+	 * Open a new socket for a helper, 
+	 * backed by a DatagramChannel if the helper will be driven by the event loop of the server.
+	 * Note: when all connections share the server port, the socket of the server is returned
+	 * @return DatagramSocket for the helper
+	 * @throws IOException
+	 */
+	public DatagramSocket openHelperSocket() throws IOException {
+		if (this.server.getConnectionTable() != null) {
+			return this.socket;
+		} else if (this.server.getEventLoop() != null) {
+			return TransportLayer.openNewDatagramChannelSocket();
+		} else {
+			return TransportLayer.openNewDatagramSocket();
+		}
+	}
+
 	/**
 	 * Delete a single file from the server.
 	 * @param fileToDelete File to delete
@@ -455,6 +598,16 @@ public class FileTransferClientHandler implements Runnable {
 	 * @param byteOffset due to String part
 	 */
 	public void sendBytesToClient(byte[] bytesToSend, int byteOffset) {
+		this.sendBytesToClient(bytesToSend, byteOffset, this.connectionId);
+	}
+
+	/**
+	 * Send bytes to the client, contained in a Packet with a connection ID in its header.
+	 * @param bytesToSend to client
+	 * @param byteOffset due to string part
+	 * @param packetConnectionId to put in the header (e.g. of a new transfer)
+	 */
+	public void sendBytesToClient(byte[] bytesToSend, int byteOffset, int packetConnectionId) {
 		try { // to construct and send a packet
 			Packet packet = new Packet(
 					0,
@@ -465,6 +618,7 @@ public class FileTransferClientHandler implements Runnable {
 					bytesToSend,
 					byteOffset
 					);
+			packet.setConnectionId(packetConnectionId);
 
 			TransportLayer.sendPacket(
 					this.socket,
@@ -485,7 +639,11 @@ public class FileTransferClientHandler implements Runnable {
 	 */
 	public void shutdown() {
 		this.showNamedMessage("ClientHandler is shutting down.");
-		this.socket.close();
+		if (this.server.getConnectionTable() != null) { // socket is shared: only stop receiving
+			this.server.getConnectionTable().unregister(this.connectionId);
+		} else {
+			this.socket.close();
+		}
 
 	}
 
@@ -497,6 +655,22 @@ public class FileTransferClientHandler implements Runnable {
 		return this.ownPort;
 	}
 
+	/**
+	 * Get the downloads of this ClientHandler (= uploads of the client).
+	 * @return list of downloadHelpers
+	 */
+	public List<Helper> getDownloads() {
+		return this.downloads;
+	}
+
+	/**
+	 * Get the uploads of this ClientHandler (= downloads of the client).
+	 * @return list of uploadHelpers
+	 */
+	public List<Helper> getUploads() {
+		return this.uploads;
+	}
+
 	/**
 	 * Get name of client of this ClientHandler.
 	 * @return String name of client of this ClientHandler.
@@ -510,7 +684,7 @@ public class FileTransferClientHandler implements Runnable {
 	 * @param message to display
 	 */
 	public void showNamedMessage(String message) {
-		textUI.showNamedMessage("handler-" + this.name, message);
+		LOG.info("handler-" + this.name, message);
 	}
 
 	/**
@@ -518,7 +692,7 @@ public class FileTransferClientHandler implements Runnable {
 	 * @param message to display
 	 */
 	public void showNamedError(String message) {
-		textUI.showNamedError("handler-" + this.name, message);
+		LOG.error("handler-" + this.name, message);
 	}
 
 }
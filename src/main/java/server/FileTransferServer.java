@@ -3,7 +3,6 @@ package server;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -18,6 +17,9 @@ import exceptions.PacketException;
 import exceptions.ServerFailureException;
 import exceptions.UtilByteException;
 import exceptions.UtilDatagramException;
+import network.ConnectionTable;
+import network.EventLoop;
+import network.IPacketEventHandler;
 import network.NetworkLayer;
 import network.Packet;
 import network.TransportLayer;
@@ -28,7 +30,12 @@ import protocol.FileTransferProtocol;
  * @author huub.lievestro
  *
  */
-public class FileTransferServer implements Runnable { 
+public class FileTransferServer implements Runnable, IPacketEventHandler { 
+
+	/**
+	 * Logger of the server subsystem.
+	 */
+	private static final util.Logger LOG = util.Logger.getLogger(util.Logger.SERVER);
 
 	/** 
 	 * The socket of this FileTranferServer.
@@ -95,12 +102,84 @@ public class FileTransferServer implements Runnable {
 	 */
 	String adminName;
 
+	/**
+	 * Argument to start the server with, to run all clients and transfers on one event loop.
+	 */
+	public static final String EVENT_LOOP_ARGUMENT = "eventloop";
+
+	/**
+	 * Indicates if all clients and transfers should run on one event loop,
+	 * instead of a thread per clientHandler and helper.
+	 */
+	private boolean useEventLoop;
+
+	/**
+	 * Event loop driving the server socket, clientHandlers and helpers (null if not used).
+	 */
+	private EventLoop eventLoop;
+
+	/**
+	 * Argument to start the server with, to run all sessions and transfers over the server port.
+	 */
+	public static final String SINGLE_PORT_ARGUMENT = "singleport";
+
+	/**
+	 * Table of sessions and transfers sharing the server port, 
+	 * to pass received packets on to by their connection ID (null if each has its own port).
+	 */
+	private ConnectionTable connectionTable;
+
+	/**
+	 * Argument to start the server with, to pace uploads at window/RTT 
+	 * (or at a fixed rate with pacing=&lt;bytes/second&gt;).
+	 */
+	public static final String PACING_ARGUMENT = "pacing";
+
+	/**
+	 * Rate to pace uploads at, in bytes/second 
+	 * (zero to derive it from window/RTT, negative to send windows back to back).
+	 */
+	private long pacingRate;
+
+	/**
+	 * Argument to start the server with, to limit the packet size clients may negotiate
+	 * (packetsize=&lt;bytes&gt;).
+	 */
+	public static final String PACKET_SIZE_ARGUMENT = "packetsize";
+
+	/**
+	 * Maximal size of the packets of transfers, that clients may negotiate (in bytes).
+	 */
+	private int maxPacketSize;
+
+	/**
+	 * Argument to start the server with, to set the log levels 
+	 * (log=&lt;level&gt;[,&lt;subsystem&gt;=&lt;level&gt;...], e.g. log=debug to show every packet).
+	 */
+	public static final String LOG_ARGUMENT = "log";
+
 	/**
 	 * Construct a new FileTransfer server.
 	 * @param port to bind socket to
 	 */
 	public FileTransferServer(int port) {
+		this(port, false, false);
+	}
+
+	/**
+	 * Construct a new FileTransfer server.
+	 * @param port to bind socket to
+	 * @param useEventLoop true to run all clients and transfers on one event loop thread
+	 * @param singlePort true to run all sessions and transfers over the port of the server
+	 */
+	public FileTransferServer(int port, boolean useEventLoop, boolean singlePort) {
 		this.ownPort = port;
+		this.useEventLoop = useEventLoop;
+		this.pacingRate = -1;
+		this.maxPacketSize = FileTransferProtocol.MAX_PACKET_SIZE;
+		if (singlePort) {
+			this.connectionTable = new ConnectionTable();
+		}
 	
 		this.clients = new ArrayList<>();
 		this.nextClientNr = 1;
@@ -208,10 +287,19 @@ public class FileTransferServer implements Runnable {
 		while (this.socket == null) { 
 
 			try {
-				this.socket = TransportLayer.openNewDatagramSocket(this.ownPort);
+				if (this.useEventLoop) {
+					this.eventLoop = new EventLoop();
+					this.socket = TransportLayer.openNewDatagramChannelSocket(this.ownPort);
+					this.showNamedMessage("Server will run all transfers on one event loop");
+				} else {
+					this.socket = TransportLayer.openNewDatagramSocket(this.ownPort);
+				}
 				this.showNamedMessage("Server now bound to port " + ownPort);
+				if (this.connectionTable != null) {
+					this.showNamedMessage("All sessions and transfers will use this port");
+				}
 				success = true;
-			} catch (SocketException e) {
+			} catch (IOException e) {
 				this.showNamedMessage("Something went wrong when opening the socket: "
 						+ e.getLocalizedMessage());
 				if (!textUI.getBoolean("Do you want to try again?")) {
@@ -268,25 +356,26 @@ public class FileTransferServer implements Runnable {
 	 */
 	public void run() {
 		try {
+			if (this.eventLoop != null) { // event loop will call packetReceived
+				this.eventLoop.register(this.socket, this);
+				this.showNamedMessage("Waiting for clients...");
+				this.eventLoop.run();
+				return;
+			}
+
 			while (true) {
 				this.showNamedMessage("Waiting for client...");
 
 				Packet receivedPacket = TransportLayer.receivePacket(this.socket);
 
-				if (receivedPacket.getPayloadString().startsWith(FileTransferProtocol.DISCOVER)) {
-					this.handleDiscover(receivedPacket);
-				} else if (receivedPacket.getPayloadString()
-						.startsWith(FileTransferProtocol.INIT_SESSION)) {
-					this.handleSessionRequest(receivedPacket);
-				} else {
-					this.showNamedError("Unknown packet: dropping");
-					this.showNamedError("Content was: : " + receivedPacket.getPayloadString()
-							+ " (in bytes: " + Arrays.toString(receivedPacket.getPayload()) + ")");
-				}
+				this.packetReceived(receivedPacket);
 			}
 		
 			
 		} catch (IOException | PacketException | UtilDatagramException e) {
+			if (this.socket.isClosed()) { // server is shut down: nothing went wrong
+				return;
+			}
 			this.showNamedError("Something went wrong: " + e.getLocalizedMessage());
 			if (textUI.getBoolean("Do you want to quit?")) {
 				this.shutdown();
@@ -294,6 +383,34 @@ public class FileTransferServer implements Runnable {
 		} 
 	}
 
+	/**
+	 * Pass a received packet on to the corresponding handle method.
+	 * @param receivedPacket from a client
+	 */
+	@Override
+	public void packetReceived(Packet receivedPacket) {
+		if (this.connectionTable != null 
+				&& receivedPacket.getConnectionId() != ConnectionTable.NO_CONNECTION) {
+			IPacketEventHandler handler = this.connectionTable.lookup(
+					receivedPacket.getConnectionId());
+			if (handler != null) { // pass it on to its session or transfer
+				handler.packetReceived(receivedPacket);
+			} else {
+				this.showNamedError("Packet for unknown connection " 
+						+ receivedPacket.getConnectionId() + ": dropping");
+			}
+		} else if (receivedPacket.getPayloadString().startsWith(FileTransferProtocol.DISCOVER)) {
+			this.handleDiscover(receivedPacket);
+		} else if (receivedPacket.getPayloadString()
+				.startsWith(FileTransferProtocol.INIT_SESSION)) {
+			this.handleSessionRequest(receivedPacket);
+		} else {
+			this.showNamedError("Unknown packet: dropping");
+			this.showNamedError("Content was: : " + receivedPacket.getPayloadString()
+					+ " (in bytes: " + Arrays.toString(receivedPacket.getPayload()) + ")");
+		}
+	}
+
 	/**
 	 * Respond to a DISCOVER send by a client.
 	 */
@@ -318,6 +435,16 @@ public class FileTransferServer implements Runnable {
 		String[] sessionRequest = sessionInitPacket.getPayloadString()
 				.split(FileTransferProtocol.DELIMITER);
 		String clientName;
+		int requestedPacketSize = 0; // not requested: default size
+		if (sessionRequest.length > 2) {
+			try {
+				requestedPacketSize = Integer.parseInt(sessionRequest[2]);
+			} catch (NumberFormatException e) {
+				this.showNamedError("Invalid packet size requested: using default");
+			}
+		}
+		int packetSize = FileTransferProtocol.negotiatePacketSize(requestedPacketSize, 
+				this.maxPacketSize);
 		
 		if (sessionRequest[1] != null && !sessionRequest[1].isBlank()) {
 			clientName = sessionRequest[1];
@@ -342,25 +469,43 @@ public class FileTransferServer implements Runnable {
 
 		try {
 			// create new clientHandler and start it
-			DatagramSocket sessionSocket = TransportLayer.openNewDatagramSocket(); 
-			FileTransferClientHandler handler = new FileTransferClientHandler(sessionSocket,
-					sessionInitPacket, this, clientName);
-			new Thread(handler).start();
+			DatagramSocket sessionSocket;
+			FileTransferClientHandler handler;
+			int sessionId = ConnectionTable.NO_CONNECTION;
+			if (this.connectionTable != null) { // packets passed on by packetReceived
+				sessionSocket = this.socket;
+				handler = new FileTransferClientHandler(sessionSocket,
+						sessionInitPacket, this, clientName);
+				sessionId = this.connectionTable.register(handler);
+				handler.setConnectionId(sessionId);
+			} else if (this.eventLoop != null) { // driven by the event loop
+				sessionSocket = TransportLayer.openNewDatagramChannelSocket(); 
+				handler = new FileTransferClientHandler(sessionSocket,
+						sessionInitPacket, this, clientName);
+				this.eventLoop.register(sessionSocket, handler);
+			} else {
+				sessionSocket = TransportLayer.openNewDatagramSocket(); 
+				handler = new FileTransferClientHandler(sessionSocket,
+						sessionInitPacket, this, clientName);
+				new Thread(handler).start();
+			}
+			handler.setPacketSize(packetSize);
 			clients.add(handler);
 
 			// respond to user
 			int sessionPortNumber = handler.getPort();
 			byte[] initResponse = (FileTransferProtocol.INIT_SESSION +
-					FileTransferProtocol.DELIMITER + sessionPortNumber).getBytes();
+					FileTransferProtocol.DELIMITER + sessionPortNumber + 
+					FileTransferProtocol.DELIMITER + packetSize).getBytes();
 			this.sendBytesToClient(initResponse,
 					sessionInitPacket.getSourceAddress(),
 					sessionInitPacket.getSourcePort(),
-					initResponse.length);
+					initResponse.length, sessionId);
 
 			this.showNamedMessage("New client [" + clientName + "] connected, on port " 
 					+ handler.getPort() + " !"); 
 
-		} catch (IOException e) {
+		} catch (IOException | ServerFailureException e) {
 			byte[] failure = (FileTransferProtocol.FAILED + FileTransferProtocol.DELIMITER 
 					+ "Handeling new session failed: " + e.getMessage()).getBytes();
 			this.sendBytesToClient(failure,
@@ -386,11 +531,70 @@ public class FileTransferServer implements Runnable {
 	public void shutdown() {
 		this.showNamedMessage("See you later!");
 		this.socket.close(); 
+		if (this.eventLoop != null) {
+			this.eventLoop.stop();
+		}
 		util.TimeOut.stop();
 		this.showNamedMessage("TimeOut helper stopped.");
 
 	}
 	
+	/**
+	 * Returns the clientHandlers of this server.
+	 * @return list of clientHandlers, one for every session
+	 */
+	public List<FileTransferClientHandler> getClients() {
+		return this.clients;
+	}
+	
+	/**
+	 * Returns the port this server is bound to.
+	 * @return port number (also if the server was started on any free port)
+	 */
+	public int getPort() {
+		return this.socket.getLocalPort();
+	}
+	
+	/**
+	 * Returns the event loop of this server.
+	 * @return EventLoop, or null if clients and transfers run in their own threads
+	 */
+	public EventLoop getEventLoop() {
+		return this.eventLoop;
+	}
+	
+	/**
+	 * Returns the table of sessions and transfers sharing the port of this server.
+	 * @return ConnectionTable, or null if sessions and transfers use their own ports
+	 */
+	public ConnectionTable getConnectionTable() {
+		return this.connectionTable;
+	}
+	
+	/**
+	 * Returns the rate to pace uploads at.
+	 * @return rate in bytes/second (zero if derived from window/RTT, negative if not paced)
+	 */
+	public long getPacingRate() {
+		return this.pacingRate;
+	}
+	
+	/**
+	 * Set the rate to pace uploads at.
+	 * @param pacingRate in bytes/second (zero to derive it from window/RTT, negative to disable)
+	 */
+	public void setPacingRate(long pacingRate) {
+		this.pacingRate = pacingRate;
+	}
+	
+	/**
+	 * Set the maximal size of the packets of transfers, that clients may negotiate.
+	 * @param maxPacketSize in bytes
+	 */
+	public void setMaxPacketSize(int maxPacketSize) {
+		this.maxPacketSize = maxPacketSize;
+	}
+	
 	/**
 	 * Returns the name of this server.
 	 * 
@@ -430,6 +634,20 @@ public class FileTransferServer implements Runnable {
 	 */
 	public void sendBytesToClient(byte[] bytesToSend,
 			InetAddress clientAddress, int clientPort, int byteOffset) {
+		this.sendBytesToClient(bytesToSend, clientAddress, clientPort, byteOffset, 
+				ConnectionTable.NO_CONNECTION);
+	}
+	
+	/**
+	 * Send bytes to the client, contained in a Packet with a connection ID in its header.
+	 * @param bytesToSend to server
+	 * @param clientAddress to send to
+	 * @param clientPort to send to
+	 * @param byteOffset due to string part
+	 * @param connectionId to put in the header (e.g. of a new session)
+	 */
+	public void sendBytesToClient(byte[] bytesToSend,
+			InetAddress clientAddress, int clientPort, int byteOffset, int connectionId) {
 		try { // to construct and send a packet
 			Packet packet = new Packet(
 						0,
@@ -440,6 +658,7 @@ public class FileTransferServer implements Runnable {
 						bytesToSend,
 						byteOffset
 				);
+			packet.setConnectionId(connectionId);
 			
 			TransportLayer.sendPacket(
 					this.socket,
@@ -500,7 +719,7 @@ public class FileTransferServer implements Runnable {
 	 * @param message to display
 	 */
 	public void showNamedMessage(String message) {
-		textUI.showNamedMessage(this.name, message);
+		LOG.info(this.name, message);
 	}
 	
 	/**
@@ -508,7 +727,7 @@ public class FileTransferServer implements Runnable {
 	 * @param message to display
 	 */
 	public void showNamedError(String message) {
-		textUI.showNamedError(this.name, message);
+		LOG.error(this.name, message);
 	}
 
 	// ------------------ Main --------------------------
@@ -522,11 +741,40 @@ public class FileTransferServer implements Runnable {
 		System.out.println("Welcome to the FileTransfer Server! \n Starting...");
 		
 		int port;
+		boolean useEventLoop = false;
+		boolean singlePort = false;
+		long pacingRate = -1;
+		int maxPacketSize = FileTransferProtocol.MAX_PACKET_SIZE;
+		
+		for (int i = 1; i < args.length; i++) {
+			if (args[i].equals(EVENT_LOOP_ARGUMENT)) {
+				useEventLoop = true;
+			} else if (args[i].equals(SINGLE_PORT_ARGUMENT)) {
+				singlePort = true;
+			} else if (args[i].equals(PACING_ARGUMENT)) {
+				pacingRate = 0;
+			} else if (args[i].startsWith(PACING_ARGUMENT + "=") 
+					&& util.Arguments.isPositiveNumber(
+							args[i].substring(PACING_ARGUMENT.length() + 1), Long.MAX_VALUE)) {
+				pacingRate = Long.parseLong(args[i].substring(PACING_ARGUMENT.length() + 1));
+			} else if (args[i].startsWith(PACKET_SIZE_ARGUMENT + "=") 
+					&& util.Arguments.isPositiveNumber(
+							args[i].substring(PACKET_SIZE_ARGUMENT.length() + 1), Integer.MAX_VALUE)) {
+				maxPacketSize = Integer.parseInt(
+						args[i].substring(PACKET_SIZE_ARGUMENT.length() + 1));
+			} else if (args[i].startsWith(LOG_ARGUMENT + "=") 
+					&& util.Logger.isValidConfiguration(args[i].substring(LOG_ARGUMENT.length() + 1))) {
+				util.Logger.configure(args[i].substring(LOG_ARGUMENT.length() + 1));
+			} else {
+				System.out.println("Syntax: FileTranferServer <port> [" + EVENT_LOOP_ARGUMENT 
+						+ "] [" + SINGLE_PORT_ARGUMENT + "] [" + PACING_ARGUMENT 
+						+ "[=<bytes/second>]] [" + PACKET_SIZE_ARGUMENT + "=<bytes>] [" 
+						+ LOG_ARGUMENT + "=<level>[,<subsystem>=<level>...]]");
+				return;
+			}
+		}
 		
-		if (args.length < 0 || args.length > 1) {
-			System.out.println("Syntax: FileTranferServer <port>");
-			return;
-		} else if (args.length == 1) {
+		if (args.length >= 1) {
 			port = Integer.parseInt(args[0]);
 			System.out.println("Using specified server port " + port + "...");
 		} else {
@@ -534,7 +782,9 @@ public class FileTransferServer implements Runnable {
 			System.out.println("Using default server port " + port + "...");
 		}
 			
-		FileTransferServer server =  new FileTransferServer(port);
+		FileTransferServer server =  new FileTransferServer(port, useEventLoop, singlePort);
+		server.setPacingRate(pacingRate);
+		server.setMaxPacketSize(maxPacketSize);
 		System.out.println("Starting server...");
 		new Thread(server).start();
 	}
@@ -7,6 +7,7 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 
 import exceptions.ExitProgram;
+import util.Logger;
 
 /** 
  * General TUI for the FileTransfer server and client.
@@ -18,21 +19,29 @@ import exceptions.ExitProgram;
  */
 public class TUI  {
 
+	/**
+	 * Logger for the named messages shown via this TUI.
+	 */
+	private static final Logger LOG = Logger.getLogger(Logger.UI);
+
 	/**
 	 * Writes the given message to system output.
+	 * Note: right away, after the logged messages (e.g. a question, which waits for input)
 	 * @param msg the message to write to the system output.
 	 */
 	public void showMessage(String message) {
+		Logger.flush();
 		System.out.println(message);
 	}
 	
 	/**
 	 * Writes the given message to system output, including the name.
+	 * Note: logged, so written asynchronously
 	 * @param name to identify caller
 	 * @param message the message to write to the system output.
 	 */
 	public void showNamedMessage(String name, String message) {
-		this.showMessage("[" + name + "]: " + message);
+		LOG.info(name, message);
 	}
 	
 	/**
@@ -40,16 +49,18 @@ public class TUI  {
 	 * @param msg the message to write to the system output.
 	 */
 	public void showError(String message) {
+		Logger.flush();
 		System.err.println(">ERROR: " + message);
 	}
 	
 	/**
 	 * Writes the given error to system output, including the name.
+	 * Note: logged, so written asynchronously
 	 * @param name to identify caller
 	 * @param message the error to write to the system output.
 	 */
 	public void showNamedError(String name, String message) {
-		System.err.println("[" + name + "]>ERROR: " + message);
+		LOG.error(name, message);
 	}
 
 	/**
@@ -97,6 +108,34 @@ public class TUI  {
         return answerInt;
 	}
 
+	/**
+	 * Prints the question and asks the user to input a Long.
+	 * @param question the question shown to the user, asking for input
+	 * @return The written Long.
+	 */
+	public long getLong(String question) {
+		String answer = null;
+		long answerLong = 0;
+		Boolean answerValid = false;
+
+		while (!answerValid) {
+			this.showMessage(question); 
+			try {
+				BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+				answer = in.readLine();
+
+				answerLong = Long.parseLong(answer);
+				answerValid = true;
+			} catch (NumberFormatException eFormat) {
+				this.showMessage("ERROR> " + answer +  " is not an integer (" 
+						+ eFormat.getLocalizedMessage() + ") try again!");
+			} catch (IOException e) {
+				this.showMessage("IO Exception occurred");
+			}
+		}
+        return answerLong;
+	}
+
 	/**
 	 * Prints the question and asks the user for a yes/no answer.
 	 * @param question the question shown to the user, asking for input
@@ -143,6 +182,10 @@ public class TUI  {
 		this.showMessage("- " + TUICommands.LIST_FILES + " = list files on the server");
 		this.showMessage("- " + TUICommands.LIST_FILES_LOCAL + " = list files on this client");
 		this.showMessage("- " + TUICommands.DOWNLOAD_SINGLE + " = download a single file from the server");
+		this.showMessage("- " + TUICommands.DOWNLOAD_RANGE + " = download a range of bytes of a"
+				+ " single file from the server");
+		this.showMessage("- " + TUICommands.DOWNLOAD_STRIPED + " = download a single (large) file"
+				+ " from the server in parallel stripes");
 		this.showMessage("- " + TUICommands.UPLOAD_SINGLE + " = upload a single file to the server");
 		this.showMessage("- " + TUICommands.DELETE_SINGLE + " = delete a single file from the server");
 		this.showMessage("- " + TUICommands.CHECK_INTEGRITY + " = check integrity of single file"
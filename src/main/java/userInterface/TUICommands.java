@@ -31,6 +31,16 @@ public class TUICommands {
 	 */
 	public static final String DOWNLOAD_SINGLE = "download";
 	
+	/**
+	 * download a range of bytes of a single file from the server.
+	 */
+	public static final String DOWNLOAD_RANGE = "downloadRange";
+	
+	/**
+	 * download a single file from the server in parallel stripes.
+	 */
+	public static final String DOWNLOAD_STRIPED = "downloadStriped";
+	
 	/**
 	 * upload a single file to the server
 	 */
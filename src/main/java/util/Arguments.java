@@ -0,0 +1,26 @@
+package util;
+
+/**
+ * Utilities to check the arguments of the main methods.
+ * @author huub.lievestro
+ *
+ */
+public class Arguments {
+
+	/**
+	 * Check if the value of an argument is a valid positive number, before parsing it
+	 * (so an invalid value shows the syntax, instead of failing or being clamped later).
+	 * @param value to check
+	 * @param maxValue largest valid value (e.g. Integer.MAX_VALUE, to parse as int)
+	 * @return true if the value is a number larger than zero, not larger than maxValue
+	 */
+	public static boolean isPositiveNumber(String value, long maxValue) {
+		try {
+			long number = Long.parseLong(value);
+			return number > 0 && number <= maxValue;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+}
@@ -3,6 +3,7 @@ package util;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.Arrays;
 
 import exceptions.PacketException;
 import exceptions.UtilByteException;
@@ -18,6 +19,34 @@ import protocol.FileTransferProtocol;
  */
 public class Datagram {
 
+	/**
+	 * Header codec of every thread, wrapped around each datagram it decodes or encodes
+	 * (so no codec is allocated per datagram).
+	 */
+	private static final ThreadLocal<HeaderCodec> HEADER_CODEC = 
+			ThreadLocal.withInitial(HeaderCodec::new);
+
+	/**
+	 * Get the header codec of this thread, wrapped around a datagram.
+	 * Note: the codec is rewrapped by the next call on the same thread, so do not keep it
+	 * @param data containing the datagram, starting with the header
+	 * @return header codec of this thread
+	 */
+	public static HeaderCodec wrapHeader(byte[] data) {
+		return HEADER_CODEC.get().wrap(data);
+	}
+
+	/**
+	 * Check if a datagram is large enough to contain a complete header.
+	 * @param datagram to check
+	 * @throws UtilDatagramException if the datagram is smaller than the header
+	 */
+	private static void checkHeaderLength(byte[] datagram) throws UtilDatagramException {
+		if (datagram.length < FileTransferProtocol.TOTAL_HEADER_SIZE) {
+			throw new UtilDatagramException("Datagram smaller than header");
+		}
+	}
+	
 	/**
 	 * Get id from header.
 	 * @param datagram containing the header with the id field
@@ -25,15 +54,8 @@ public class Datagram {
 	 * @throws UtilDatagramException
 	 */
 	public static int getHeaderId(byte[] datagram) throws UtilDatagramException {
-		int id = -1;
-		
-		try {
-			id = util.Bytes.byteArray2int(util.Bytes.subArray(datagram,
-					FileTransferProtocol.HEADER_ID_START,
-					FileTransferProtocol.HEADER_ID_LAST));
-		} catch (UtilByteException e) {
-			throw new UtilDatagramException(e.getLocalizedMessage());
-		}
+		checkHeaderLength(datagram);
+		int id = HeaderCodec.readInt(datagram, FileTransferProtocol.HEADER_ID_START);
 		
 		if (id > FileTransferProtocol.MAX_ID) {
 			throw new UtilDatagramException("ID cannot be larger than MAX_ID");
@@ -48,15 +70,8 @@ public class Datagram {
 	 * @throws UtilDatagramException
 	 */
 	public static int getHeaderHeaderLength(byte[] datagram) throws UtilDatagramException {
-		int headerLength = -1;
-		
-		try {
-			headerLength = util.Bytes.byteArray2int(util.Bytes.subArray(datagram,
-					FileTransferProtocol.HEADER_HEADER_LENGTH_START,
-					FileTransferProtocol.HEADER_HEADER_LENGTH_LAST));
-		} catch (UtilByteException e) {
-			throw new UtilDatagramException(e.getLocalizedMessage());
-		}
+		checkHeaderLength(datagram);
+		int headerLength = HeaderCodec.readInt(datagram, FileTransferProtocol.HEADER_HEADER_LENGTH_START);
 		return headerLength;
 	}
 	
@@ -67,18 +82,23 @@ public class Datagram {
 	 * @throws UtilDatagramException
 	 */
 	public static int getHeaderByteOffset(byte[] datagram) throws UtilDatagramException {
-		int byteOffset = -1;
-		
-		try {
-			byteOffset = util.Bytes.byteArray2int(util.Bytes.subArray(datagram,
-					FileTransferProtocol.HEADER_BYTE_OFFSET_START,
-					FileTransferProtocol.HEADER_BYTE_OFFSET_LAST));
-		} catch (UtilByteException e) {
-			throw new UtilDatagramException(e.getLocalizedMessage());
-		}
+		checkHeaderLength(datagram);
+		int byteOffset = HeaderCodec.readInt(datagram, FileTransferProtocol.HEADER_BYTE_OFFSET_START);
 		return byteOffset;
 	}
 	
+	/**
+	 * Get connectionId from header.
+	 * @param datagram containing the header with the connectionId field
+	 * @return connectionId 
+	 * @throws UtilDatagramException
+	 */
+	public static int getHeaderConnectionId(byte[] datagram) throws UtilDatagramException {
+		checkHeaderLength(datagram);
+		int connectionId = HeaderCodec.readInt(datagram, FileTransferProtocol.HEADER_CONNECTION_ID_START);
+		return connectionId;
+	}
+	
 	/**
 	 * Get payload from the datagramPacket.
 	 * @param datagram to extract payload from
@@ -122,14 +142,24 @@ public class Datagram {
 	public static Packet createPacketFromDatagram(DatagramPacket datagram, 
 			DatagramSocket receivingSocket) throws PacketException, UtilDatagramException {
 
-        byte[] data = datagram.getData();
+		byte[] data = datagram.getData();
+		if (datagram.getLength() < FileTransferProtocol.TOTAL_HEADER_SIZE) {
+			throw new UtilDatagramException("Datagram smaller than header");
+		}
+		HeaderCodec header = wrapHeader(data);
 
-        int id = util.Datagram.getHeaderId(data);
-        int headerLength = util.Datagram.getHeaderHeaderLength(data);
-        int byteOffset = util.Datagram.getHeaderByteOffset(data);
-        
-        int payloadLength = datagram.getLength() - headerLength;
-        byte[] payload = util.Datagram.getPayload(data, payloadLength);
+		int id = header.getId();
+		if (id > FileTransferProtocol.MAX_ID || id < 0) {
+			throw new UtilDatagramException("ID cannot be larger than MAX_ID");
+		}
+		int headerLength = header.getHeaderLength();
+		if (headerLength < FileTransferProtocol.TOTAL_HEADER_SIZE 
+				|| headerLength > datagram.getLength()) {
+			throw new UtilDatagramException("Invalid header length");
+		}
+		
+		// only copy made: the receive buffer is reused for the next datagram
+		byte[] payload = Arrays.copyOfRange(data, headerLength, datagram.getLength());
 		
 		Packet packet = new Packet(
 				id, 
@@ -138,8 +168,9 @@ public class Datagram {
 				receivingSocket.getLocalAddress(),
 				receivingSocket.getPort(), 
 				payload, 
-				byteOffset
+				header.getByteOffset()
 				); 
+		packet.setConnectionId(header.getConnectionId());
 		return packet;
 	}
 	
@@ -153,18 +184,18 @@ public class Datagram {
 	public static DatagramPacket buildDatagram(Packet packet, int destinationPort) 
 			throws UtilDatagramException {
 		
-		byte[] header = buildHeader(packet);
-		byte[] data = util.Bytes.concatArray(header, packet.getPayload());
-		
-		DatagramPacket datagram;
-		if (data.length <= FileTransferProtocol.MAX_PACKET_SIZE) {
-			datagram = new DatagramPacket(data, 
-					data.length, packet.getDestinationAddress(), destinationPort);
-		} else {
+		int length = FileTransferProtocol.TOTAL_HEADER_SIZE + packet.getPayloadLength();
+		if (length > FileTransferProtocol.MAX_PACKET_SIZE) {
 			throw new UtilDatagramException("Cannot build datagram:"
 					+ " packet larger than maximum size");
 		}
-		return datagram;
+		
+		byte[] data = new byte[length]; // header written in place, payload copied once
+		writeHeader(packet, wrapHeader(data));
+		System.arraycopy(packet.getPayload(), 0, data, FileTransferProtocol.PAYLOAD_START, 
+				packet.getPayloadLength());
+		
+		return new DatagramPacket(data, length, packet.getDestinationAddress(), destinationPort);
 	}
 	
 	/**
@@ -174,22 +205,26 @@ public class Datagram {
 	 * @throws UtilDatagramException
 	 */
 	public static byte[] buildHeader(Packet packet) throws UtilDatagramException {
+		byte[] header = new byte[FileTransferProtocol.TOTAL_HEADER_SIZE];
+		writeHeader(packet, wrapHeader(header));
+		return header;
+	}
+	
+	/**
+	 * Write the header of a Packet, via a codec wrapping the datagram.
+	 * @param packet to write the header of
+	 * @param header codec, wrapping the array to write in
+	 * @throws UtilDatagramException
+	 */
+	public static void writeHeader(Packet packet, HeaderCodec header) 
+			throws UtilDatagramException {
 		if (packet.getId() > FileTransferProtocol.MAX_ID) {
 			throw new UtilDatagramException("ID cannot be larger than MAX_ID");
 		}
-		
-		byte[] header;
-		try {
-			byte[] idBytes = util.Bytes.int2ByteArray(packet.getId());
-			byte[] headerSizeBytes 
-				= util.Bytes.int2ByteArray(FileTransferProtocol.TOTAL_HEADER_SIZE);
-			byte[] byteOffsetBytes = util.Bytes.int2ByteArray(packet.getByteOffset());
-		
-			header = util.Bytes.concatArray(idBytes, headerSizeBytes, byteOffsetBytes);
-		} catch (UtilByteException e) {
-			throw new UtilDatagramException(e.getLocalizedMessage());
+		if (packet.getId() < 0 || packet.getByteOffset() < 0 || packet.getConnectionId() < 0) {
+			throw new UtilDatagramException("Header does NOT support negative integers");
 		}
-		return header;
+		header.writeHeader(packet.getId(), packet.getByteOffset(), packet.getConnectionId());
 	}
 	
 }
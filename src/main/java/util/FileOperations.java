@@ -3,8 +3,12 @@ package util;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -15,6 +19,11 @@ import java.security.NoSuchAlgorithmException;
  */
 public class FileOperations {
 
+	/**
+	 * Size of the blocks a file is read in to calculate its hash, in bytes.
+	 */
+	private static final int HASH_BLOCK_SIZE = 1 << 20;
+
 	/**
      * Gets the contents of the specified file.
      * @param fileToRead, represented by a File object
@@ -25,6 +34,99 @@ public class FileOperations {
         return Files.readAllBytes(Paths.get(fileToRead.getAbsolutePath())); 
     }
 
+    /**
+     * Opens a channel to read the contents of the specified file on demand.
+     * @param fileToRead, represented by a File object
+     * @return FileChannel, opened for reading
+     * @throws IOException
+     */
+    public static FileChannel openFileChannel(File fileToRead) throws IOException {
+        return FileChannel.open(Paths.get(fileToRead.getAbsolutePath()), StandardOpenOption.READ);
+    }
+
+    /**
+     * Reads bytes from the channel, starting at position, until the buffer is full.
+     * Note: stops earlier when the end of the file is reached
+     * @param channel to read from
+     * @param buffer to read into
+     * @param position in the file to start reading
+     * @return number of bytes read
+     * @throws IOException
+     */
+    public static int readFileChannel(FileChannel channel, ByteBuffer buffer, long position) 
+    		throws IOException {
+        int totalRead = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + totalRead);
+            if (read < 0) {
+                break;
+            }
+            totalRead += read;
+        }
+        return totalRead;
+    }
+
+    /**
+     * Opens a channel to write the contents of the specified file, at any position.
+     * Note: an existing file is truncated
+     * @param fileToWrite, represented by a File object
+     * @return FileChannel, opened for writing
+     * @throws IOException
+     */
+    public static FileChannel openWritableFileChannel(File fileToWrite) throws IOException {
+        return openWritableFileChannel(fileToWrite, true);
+    }
+
+    /**
+     * Opens a channel to write the contents of the specified file, at any position.
+     * @param fileToWrite, represented by a File object
+     * @param truncate true to truncate an existing file, false to keep its contents
+     * 		(e.g. to continue an interrupted download)
+     * @return FileChannel, opened for writing
+     * @throws IOException
+     */
+    public static FileChannel openWritableFileChannel(File fileToWrite, boolean truncate) 
+    		throws IOException {
+        if (truncate) {
+            return FileChannel.open(Paths.get(fileToWrite.getAbsolutePath()), 
+            		StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+            		StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        return FileChannel.open(Paths.get(fileToWrite.getAbsolutePath()), 
+        		StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Sets the length of the specified file, creating it if it does not exist yet
+     * (e.g. to preallocate a file that is written in parts, at any position).
+     * Note: an existing file is truncated or extended (extended bytes are undefined)
+     * @param fileToSize, represented by a File object
+     * @param length of the file, in bytes
+     * @throws IOException
+     */
+    public static void setFileLength(File fileToSize, long length) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileToSize, "rw")) {
+        	file.setLength(length);
+        }
+    }
+
+    /**
+     * Writes all bytes remaining in the buffer to the channel, starting at position.
+     * @param channel to write to
+     * @param buffer to write from
+     * @param position in the file to start writing
+     * @return number of bytes written
+     * @throws IOException
+     */
+    public static int writeFileChannel(FileChannel channel, ByteBuffer buffer, long position) 
+    		throws IOException {
+        int totalWritten = 0;
+        while (buffer.hasRemaining()) {
+            totalWritten += channel.write(buffer, position + totalWritten);
+        }
+        return totalWritten;
+    }
+
     /**
      * Writes the contents of the fileContents array to the specified file. TODO update
      * @param fileContents the contents to write
@@ -46,8 +148,16 @@ public class FileOperations {
      */
     public static byte[] getHashBytes(File fileToHash) 
     		throws IOException, NoSuchAlgorithmException {
-    	byte[] fileBytes = Files.readAllBytes(Paths.get(fileToHash.getAbsolutePath()));
-    	return MessageDigest.getInstance("MD5").digest(fileBytes);
+    	MessageDigest digest = MessageDigest.getInstance("MD5");
+    	try (FileChannel channel = openFileChannel(fileToHash)) { // in blocks: any file size
+    		ByteBuffer buffer = ByteBuffer.allocate(HASH_BLOCK_SIZE);
+    		while (channel.read(buffer) >= 0) {
+    			buffer.flip();
+    			digest.update(buffer);
+    			buffer.clear();
+    		}
+    	}
+    	return digest.digest();
     }
 
     /**
@@ -0,0 +1,148 @@
+package util;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Flyweight codec of the header of a datagram:
+ * reads and writes the header fields directly in a backing byte array, at their fixed offsets.
+ * Note: wrapping another array does not allocate, so one codec can be reused for every datagram
+ * @author huub.lievestro
+ *
+ */
+public class HeaderCodec {
+
+	/**
+	 * Array containing the datagram (header followed by payload).
+	 */
+	private byte[] data;
+
+	/**
+	 * Index in the array where the header starts.
+	 */
+	private int start;
+
+	/**
+	 * Create a new HeaderCodec, not wrapping any array yet.
+	 */
+	public HeaderCodec() {
+		this.data = null;
+		this.start = 0;
+	}
+
+	/**
+	 * Create a new HeaderCodec, wrapping an array.
+	 * @param data containing the datagram
+	 */
+	public HeaderCodec(byte[] data) {
+		this.wrap(data, 0);
+	}
+
+	/**
+	 * Wrap an array, so the header fields in it can be read and written.
+	 * @param data containing the datagram
+	 * @param start index in the array where the header starts
+	 * @return this codec
+	 */
+	public HeaderCodec wrap(byte[] data, int start) {
+		this.data = data;
+		this.start = start;
+		return this;
+	}
+
+	/**
+	 * Wrap an array, so the header fields in it can be read and written.
+	 * @param data containing the datagram, starting with the header
+	 * @return this codec
+	 */
+	public HeaderCodec wrap(byte[] data) {
+		return this.wrap(data, 0);
+	}
+
+	public byte[] getData() {
+		return data;
+	}
+
+	public int getId() {
+		return readInt(this.data, this.start + FileTransferProtocol.HEADER_ID_START);
+	}
+
+	public void setId(int id) {
+		writeInt(this.data, this.start + FileTransferProtocol.HEADER_ID_START, id);
+	}
+
+	public int getHeaderLength() {
+		return readInt(this.data, this.start + FileTransferProtocol.HEADER_HEADER_LENGTH_START);
+	}
+
+	public void setHeaderLength(int headerLength) {
+		writeInt(this.data, this.start + FileTransferProtocol.HEADER_HEADER_LENGTH_START,
+				headerLength);
+	}
+
+	public int getByteOffset() {
+		return readInt(this.data, this.start + FileTransferProtocol.HEADER_BYTE_OFFSET_START);
+	}
+
+	public void setByteOffset(int byteOffset) {
+		writeInt(this.data, this.start + FileTransferProtocol.HEADER_BYTE_OFFSET_START, byteOffset);
+	}
+
+	public int getConnectionId() {
+		return readInt(this.data, this.start + FileTransferProtocol.HEADER_CONNECTION_ID_START);
+	}
+
+	public void setConnectionId(int connectionId) {
+		writeInt(this.data, this.start + FileTransferProtocol.HEADER_CONNECTION_ID_START,
+				connectionId);
+	}
+
+	/**
+	 * Get index in the array where the payload starts (as given by the headerLength field).
+	 * @return index of the first payload byte
+	 */
+	public int getPayloadStart() {
+		return this.start + this.getHeaderLength();
+	}
+
+	/**
+	 * Write all fields of a header at once.
+	 * @param id of the Packet
+	 * @param byteOffset of the Packet
+	 * @param connectionId of the Packet
+	 */
+	public void writeHeader(int id, int byteOffset, int connectionId) {
+		this.setId(id);
+		this.setHeaderLength(FileTransferProtocol.TOTAL_HEADER_SIZE);
+		this.setByteOffset(byteOffset);
+		this.setConnectionId(connectionId);
+	}
+
+	/**
+	 * Read an int from a byte array.
+	 * Note: big-endian, as written by ByteBuffer (and Bytes.int2ByteArray)
+	 * @param data to read from
+	 * @param index of the first (most significant) byte
+	 * @return int, represented by the four bytes
+	 */
+	public static int readInt(byte[] data, int index) {
+		return (data[index] & 0xFF) << 24
+				| (data[index + 1] & 0xFF) << 16
+				| (data[index + 2] & 0xFF) << 8
+				| (data[index + 3] & 0xFF);
+	}
+
+	/**
+	 * Write an int to a byte array.
+	 * Note: big-endian, as read by ByteBuffer (and Bytes.byteArray2int)
+	 * @param data to write to
+	 * @param index of the first (most significant) byte
+	 * @param value to write
+	 */
+	public static void writeInt(byte[] data, int index, int value) {
+		data[index] = (byte) (value >>> 24);
+		data[index + 1] = (byte) (value >>> 16);
+		data[index + 2] = (byte) (value >>> 8);
+		data[index + 3] = (byte) value;
+	}
+
+}
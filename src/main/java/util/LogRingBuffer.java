@@ -0,0 +1,153 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring buffer of log messages: many threads offer, one thread polls.
+ * Note: every slot carries a sequence number, which tells whether it is free for the next
+ * offer or filled for the next poll; the slots are reused, so offering does not allocate
+ * @author huub.lievestro
+ *
+ */
+public class LogRingBuffer {
+
+	/**
+	 * Slot of the buffer, holding one message.
+	 */
+	public static class Entry {
+
+		/**
+		 * Sequence number: position + 1 when filled, position + capacity when free again.
+		 */
+		private volatile long sequence;
+
+		/**
+		 * Level of the message.
+		 */
+		Logger.Level level;
+
+		/**
+		 * Name of the process which logged the message.
+		 */
+		String name;
+
+		/**
+		 * Message text.
+		 */
+		String message;
+
+	}
+
+	/**
+	 * Slots of the buffer.
+	 */
+	private Entry[] entries;
+
+	/**
+	 * Mask to find the slot of a position (capacity is a power of two).
+	 */
+	private int mask;
+
+	/**
+	 * Next position to offer to (claimed by the offering threads).
+	 */
+	private AtomicLong tail;
+
+	/**
+	 * Next position to poll from (only used by the polling thread).
+	 */
+	private long head;
+
+	/**
+	 * Number of messages dropped, because the buffer was full.
+	 */
+	private AtomicLong dropped;
+
+	/**
+	 * Create a new LogRingBuffer.
+	 * @param capacity number of messages it can hold, rounded up to a power of two
+	 */
+	public LogRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.entries = new Entry[size];
+		for (int i = 0; i < size; i++) {
+			this.entries[i] = new Entry();
+			this.entries[i].sequence = i;
+		}
+		this.mask = size - 1;
+		this.tail = new AtomicLong(0);
+		this.head = 0;
+		this.dropped = new AtomicLong(0);
+	}
+
+	/**
+	 * Add a message, if there is room for it.
+	 * @param level of the message
+	 * @param name of the process logging it
+	 * @param message text
+	 * @return true if added, false if dropped (buffer is full)
+	 */
+	public boolean offer(Logger.Level level, String name, String message) {
+		long position = this.tail.get();
+		while (true) {
+			Entry entry = this.entries[(int) position & this.mask];
+			long difference = entry.sequence - position;
+			if (difference == 0) { // free: claim it
+				if (this.tail.compareAndSet(position, position + 1)) {
+					entry.level = level;
+					entry.name = name;
+					entry.message = message;
+					entry.sequence = position + 1; // publish to the polling thread
+					return true;
+				}
+				position = this.tail.get();
+			} else if (difference < 0) { // not polled yet: full
+				this.dropped.incrementAndGet();
+				return false;
+			} else { // claimed by another thread in the meantime
+				position = this.tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Take the oldest message, by copying it (only to be called by one thread).
+	 * @param target to copy the message into
+	 * @return true if a message was taken, false if the buffer is empty
+	 */
+	public boolean poll(Entry target) {
+		Entry entry = this.entries[(int) this.head & this.mask];
+		if (entry.sequence != this.head + 1) { // not filled (yet)
+			return false;
+		}
+		target.level = entry.level;
+		target.name = entry.name;
+		target.message = entry.message;
+		entry.name = null; // do not keep the strings alive
+		entry.message = null;
+		entry.sequence = this.head + this.entries.length; // free for the offer one lap later
+		this.head++;
+		return true;
+	}
+
+	/**
+	 * Get the number of messages offered so far (including those already polled).
+	 * @return position of the next offer
+	 */
+	public long getOffered() {
+		return this.tail.get();
+	}
+
+	/**
+	 * Get the number of messages dropped since the last call, and reset it.
+	 * @return number of dropped messages
+	 */
+	public long takeDropped() {
+		return this.dropped.getAndSet(0);
+	}
+
+	public int getCapacity() {
+		return entries.length;
+	}
+
+}
@@ -0,0 +1,352 @@
+package util;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled logging, per subsystem (server, client, upload, download, ui).
+ * Messages are put in a lock-free ring buffer, and written to the console by a background thread,
+ * so logging threads (e.g. on the packet path) never wait for console output.
+ * Note: check isEnabled() before building a message from parts,
+ * so a disabled level costs no string concatenation
+ * @author huub.lievestro
+ *
+ */
+public class Logger {
+
+	/**
+	 * Levels of messages, from most to least important.
+	 * A logger set to a level shows the messages of that level and the levels above it.
+	 */
+	public enum Level {
+		OFF, ERROR, WARNING, INFO, DEBUG, TRACE
+	}
+
+	/**
+	 * Subsystems, each with their own level.
+	 */
+	public static final String SERVER = "server";
+	public static final String CLIENT = "client";
+	public static final String UPLOAD = "upload";
+	public static final String DOWNLOAD = "download";
+	public static final String UI = "ui";
+
+	/**
+	 * System property to configure the levels with (syntax: see configure()).
+	 */
+	public static final String LOG_PROPERTY = "ft.log";
+
+	/**
+	 * Number of messages the buffer can hold, before messages are dropped.
+	 */
+	public static final int BUFFER_CAPACITY = 8192;
+
+	/**
+	 * Time the writer sleeps when the buffer is empty, in nanoseconds.
+	 */
+	private static final long WRITER_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Maximal time to wait for the buffer to be written by flush(), in nanoseconds.
+	 */
+	private static final long MAX_FLUSH_TIME = TimeUnit.SECONDS.toNanos(1);
+
+	/**
+	 * Loggers created so far, per subsystem.
+	 */
+	private static Map<String, Logger> loggers = new ConcurrentHashMap<>();
+
+	/**
+	 * Level of subsystems without an own level.
+	 */
+	private static volatile Level defaultLevel = Level.INFO;
+
+	/**
+	 * Messages logged, but not written yet.
+	 */
+	private static LogRingBuffer buffer = new LogRingBuffer(BUFFER_CAPACITY);
+
+	/**
+	 * Number of messages written by the writer, to know when flush() is done.
+	 */
+	private static volatile long written = 0;
+
+	/**
+	 * Thread writing the messages in the buffer (null until the first message).
+	 */
+	private static volatile Thread writerThread;
+
+	static {
+		String configuration = System.getProperty(LOG_PROPERTY);
+		if (configuration != null) {
+			configure(configuration);
+		}
+	}
+
+	/**
+	 * Subsystem of this logger.
+	 */
+	private String subsystem;
+
+	/**
+	 * Own level of this logger (null to use the default level).
+	 */
+	private volatile Level level;
+
+	/**
+	 * Least important level shown (own level, else default level), as ordinal: for a fast check.
+	 */
+	private volatile int threshold;
+
+	/**
+	 * Create a new Logger (use getLogger(), so every subsystem has one).
+	 * @param subsystem of this logger
+	 */
+	private Logger(String subsystem) {
+		this.subsystem = subsystem;
+		this.level = null;
+		this.threshold = defaultLevel.ordinal();
+	}
+
+	/**
+	 * Get the logger of a subsystem (created if it does not exist yet).
+	 * @param subsystem to get the logger of
+	 * @return logger of the subsystem
+	 */
+	public static Logger getLogger(String subsystem) {
+		return loggers.computeIfAbsent(subsystem, Logger::new);
+	}
+
+	/**
+	 * Check if messages of a level are shown, before building them.
+	 * @param messageLevel to check
+	 * @return true if shown
+	 */
+	public boolean isEnabled(Level messageLevel) {
+		return messageLevel.ordinal() <= this.threshold;
+	}
+
+	public boolean isDebugEnabled() {
+		return Level.DEBUG.ordinal() <= this.threshold;
+	}
+
+	/**
+	 * Log a message, if its level is enabled.
+	 * Note: if the buffer is full, an error is written right away and other messages are dropped
+	 * @param messageLevel of the message
+	 * @param name of the process logging the message
+	 * @param message text
+	 */
+	public void log(Level messageLevel, String name, String message) {
+		if (!this.isEnabled(messageLevel)) {
+			return;
+		}
+		if (writerThread == null) {
+			startWriter();
+		}
+		if (!buffer.offer(messageLevel, name, message) && messageLevel == Level.ERROR) {
+			getStream(messageLevel).println(format(messageLevel, name, message));
+		}
+	}
+
+	public void error(String name, String message) {
+		this.log(Level.ERROR, name, message);
+	}
+
+	public void warning(String name, String message) {
+		this.log(Level.WARNING, name, message);
+	}
+
+	public void info(String name, String message) {
+		this.log(Level.INFO, name, message);
+	}
+
+	public void debug(String name, String message) {
+		this.log(Level.DEBUG, name, message);
+	}
+
+	public void trace(String name, String message) {
+		this.log(Level.TRACE, name, message);
+	}
+
+	public String getSubsystem() {
+		return subsystem;
+	}
+
+	/**
+	 * Get the level of this logger.
+	 * @return own level, or the default level if none is set
+	 */
+	public Level getLevel() {
+		Level ownLevel = this.level;
+		return ownLevel != null ? ownLevel : defaultLevel;
+	}
+
+	// ------------------ Configuration --------------------------
+
+	/**
+	 * Set the level of a subsystem.
+	 * @param subsystem to set the level of
+	 * @param level to set, or null to use the default level again
+	 */
+	public static void setLevel(String subsystem, Level level) {
+		Logger logger = getLogger(subsystem);
+		logger.level = level;
+		logger.threshold = logger.getLevel().ordinal();
+	}
+
+	/**
+	 * Set the level of all subsystems without an own level.
+	 * @param level to set
+	 */
+	public static void setDefaultLevel(Level level) {
+		defaultLevel = level;
+		for (Logger logger : loggers.values()) {
+			logger.threshold = logger.getLevel().ordinal();
+		}
+	}
+
+	public static Level getDefaultLevel() {
+		return defaultLevel;
+	}
+
+	/**
+	 * Configure the levels, by a comma separated list of a default level and/or
+	 * subsystem=level pairs, e.g. "warning,upload=debug" (levels are case insensitive).
+	 * @param configuration to apply
+	 * @throws IllegalArgumentException if a level is unknown
+	 */
+	public static void configure(String configuration) {
+		for (String part : configuration.split(",")) {
+			if (part.isBlank()) {
+				continue;
+			}
+			int separator = part.indexOf('=');
+			if (separator < 0) {
+				setDefaultLevel(Level.valueOf(part.trim().toUpperCase()));
+			} else {
+				setLevel(part.substring(0, separator).trim(),
+						Level.valueOf(part.substring(separator + 1).trim().toUpperCase()));
+			}
+		}
+	}
+
+	/**
+	 * Check if a configuration of the levels is valid, before applying it.
+	 * @param configuration to check (syntax: see configure())
+	 * @return true if all levels are known
+	 */
+	public static boolean isValidConfiguration(String configuration) {
+		for (String part : configuration.split(",")) {
+			String name = part.substring(part.indexOf('=') + 1).trim().toUpperCase();
+			boolean known = part.isBlank();
+			for (Level level : Level.values()) {
+				known |= level.name().equals(name);
+			}
+			if (!known) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ------------------ Writer --------------------------
+
+	/**
+	 * Start the thread writing the buffer, and write what is left when the program exits.
+	 */
+	private static synchronized void startWriter() {
+		if (writerThread != null) {
+			return;
+		}
+		writerThread = new Thread(Logger::writeMessages, "Logger");
+		writerThread.setDaemon(true); // never keeps a program running
+		writerThread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+	}
+
+	/**
+	 * Write the messages in the buffer, in batches per stream, until the program exits.
+	 * Note: System.out and System.err are looked up per batch, so they can be redirected
+	 */
+	private static void writeMessages() {
+		LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+		StringBuilder batch = new StringBuilder();
+		PrintStream batchStream = null;
+
+		while (true) {
+			long count = 0;
+			while (buffer.poll(entry)) {
+				PrintStream stream = getStream(entry.level);
+				if (stream != batchStream && batch.length() > 0) { // keep the order over streams
+					batchStream.print(batch);
+					batch.setLength(0);
+				}
+				batchStream = stream;
+				batch.append(format(entry.level, entry.name, entry.message)).append('\n');
+				count++;
+			}
+			if (batch.length() > 0) {
+				batchStream.print(batch);
+				batchStream.flush();
+				batch.setLength(0);
+			}
+
+			long dropped = buffer.takeDropped();
+			if (dropped > 0) {
+				System.err.println("[log]>WARNING: " + dropped + " messages dropped (log full)");
+			}
+			written += count;
+
+			if (count == 0) {
+				LockSupport.parkNanos(WRITER_INTERVAL);
+			}
+		}
+	}
+
+	/**
+	 * Wait until all messages logged so far are written (at most MAX_FLUSH_TIME).
+	 * Note: call before writing to the console directly, to keep the order of the output
+	 */
+	public static void flush() {
+		if (writerThread == null || Thread.currentThread() == writerThread) {
+			return;
+		}
+		long offered = buffer.getOffered();
+		long start = System.nanoTime();
+		while (written < offered && System.nanoTime() - start < MAX_FLUSH_TIME) {
+			LockSupport.unpark(writerThread);
+			LockSupport.parkNanos(WRITER_INTERVAL / 10);
+		}
+	}
+
+	/**
+	 * Format a message as shown on the console.
+	 * @param messageLevel of the message
+	 * @param name of the process which logged the message
+	 * @param message text
+	 * @return formatted message
+	 */
+	public static String format(Level messageLevel, String name, String message) {
+		switch (messageLevel) {
+			case ERROR:
+			case WARNING:
+				return "[" + name + "]>" + messageLevel + ": " + message;
+			default:
+				return "[" + name + "]: " + message;
+		}
+	}
+
+	/**
+	 * Get the stream to write messages of a level to.
+	 * @param messageLevel of the message
+	 * @return System.err for errors and warnings, System.out for all others
+	 */
+	private static PrintStream getStream(Level messageLevel) {
+		return messageLevel.ordinal() <= Level.WARNING.ordinal() ? System.err : System.out;
+	}
+
+}
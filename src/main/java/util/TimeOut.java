@@ -1,24 +1,67 @@
 package util;
 
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Helper class for setting timeouts.
+ * Note: implemented as a hashed timing wheel, which only looks at the time-outs of one bucket
+ * every tick (and sleeps when no time-outs are set). Time-outs may elapse up to one tick late.
  * 
  * @author Huub Lievestro, adapted from Jaco ter Braak & Frans van Dijk (University of Twente) 
  * @version 04-2020
  */
 public class TimeOut implements Runnable {
-	private static Map<Date, Map<ITimeoutEventHandler, List<Object>>> eventHandlers
-		= new HashMap<>();
+	/**
+	 * Duration of one tick of the wheel, in nanoseconds (= maximal delay of a time-out).
+	 */
+	private static final long TICK_DURATION = TimeUnit.MILLISECONDS.toNanos(1);
+	
+	/**
+	 * Number of buckets in the wheel.
+	 * Note: must be a power of two, so the bucket of a tick can be found by masking
+	 */
+	private static final int WHEEL_SIZE = 512;
+	private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+	
+	/**
+	 * Buckets of the wheel, each pointing to the first time-out in that bucket.
+	 * Note: only accessed by the event trigger thread
+	 */
+	private static TimeOutEntry[] wheel = new TimeOutEntry[WHEEL_SIZE];
+	
+	/**
+	 * Time-outs set, but not yet placed in the wheel by the event trigger thread.
+	 */
+	private static Queue<TimeOutEntry> pendingEntries = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Time-outs cancelled, but not yet removed from the wheel by the event trigger thread.
+	 */
+	private static Queue<TimeOutEntry> cancelledEntries = new ConcurrentLinkedQueue<>();
+	
+	/**
+	 * Number of time-outs set, which have not elapsed or are cancelled yet.
+	 */
+	private static AtomicInteger activeEntries = new AtomicInteger(0);
+	
+	/**
+	 * Moment the wheel started turning (as System.nanoTime()).
+	 */
+	private static long startTime;
+	
+	/**
+	 * Number of ticks the wheel has turned since the start.
+	 */
+	private static long tick;
+	
 	private static Thread eventTriggerThread;
 	private static boolean started = false;
-	private static ReentrantLock lock = new ReentrantLock();
 
 	/**
 	 * Starts the helper thread.
@@ -45,6 +88,7 @@ public class TimeOut implements Runnable {
 			eventTriggerThread.join();
 		} catch (InterruptedException e) {
 		}
+		started = false;
 	}
 
 	/**
@@ -54,24 +98,28 @@ public class TimeOut implements Runnable {
 	 *            the timeout interval, starting now
 	 * @param handler
 	 *            the event handler that is called once the timeout elapses
+	 * @return handle to cancel the timeout
 	 */
-	public static void setTimeOut(long millisecondsTimeout,
+	public static TimeOutEntry setTimeOut(long millisecondsTimeout,
 			ITimeoutEventHandler handler, Object tag) {
-		Date elapsedMoment = new Date();
-		elapsedMoment
-		.setTime(elapsedMoment.getTime() + millisecondsTimeout);
-
-		lock.lock();
-		if (!eventHandlers.containsKey(elapsedMoment)) {
-			eventHandlers.put(elapsedMoment,
-					new HashMap<>());
-		}
-		if (!eventHandlers.get(elapsedMoment).containsKey(handler)) {
-			eventHandlers.get(elapsedMoment).put(handler,
-					new ArrayList<>());
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millisecondsTimeout);
+		TimeOutEntry entry = new TimeOutEntry(deadline, handler, tag);
+		
+		pendingEntries.add(entry);
+		if (activeEntries.getAndIncrement() <= 0) { // wheel was empty: wake up trigger thread
+			LockSupport.unpark(eventTriggerThread);
 		}
-		eventHandlers.get(elapsedMoment).get(handler).add(tag);
-		lock.unlock();
+		return entry;
+	}
+	
+	/**
+	 * Let the wheel know a time-out is cancelled, so it can be removed.
+	 * Note: called by TimeOutEntry.cancel()
+	 * @param entry that is cancelled
+	 */
+	static void cancelled(TimeOutEntry entry) {
+		activeEntries.decrementAndGet();
+		cancelledEntries.add(entry);
 	}
 
 	/**
@@ -79,56 +127,120 @@ public class TimeOut implements Runnable {
 	 */
 	@Override
 	public void run() {
-		boolean runThread = true;
-		ArrayList<Date> datesToRemove = new ArrayList<>();
-		HashMap<ITimeoutEventHandler, List<Object>> handlersToInvoke = new HashMap<>();
-		Date now;
-
-		while (runThread) {
-			try {
-				now = new Date();
-
-				// If any timeouts have elapsed, trigger their handlers
-				lock.lock();
-
-				for (Date date : eventHandlers.keySet()) {
-					if (date.before(now)) {
-						datesToRemove.add(date);
-						for (ITimeoutEventHandler handler : eventHandlers.get(date).keySet()) {
-							if (!handlersToInvoke.containsKey(handler)) {
-								handlersToInvoke.put(handler,
-										new ArrayList<>());
-							}
-							for (Object tag : eventHandlers.get(date).get(
-									handler)) {
-								handlersToInvoke.get(handler).add(tag);
-							}
-						}
-					}
-				}
-
-				// Remove elapsed events
-				for (Date date : datesToRemove) {
-					eventHandlers.remove(date);
-				}
-				datesToRemove.clear();
-
-				lock.unlock();
+		List<TimeOutEntry> entriesToInvoke = new ArrayList<>();
+		wheel = new TimeOutEntry[WHEEL_SIZE];
+		cancelledEntries.clear(); // only pending time-outs remain, when restarted
+		activeEntries.set(pendingEntries.size());
+		startTime = System.nanoTime();
+		tick = 0;
+
+		while (!Thread.currentThread().isInterrupted()) {
+			if (activeEntries.get() <= 0) { 
+				// nothing to wait for: sleep until a time-out is set
+				LockSupport.park();
+				removeCancelledEntries();
+				tick = Math.max(tick, (System.nanoTime() - startTime) / TICK_DURATION);
+				continue;
+			}
+			
+			// sleep until the next tick
+			long nextTick = startTime + (tick + 1) * TICK_DURATION;
+			long sleepTime = nextTick - System.nanoTime();
+			while (sleepTime > 0 && !Thread.currentThread().isInterrupted()) {
+				LockSupport.parkNanos(sleepTime);
+				sleepTime = nextTick - System.nanoTime();
+			}
 
-				// Invoke the event handlers outside of the lock, to prevent
-				// deadlocks
-				for (ITimeoutEventHandler handler : handlersToInvoke
-						.keySet()) {
-					handlersToInvoke.get(handler).forEach(handler::timeoutElapsed);
+			removeCancelledEntries();
+			transferPendingEntries();
+			
+			// If any timeouts in this bucket have elapsed, trigger their handlers
+			TimeOutEntry entry = wheel[(int) (tick & WHEEL_MASK)];
+			while (entry != null) {
+				TimeOutEntry next = entry.next;
+				if (entry.state.get() == TimeOutEntry.CANCELLED) { 
+					removeEntry(entry);
+				} else if (entry.remainingRounds <= 0) {
+					removeEntry(entry);
+					if (entry.state.compareAndSet(TimeOutEntry.WAITING, TimeOutEntry.ELAPSED)) {
+						activeEntries.decrementAndGet();
+						entriesToInvoke.add(entry);
+					} // else: cancelled just now
+				} else {
+					entry.remainingRounds--;
 				}
-				handlersToInvoke.clear();
+				entry = next;
+			}
+			tick++;
 
-				Thread.sleep(1);
-			} catch (InterruptedException e) {
-				runThread = false;
+			// Invoke the event handlers outside of the wheel, 
+			// so they can set new time-outs
+			for (TimeOutEntry elapsed : entriesToInvoke) {
+				elapsed.handler.timeoutElapsed(elapsed.tag);
 			}
+			entriesToInvoke.clear();
+		}
+	}
+	
+	/**
+	 * Place all pending time-outs in the bucket of the tick in which they elapse.
+	 */
+	private static void transferPendingEntries() {
+		TimeOutEntry entry = pendingEntries.poll();
+		while (entry != null) {
+			if (entry.state.get() == TimeOutEntry.CANCELLED) { // no need to place it
+				entry = pendingEntries.poll();
+				continue;
+			}
+			long deadlineTick = (entry.deadline - startTime + TICK_DURATION - 1) / TICK_DURATION;
+			long ticksToWait = Math.max(deadlineTick, tick) - tick; // elapsed already: this tick
+			
+			entry.remainingRounds = ticksToWait / WHEEL_SIZE;
+			entry.bucket = (int) ((tick + ticksToWait) & WHEEL_MASK);
+			
+			entry.previous = null;
+			entry.next = wheel[entry.bucket];
+			if (wheel[entry.bucket] != null) {
+				wheel[entry.bucket].previous = entry;
+			}
+			wheel[entry.bucket] = entry;
+			
+			entry = pendingEntries.poll();
 		}
-
+	}
+	
+	/**
+	 * Remove all cancelled time-outs from their bucket in the wheel.
+	 */
+	private static void removeCancelledEntries() {
+		TimeOutEntry entry = cancelledEntries.poll();
+		while (entry != null) {
+			if (entry.bucket >= 0) { // else: still pending, will not be placed
+				removeEntry(entry);
+			}
+			entry = cancelledEntries.poll();
+		}
+	}
+	
+	/**
+	 * Remove a time-out from its bucket in the wheel.
+	 * Note: does nothing if the time-out was removed before
+	 * @param entry to remove
+	 */
+	private static void removeEntry(TimeOutEntry entry) {
+		if (entry.bucket < 0) {
+			return;
+		}
+		if (entry.previous != null) {
+			entry.previous.next = entry.next;
+		} else if (wheel[entry.bucket] == entry) {
+			wheel[entry.bucket] = entry.next;
+		}
+		if (entry.next != null) {
+			entry.next.previous = entry.previous;
+		}
+		entry.previous = null;
+		entry.next = null;
+		entry.bucket = -1;
 	}
 }
-
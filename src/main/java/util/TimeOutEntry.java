@@ -0,0 +1,97 @@
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Time-out set in the timing wheel of TimeOut, 
+ * also used as handle to cancel this time-out before it elapses.
+ * Note: linked to the other time-outs in the same bucket of the wheel
+ * 
+ * @author huub.lievestro
+ *
+ */
+public class TimeOutEntry {
+
+	/**
+	 * States of a time-out.
+	 */
+	static final int WAITING = 0;
+	static final int CANCELLED = 1;
+	static final int ELAPSED = 2;
+
+	/**
+	 * Moment this time-out elapses (in nanoseconds, as System.nanoTime()).
+	 */
+	final long deadline;
+
+	/**
+	 * Event handler to call once this time-out elapses.
+	 */
+	final ITimeoutEventHandler handler;
+
+	/**
+	 * Tag to pass to the event handler.
+	 */
+	final Object tag;
+
+	/**
+	 * State of this time-out: waiting, cancelled or elapsed.
+	 */
+	final AtomicInteger state;
+
+	/**
+	 * Number of full turns of the wheel still to wait, before this time-out elapses.
+	 */
+	long remainingRounds;
+
+	/**
+	 * Bucket of the wheel this time-out is placed in (-1 if not placed in the wheel).
+	 */
+	int bucket;
+
+	/**
+	 * Previous time-out in the same bucket (null if first).
+	 */
+	TimeOutEntry previous;
+
+	/**
+	 * Next time-out in the same bucket (null if last).
+	 */
+	TimeOutEntry next;
+
+	/**
+	 * Create a new time-out.
+	 * @param deadline moment this time-out elapses (as System.nanoTime())
+	 * @param handler to call once this time-out elapses
+	 * @param tag to pass to the handler
+	 */
+	TimeOutEntry(long deadline, ITimeoutEventHandler handler, Object tag) {
+		this.deadline = deadline;
+		this.handler = handler;
+		this.tag = tag;
+		this.state = new AtomicInteger(WAITING);
+		this.bucket = -1;
+	}
+
+	/**
+	 * Cancel this time-out, so its handler will not be called.
+	 * Note: does nothing if the time-out already elapsed or was cancelled before
+	 * @return true if cancelled by this call
+	 */
+	public boolean cancel() {
+		if (this.state.compareAndSet(WAITING, CANCELLED)) {
+			TimeOut.cancelled(this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if this time-out is cancelled.
+	 * @return true if cancelled
+	 */
+	public boolean isCancelled() {
+		return this.state.get() == CANCELLED;
+	}
+
+}
@@ -0,0 +1,50 @@
+package benchmark;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Tests for the BenchmarkResult (and parsing the arguments of the LoopbackBenchmark).
+ * @author huub.lievestro
+ *
+ */
+public class BenchmarkResultTest {
+
+	@Test
+	void testLatencyPercentiles() {
+		List<Double> latencies = new ArrayList<>();
+		for (int i = 100; i >= 1; i--) {
+			latencies.add((double) i);
+		}
+		GcMonitor gcMonitor = new GcMonitor();
+		gcMonitor.start();
+		gcMonitor.stop();
+
+		BenchmarkResult result = new BenchmarkResult(FileTransferProtocol.DOWNLOAD, 1000000, 4, 25,
+				1024);
+		result.setMeasurements(100, 0, 2.0, latencies, 0, 0, gcMonitor);
+		assertTrue(result.getLatency(50) == 50);
+		assertTrue(result.getLatency(99) == 99);
+		assertTrue(result.getLatency(100) == 100);
+		assertTrue(result.getThroughput() == 50);
+
+		String[] csv = result.toCsv().split(",");
+		assertTrue(csv.length == BenchmarkResult.FIELDS.length);
+		assertTrue(result.toJson().startsWith("{\"direction\": \"" + FileTransferProtocol.DOWNLOAD));
+	}
+
+	@Test
+	void testParseSize() {
+		assertTrue(LoopbackBenchmark.parseSize("100") == 100);
+		assertTrue(LoopbackBenchmark.parseSize("64k") == 64 * 1024);
+		assertTrue(LoopbackBenchmark.parseSize("16M") == 16L << 20);
+		assertTrue(LoopbackBenchmark.parseSize("4G") == 4L << 30);
+	}
+
+}
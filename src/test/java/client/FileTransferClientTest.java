@@ -0,0 +1,263 @@
+package client;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import exceptions.ExitProgram;
+import helpers.DownloadHelper;
+import helpers.Helper;
+import helpers.TransferJournal;
+import helpers.TransferTestBase;
+import helpers.UploadHelper;
+import protocol.FileTransferProtocol;
+import server.FileTransferClientHandler;
+import server.FileTransferServer;
+
+/**
+ * Tests for transfers requested by a (scripted) FileTransferClient from a FileTransferServer.
+ * @author huub.lievestro
+ *
+ */
+public class FileTransferClientTest {
+
+	/**
+	 * Name of the client, which is also its sandbox in the server storage.
+	 */
+	private static final String CLIENT_NAME = "clientTest";
+
+	/**
+	 * Server to transfer from and to (also runs the TimeOut helper).
+	 */
+	private FileTransferServer server;
+
+	/**
+	 * Client under test.
+	 */
+	private FileTransferClient client;
+
+	/**
+	 * File storage of the client.
+	 */
+	private Path clientStorage;
+
+	@BeforeEach
+	void startServerAndClient() throws IOException, ExitProgram {
+		this.server = new FileTransferServer(0, false, false); // any free port
+		Thread serverThread = new Thread(this.server);
+		serverThread.setDaemon(true);
+		serverThread.start();
+		this.clientStorage = Files.createTempDirectory("client");
+		this.client = new FileTransferClient(CLIENT_NAME, InetAddress.getLoopbackAddress(),
+				this.server.getPort(), this.clientStorage,
+				FileTransferProtocol.DEFAULT_PACKET_SIZE);
+	}
+
+	@AfterEach
+	void shutdownServerAndClient() throws IOException {
+		this.client.shutdown();
+		Path serverStorage = this.server.getFileStorage(CLIENT_NAME);
+		this.server.shutdown();
+		deleteDirectory(this.clientStorage);
+		deleteDirectory(serverStorage);
+		try { // only created for this test if nothing else is stored
+			Files.deleteIfExists(serverStorage.getParent());
+		} catch (DirectoryNotEmptyException e) {
+			// keep the storage of others
+		}
+	}
+
+	@Test
+	void testRangeRequested() {
+		byte[] content = TransferTestBase.randomContent(100 * 1024, 19);
+		try {
+			File source = TransferTestBase.createTempFile("range", content);
+
+			assertTrue(this.client.downloadFileRange(source, 30000, 20000));
+			DownloadHelper downloader = this.getLastDownload();
+			assertTrue(downloader.getStartOffset() == 30000); // range of the UPLOAD response
+			assertTrue(downloader.getEndOffset() == 50000);
+			assertTrue(TransferTestBase.waitFor(downloader::isSocketClosed,
+					TransferTestBase.TRANSFER_TIMEOUT));
+			assertTrue(downloader.isComplete());
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testRangeClippedAtEndOfFile() {
+		byte[] content = TransferTestBase.randomContent(200 * 1024 + 3, 23);
+		int offset = content.length - 1000;
+		try {
+			File source = TransferTestBase.createTempFile("clipped", content);
+
+			assertTrue(this.client.downloadFileRange(source, offset, 5000));
+			DownloadHelper downloader = this.getLastDownload();
+			assertTrue(downloader.getEndOffset() == content.length); // clipped by the server
+			assertTrue(TransferTestBase.waitFor(downloader::isSocketClosed,
+					TransferTestBase.TRANSFER_TIMEOUT));
+			assertTrue(downloader.isComplete());
+
+			byte[] received = Files.readAllBytes(this.clientStorage.resolve(source.getName()));
+			assertTrue(received.length == content.length);
+			assertTrue(Arrays.equals(received, offset, received.length,
+					content, offset, content.length));
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testRangePastEndOfFileRefused() {
+		byte[] content = TransferTestBase.randomContent(10 * 1024, 29);
+		try {
+			File source = TransferTestBase.createTempFile("past", content);
+
+			assertFalse(this.client.downloadFileRange(source, content.length + 1, 10));
+			assertTrue(this.client.getDownloads().isEmpty());
+			assertFalse(Files.exists(this.clientStorage.resolve(source.getName())));
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testInterruptedUploadContinues() {
+		byte[] content = TransferTestBase.randomContent(300 * 1024, 31);
+		int journaledOffset = 100000;
+		try {
+			File source = TransferTestBase.createTempFile("upload", content);
+			File target = this.server.getFileStorage(CLIENT_NAME)
+					.resolve(source.getName()).toFile();
+			TransferJournal journal = new TransferJournal(target, content.length);
+			Files.write(journal.getPartFile().toPath(),
+					Arrays.copyOf(content, journaledOffset)); // left by an interrupted upload
+			journal.addRange(0, journaledOffset);
+			journal.save();
+
+			assertTrue(this.client.uploadSingleFile(source));
+			List<?> uploads = this.client.getUploads();
+			UploadHelper uploader = (UploadHelper) uploads.get(uploads.size() - 1);
+			assertTrue(uploader.getStartOffset() == journaledOffset); // of the DOWNLOAD response
+			assertTrue(TransferTestBase.waitFor(target::isFile,
+					TransferTestBase.TRANSFER_TIMEOUT));
+			assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+			assertFalse(journal.getJournalFile().exists());
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testStripesDownloaded() {
+		byte[] content = TransferTestBase.randomContent(
+				(int) (3 * FileTransferClient.MIN_STRIPE_SIZE + 512 * 1024), 37);
+		long stripeLength = (content.length + 2) / 3;
+		try {
+			File source = TransferTestBase.createTempFile("striped", content);
+
+			assertTrue(this.client.downloadStriped(source, 8)); // too small for 8 stripes
+			List<?> stripes = this.client.getDownloads();
+			assertTrue(stripes.size() == 3);
+			DownloadHelper firstStripe = (DownloadHelper) stripes.get(0);
+			assertTrue(firstStripe.getStartOffset() == 0); // requested up to the end of file
+			assertTrue(firstStripe.getEndOffset() == stripeLength);
+			for (Object stripe : stripes) {
+				DownloadHelper downloader = (DownloadHelper) stripe;
+				assertTrue(TransferTestBase.waitFor(downloader::isSocketClosed,
+						TransferTestBase.TRANSFER_TIMEOUT));
+				assertTrue(downloader.isComplete());
+			}
+			assertTrue(Arrays.equals(Files.readAllBytes(
+					this.clientStorage.resolve(source.getName())), content));
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testStripesCancelledIfFileChanges() {
+		byte[] content = TransferTestBase.randomContent(
+				(int) (2 * FileTransferClient.MIN_STRIPE_SIZE), 41);
+		FileTransferClient changingClient = null;
+		try {
+			File source = TransferTestBase.createTempFile("changing", content);
+			changingClient = new FileTransferClient(CLIENT_NAME,
+					InetAddress.getLoopbackAddress(), this.server.getPort(), this.clientStorage,
+					FileTransferProtocol.DEFAULT_PACKET_SIZE) {
+				@Override
+				protected DownloadHelper requestDownload(File fileToDownload, long offset,
+						long length) {
+					DownloadHelper stripe = super.requestDownload(fileToDownload, offset, length);
+					try { // file grows between the requests of the stripes
+						Files.write(source.toPath(), new byte[1], StandardOpenOption.APPEND);
+					} catch (IOException e) {
+						fail(e);
+					}
+					return stripe;
+				}
+			};
+
+			assertFalse(changingClient.downloadStriped(source, 2));
+			assertTrue(changingClient.getDownloads().isEmpty());
+			List<FileTransferClientHandler> handlers = this.server.getClients();
+			List<Helper> uploads = handlers.get(handlers.size() - 1).getUploads();
+			assertTrue(uploads.size() == 2);
+			for (Helper uploader : uploads) { // told to stop, instead of waiting for START
+				assertTrue(TransferTestBase.waitFor(uploader::isSocketClosed, 5000));
+			}
+		} catch (IOException | InterruptedException | ExitProgram e) {
+			fail(e);
+		} finally {
+			if (changingClient != null) {
+				changingClient.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Returns the downloadHelper of the last download requested by the client.
+	 * @return downloadHelper
+	 */
+	private DownloadHelper getLastDownload() {
+		List<?> downloads = this.client.getDownloads();
+		return (DownloadHelper) downloads.get(downloads.size() - 1);
+	}
+
+	/**
+	 * Delete a directory and everything in it, if it exists.
+	 * @param directory to delete
+	 * @throws IOException
+	 */
+	private static void deleteDirectory(Path directory) throws IOException {
+		if (directory == null || !Files.exists(directory)) {
+			return;
+		}
+		List<Path> paths;
+		try (Stream<Path> walk = Files.walk(directory)) {
+			paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+		}
+		for (Path path : paths) {
+			Files.delete(path);
+		}
+	}
+
+}
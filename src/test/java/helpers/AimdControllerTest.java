@@ -0,0 +1,47 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the AimdController.
+ * @author huub.lievestro
+ *
+ */
+public class AimdControllerTest {
+
+	@Test
+	void testSlowStartAndAvoidance() {
+		AimdController controller = new AimdController(100);
+		assertTrue(controller.getWindow() == AimdController.INITIAL_WINDOW);
+
+		for (int i = 0; i < AimdController.INITIAL_WINDOW; i++) {
+			controller.onAck();
+		}
+		assertTrue(controller.getWindow() == 2 * AimdController.INITIAL_WINDOW);
+
+		for (int i = 0; i < 1000; i++) {
+			controller.onAck();
+		}
+		assertTrue(controller.getWindow() == 100); // capped at maximal window
+	}
+
+	@Test
+	void testDecreaseOncePerWindow() {
+		AimdController controller = new AimdController(100);
+		for (int i = 0; i < 60; i++) {
+			controller.onAck();
+		}
+		int window = controller.getWindow();
+
+		controller.onLoss(10, 70);
+		assertTrue(controller.getWindow() == window / 2);
+		controller.onLoss(20, 75); // same window: no further decrease
+		assertTrue(controller.getWindow() == window / 2);
+
+		controller.onTimeout(80, 90);
+		assertTrue(controller.getWindow() == AimdController.MIN_WINDOW);
+	}
+
+}
@@ -0,0 +1,52 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import network.NetworkEmulator;
+
+/**
+ * Tests a transfer between an UploadHelper and DownloadHelper over an emulated lossy link.
+ * @author huub.lievestro
+ *
+ */
+public class LossyTransferTest extends TransferTestBase {
+
+	@Test
+	void testTransferWithLossAndDelay() {
+		NetworkEmulator data = new NetworkEmulator(1); // uploader to downloader
+		data.setLossRate(0.01);
+		data.setDelay(20, 5);
+		NetworkEmulator acks = new NetworkEmulator(2); // downloader to uploader
+		acks.setLossRate(0.01);
+		acks.setDelay(20, 5);
+		try {
+			byte[] content = randomContent(256 * 1024, 7);
+			File source = createTempFile("lossy", content);
+			File target = createTempFile("lossy", null);
+			try (Transfer transfer = new Transfer(source, target, content.length)) {
+				transfer.setNetworkEmulators(data, acks).start();
+				DownloadHelper downloader = transfer.getDownloader();
+				assertTrue(waitFor(downloader::isComplete, 2 * TRANSFER_TIMEOUT));
+				assertTrue(data.getTotalPackets()
+						> content.length / transfer.getUploader().getPacketSize());
+				assertTrue(data.getDroppedPackets() + acks.getDroppedPackets() > 0);
+				transfer.waitForClosed(10000); // file written, last ACKs send
+				assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+			}
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		} finally {
+			data.shutdown();
+			acks.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the Pacer.
+ * @author huub.lievestro
+ *
+ */
+public class PacerTest {
+
+	@Test
+	void testRate() {
+		Pacer fixed = new Pacer(1000000);
+		assertTrue(fixed.getRate(10, 1024, 5) == 1000000);
+
+		Pacer derived = new Pacer(0);
+		assertTrue(derived.getRate(10, 1024, -1) == 0); // no RTT measured yet: not paced
+		assertTrue(derived.getRate(10, 1024, 10) == (long) (Pacer.PACING_GAIN * 10 * 1024 * 100));
+	}
+
+	@Test
+	void testSpacing() {
+		Pacer pacer = new Pacer(1000000); // 1 byte per microsecond
+		assertTrue(pacer.getDelay() == 0);
+
+		pacer.onSend(50000, pacer.getRate(0, 1024, 0)); // due in 50 ms
+		assertTrue(pacer.getDelay() > 40000000L);
+
+		long start = System.nanoTime();
+		pacer.pace();
+		assertTrue(pacer.getDelay() == 0);
+		assertTrue(System.nanoTime() - start > 40000000L);
+
+		pacer.onSend(1000, 0); // not paced
+		assertTrue(pacer.getDelay() == 0);
+	}
+
+}
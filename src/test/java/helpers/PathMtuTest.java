@@ -0,0 +1,34 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import protocol.FileTransferProtocol;
+
+/**
+ * Tests for the PathMtu probes.
+ * @author huub.lievestro
+ *
+ */
+public class PathMtuTest {
+
+	@Test
+	void testProbeRoundTrip() {
+		byte[] probe = PathMtu.buildProbe(FileTransferProtocol.PROBE, 8989, 8973);
+		assertTrue(probe.length == 8973);
+		assertTrue(PathMtu.getProbeSize(FileTransferProtocol.PROBE, probe) == 8989);
+		assertTrue(PathMtu.getProbeSize(FileTransferProtocol.PROBE_ACK, probe) == -1);
+
+		byte[] reply = PathMtu.buildProbe(FileTransferProtocol.PROBE_ACK, 8989, 0);
+		assertTrue(PathMtu.getProbeSize(FileTransferProtocol.PROBE_ACK, reply) == 8989);
+		assertTrue(PathMtu.getProbeSize(FileTransferProtocol.PROBE, "data".getBytes()) == -1);
+	}
+
+	@Test
+	void testProbeAckId() {
+		assertTrue(PathMtu.getProbeAckId(0) == FileTransferProtocol.MAX_ID - 1);
+		assertTrue(PathMtu.getProbeAckId(5) == 4);
+	}
+
+}
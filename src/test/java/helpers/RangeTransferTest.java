@@ -0,0 +1,84 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for downloading ranges of bytes of a file (also as concurrent stripes),
+ * into their place in the local file.
+ * @author huub.lievestro
+ *
+ */
+public class RangeTransferTest extends TransferTestBase {
+
+	@Test
+	void testRangeWrittenInPlace() {
+		byte[] content = randomContent(300 * 1024, 13);
+		byte[] existing = new byte[content.length];
+		Arrays.fill(existing, (byte) 7);
+		int offset = 100000;
+		int length = 50000;
+		try {
+			File source = createTempFile("range", content);
+			File target = createTempFile("range", existing);
+			try (Transfer transfer = new Transfer(source, target, content.length)) {
+				transfer.getUploader().setRange(offset, length);
+				transfer.getDownloader().setRange(offset, length);
+				DownloadHelper downloader = transfer.start().getDownloader();
+				assertTrue(waitFor(downloader::isSocketClosed, TRANSFER_TIMEOUT));
+				assertTrue(downloader.isComplete());
+			}
+
+			byte[] received = Files.readAllBytes(target.toPath());
+			assertTrue(received.length == content.length);
+			assertTrue(Arrays.equals(received, offset, offset + length,
+					content, offset, offset + length));
+			assertTrue(Arrays.equals(received, 0, offset, existing, 0, offset)); // kept
+			assertTrue(Arrays.equals(received, offset + length, received.length,
+					existing, offset + length, existing.length));
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testStripesWrittenConcurrently() {
+		byte[] content = randomContent(600 * 1024 + 7, 17);
+		int stripes = 3;
+		long stripeLength = (content.length + stripes - 1) / stripes;
+		List<Transfer> transfers = new ArrayList<>();
+		try {
+			File source = createTempFile("stripes", content);
+			File target = createTempFile("stripes", null);
+			util.FileOperations.setFileLength(target, content.length);
+
+			for (int i = 0; i < stripes; i++) { // uploader learns its range from START
+				long offset = i * stripeLength;
+				Transfer transfer = new Transfer(source, target, content.length);
+				transfer.getDownloader().setRange(offset,
+						Math.min(stripeLength, content.length - offset));
+				transfers.add(transfer.start());
+			}
+			for (Transfer transfer : transfers) {
+				DownloadHelper downloader = transfer.getDownloader();
+				assertTrue(waitFor(downloader::isSocketClosed, TRANSFER_TIMEOUT));
+				assertTrue(downloader.isComplete());
+			}
+			assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		} finally {
+			transfers.forEach(Transfer::close);
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the RttEstimator.
+ * @author huub.lievestro
+ *
+ */
+public class RttEstimatorTest {
+
+	@Test
+	void testRtoFollowsSamples() {
+		RttEstimator estimator = new RttEstimator();
+		assertTrue(estimator.getRto() == RttEstimator.INITIAL_RTO);
+		assertTrue(estimator.getSmoothedRtt() < 0);
+
+		for (int i = 0; i < 50; i++) {
+			estimator.addSample(50 * 1000000L); // 50 ms
+		}
+		assertTrue(Math.abs(estimator.getSmoothedRtt() - 50) < 1);
+		assertTrue(estimator.getRto() >= 50 && estimator.getRto() < 60);
+
+		for (int i = 0; i < 50; i++) {
+			estimator.addSample(100000L); // 0.1 ms
+		}
+		assertTrue(estimator.getRto() == RttEstimator.MIN_RTO);
+	}
+
+	@Test
+	void testBackoff() {
+		RttEstimator estimator = new RttEstimator();
+		estimator.addSample(100 * 1000000L); // 100 ms
+		long rto = estimator.getRto();
+
+		estimator.backoff();
+		assertTrue(estimator.getRto() == 2 * rto);
+
+		estimator.backoff(); // same burst of time-outs: no further backoff
+		assertTrue(estimator.getRto() == 2 * rto);
+
+		estimator.addSample(100 * 1000000L); // new sample removes backoff
+		assertTrue(estimator.getRto() < 2 * rto);
+	}
+
+}
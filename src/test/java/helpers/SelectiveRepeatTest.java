@@ -0,0 +1,254 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import exceptions.PacketException;
+import exceptions.UtilDatagramException;
+import network.Packet;
+import network.TransportLayer;
+import protocol.FileTransferProtocol;
+
+/**
+ * Tests for selective repeat: the SACKs of the DownloadHelper,
+ * and the packets the UploadHelper resends after them (or after duplicate ACKs).
+ * Note: the helpers are driven by the test (no threads), which decides which packets arrive
+ * @author huub.lievestro
+ *
+ */
+public class SelectiveRepeatTest {
+
+	/**
+	 * Number of packets of the file.
+	 */
+	private static final int PACKETS = FileTransferProtocol.MAX_WINDOW_SIZE + 2;
+
+	/**
+	 * Socket of the uploader.
+	 */
+	private DatagramSocket uploadSocket;
+
+	/**
+	 * Socket of the downloader.
+	 */
+	private DatagramSocket downloadSocket;
+
+	/**
+	 * UploadHelper under test.
+	 */
+	private UploadHelper uploader;
+
+	/**
+	 * DownloadHelper under test.
+	 */
+	private DownloadHelper downloader;
+
+	@BeforeEach
+	void createHelpers() throws IOException {
+		int payloadLength = FileTransferProtocol.DEFAULT_PACKET_SIZE
+				- FileTransferProtocol.TOTAL_HEADER_SIZE;
+		byte[] content = new byte[PACKETS * payloadLength];
+		new Random(43).nextBytes(content);
+		File source = File.createTempFile("sack", ".bin");
+		File target = File.createTempFile("sack", ".received");
+		source.deleteOnExit();
+		target.deleteOnExit();
+		Files.write(source.toPath(), content);
+
+		this.uploadSocket = TransportLayer.openNewDatagramSocket();
+		this.downloadSocket = TransportLayer.openNewDatagramSocket();
+		this.uploadSocket.setSoTimeout(3000);
+		this.downloadSocket.setSoTimeout(3000);
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		this.uploader = new UploadHelper(this, this.uploadSocket, loopback,
+				this.downloadSocket.getLocalPort(), content.length, source);
+		this.uploader.readFile();
+		this.downloader = new DownloadHelper(this, this.downloadSocket, loopback,
+				this.uploadSocket.getLocalPort(), content.length, target, 0);
+		this.downloader.setRange(0, content.length); // written in place: no journal
+		assertTrue(this.downloader.prepareReceiving());
+	}
+
+	@AfterEach
+	void shutdownHelpers() {
+		this.downloader.shutdown();
+		this.uploader.shutdown();
+	}
+
+	@Test
+	void testSackEncoding() {
+		try {
+			this.sendPackets(10);
+			this.deliverPacketsExcept(10, Set.of(3, 5, 7));
+
+			ByteBuffer sack = ByteBuffer.wrap(this.downloader.buildSack());
+			assertTrue(this.uploader.isSack(sack));
+			assertTrue(sack.getInt(FileTransferProtocol.SACK.length) == 2); // cumulative
+			assertTrue(sack.limit() == FileTransferProtocol.SACK_BITMAP_START + 1); // 7 bits
+			// bit i = packet 3 + i, LSB first: packets 4, 6, 8 and 9 received
+			assertTrue(sack.get(FileTransferProtocol.SACK_BITMAP_START) == 0b01101010);
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testSackBitmapLimitedToWindow() {
+		int window = FileTransferProtocol.MAX_WINDOW_SIZE;
+		try {
+			this.downloader.processReceivedPacket(this.createPacket(window - 1)); // last in window
+			byte[] sack = this.downloader.buildSack();
+			assertTrue(sack.length == FileTransferProtocol.SACK_BITMAP_START + window / 8);
+			assertTrue(sack[sack.length - 1] == (byte) 0b10000000);
+
+			this.downloader.processReceivedPacket(this.createPacket(window)); // outside: dropped
+			assertTrue(this.downloader.buildSack().length == sack.length);
+		} catch (PacketException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testOnlyHolesResentAfterSack() {
+		util.TimeOut.start(); // resends are triggered by time-outs
+		try {
+			this.sendPackets(10);
+			this.deliverPacketsExcept(10, Set.of(3, 5, 7));
+			for (int i = 0; i < 7; i++) { // SACKs of the delivered packets, over the socket
+				this.uploader.processPacket(TransportLayer.receivePacket(this.uploadSocket));
+			}
+
+			Set<Integer> resent = new HashSet<>(); // by fast retransmit and time-outs
+			this.downloadSocket.setSoTimeout(100);
+			long deadline = System.nanoTime() + (RttEstimator.INITIAL_RTO + 1000) * 1000000L;
+			while (System.nanoTime() < deadline) {
+				try {
+					resent.add(TransportLayer.receivePacket(this.downloadSocket).getId());
+				} catch (SocketTimeoutException e) {
+					// nothing resent meanwhile
+				}
+			}
+			assertTrue(resent.equals(Set.of(3, 5, 7)));
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			fail(e);
+		} finally {
+			util.TimeOut.stop();
+		}
+	}
+
+	@Test
+	void testFastRetransmitAtThirdDuplicateAck() {
+		List<Integer> losses = new ArrayList<>();
+		this.uploader.setCongestionController(new CongestionController() {
+			@Override
+			public int getWindow() {
+				return 64;
+			}
+			@Override
+			public void onAck() {
+			}
+			@Override
+			public void onLoss(int lostNr, int highestSentNr) {
+				losses.add(lostNr);
+			}
+			@Override
+			public void onTimeout(int lostNr, int highestSentNr) {
+				fail("No time-outs expected");
+			}
+		});
+		try {
+			this.sendPackets(10);
+			for (int i = 0; i < 10; i++) { // packet 3 lost, the others arrive
+				TransportLayer.receivePacket(this.downloadSocket);
+			}
+			for (int nr = 0; nr <= 2; nr++) {
+				this.uploader.processPacket(this.createAck(nr));
+			}
+			this.downloadSocket.setSoTimeout(200);
+
+			for (int duplicate = 1; duplicate <= 5; duplicate++) { // for packets 4 to 8
+				this.uploader.processPacket(this.createAck(2));
+				if (duplicate == 3) { // default threshold
+					assertTrue(TransportLayer.receivePacket(this.downloadSocket).getId() == 3);
+				}
+				assertThrows(SocketTimeoutException.class, // once per window position
+						() -> TransportLayer.receivePacket(this.downloadSocket));
+				assertTrue(losses.equals(duplicate < 3 ? List.of() : List.of(3)));
+			}
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Let the uploader send its first packets (not received yet).
+	 * @param number of packets to send
+	 */
+	private void sendPackets(int number) {
+		for (int i = 0; i < number; i++) {
+			this.uploader.sendNextPacket();
+		}
+	}
+
+	/**
+	 * Receive the packets send by the uploader, and pass them on to the downloader
+	 * (which ACKs every packet it gets).
+	 * @param number of packets to receive
+	 * @param lost numbers of the packets not to pass on
+	 * @throws IOException
+	 * @throws PacketException
+	 * @throws UtilDatagramException
+	 */
+	private void deliverPacketsExcept(int number, Set<Integer> lost)
+			throws IOException, PacketException, UtilDatagramException {
+		for (int i = 0; i < number; i++) {
+			Packet packet = TransportLayer.receivePacket(this.downloadSocket);
+			if (!lost.contains(packet.getId())) { // IDs start at zero
+				this.downloader.processReceivedPacket(packet);
+			}
+		}
+	}
+
+	/**
+	 * Create an ACK, as if send by the downloader.
+	 * @param packetNr of the packet to acknowledge (equal to its ID)
+	 * @return packet
+	 * @throws PacketException
+	 */
+	private Packet createAck(int packetNr) throws PacketException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		return new Packet(packetNr, loopback, this.downloadSocket.getLocalPort(), loopback,
+				this.uploadSocket.getLocalPort(), FileTransferProtocol.ACK);
+	}
+
+	/**
+	 * Create a packet of the file, as if send by the uploader.
+	 * @param packetNr of the packet (equal to its ID)
+	 * @return packet
+	 * @throws PacketException
+	 */
+	private Packet createPacket(int packetNr) throws PacketException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		return new Packet(packetNr, loopback, this.uploadSocket.getLocalPort(), loopback,
+				this.downloadSocket.getLocalPort(), new byte[this.downloader.getPayloadLength()]);
+	}
+
+}
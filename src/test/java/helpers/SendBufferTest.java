@@ -0,0 +1,63 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.net.InetAddress;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.PacketException;
+import network.Packet;
+
+/**
+ * Tests for the SendBuffer.
+ * @author huub.lievestro
+ *
+ */
+public class SendBufferTest {
+
+	@Test
+	void testSlotsReused() {
+		try {
+			SendBuffer buffer = new SendBuffer(4);
+			InetAddress loopback = InetAddress.getLoopbackAddress();
+			Packet[] packets = new Packet[12];
+			for (int i = 0; i < packets.length; i++) {
+				packets[i] = new Packet(i, loopback, 1, loopback, 2, new byte[] {(byte) i});
+			}
+
+			for (int i = 0; i < 4; i++) {
+				buffer.add(packets[i]);
+			}
+			assertFalse(buffer.hasRoom());
+			assertTrue(buffer.get(2) == packets[2]);
+			assertTrue(buffer.get(4) == null); // not send yet
+
+			packets[1].setAck(true); // out of order: oldest still waiting
+			buffer.release();
+			assertTrue(buffer.isAcknowledged(1));
+			assertFalse(buffer.hasRoom());
+
+			packets[0].setAck(true);
+			buffer.release();
+			assertTrue(buffer.getBase() == 2);
+			assertTrue(buffer.get(0) == null && buffer.isAcknowledged(0));
+
+			for (int i = 4; i < 12; i++) { // wraps around the slots twice
+				assertTrue(buffer.hasRoom());
+				buffer.add(packets[i]);
+				packets[i - 2].setAck(true);
+				buffer.release();
+			}
+			assertTrue(buffer.getSentPackets() == 12);
+			assertTrue(buffer.get(11) == packets[11]);
+			assertFalse(buffer.isAcknowledged(11));
+			assertFalse(buffer.isAcknowledged(-1));
+		} catch (PacketException e) {
+			fail(e);
+		}
+	}
+
+}
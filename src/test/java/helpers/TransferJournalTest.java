@@ -0,0 +1,95 @@
+package helpers;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import network.NetworkEmulator;
+
+/**
+ * Tests for the TransferJournal, and continuing an interrupted download with it.
+ * @author huub.lievestro
+ *
+ */
+public class TransferJournalTest extends TransferTestBase {
+
+	@Test
+	void testRangesSavedAndLoaded() {
+		try {
+			File file = File.createTempFile("journal", ".bin");
+			file.delete(); // only created when complete
+			TransferJournal journal = new TransferJournal(file, 1000);
+			journal.getPartFile().deleteOnExit();
+			journal.getJournalFile().deleteOnExit();
+
+			journal.addRange(200, 300);
+			journal.addRange(500, 600);
+			assertTrue(journal.getFirstMissingOffset() == 0);
+			journal.addRange(0, 100);
+			journal.addRange(100, 250); // touches the first, overlaps the second
+			assertTrue(journal.getFirstMissingOffset() == 300);
+			assertTrue(journal.getReceivedBytes() == 400);
+
+			Files.write(journal.getPartFile().toPath(), new byte[300]);
+			journal.save();
+			TransferJournal loaded = new TransferJournal(file, 1000);
+			assertTrue(loaded.load());
+			assertTrue(loaded.getFirstMissingOffset() == 300);
+			assertTrue(loaded.getReceivedBytes() == 400);
+			assertFalse(new TransferJournal(file, 1001).load()); // another version of the file
+
+			assertTrue(TransferJournal.isTransferFile(journal.getPartFile()));
+			assertTrue(TransferJournal.isTransferFile(journal.getJournalFile()));
+			assertFalse(TransferJournal.isTransferFile(file));
+
+			journal.complete();
+			assertTrue(file.isFile());
+			assertFalse(journal.getPartFile().exists());
+			assertFalse(journal.getJournalFile().exists());
+			file.delete();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testInterruptedDownloadContinues() {
+		byte[] content = randomContent(512 * 1024, 11);
+		NetworkEmulator slowLink = new NetworkEmulator(3); // time to interrupt
+		slowLink.setDelay(10, 0);
+		try {
+			File source = createTempFile("journal", content);
+			File target = createTempFile("journal", null);
+
+			try (Transfer interrupted = new Transfer(source, target, content.length)) {
+				interrupted.setNetworkEmulators(slowLink, null).start();
+				DownloadHelper downloader = interrupted.getDownloader();
+				waitFor(() -> downloader.getReceivedOffset() >= content.length / 4,
+						TRANSFER_TIMEOUT);
+				downloader.shutdown(); // saves the journal
+				assertFalse(downloader.isComplete());
+			}
+
+			try (Transfer continued = new Transfer(source, target, content.length)) {
+				DownloadHelper downloader = continued.start().getDownloader();
+				assertTrue(waitFor(downloader::isSocketClosed, TRANSFER_TIMEOUT));
+				assertTrue(downloader.isComplete());
+				assertTrue(downloader.getStartOffset() >= content.length / 4);
+			}
+			assertTrue(Arrays.equals(Files.readAllBytes(target.toPath()), content));
+			assertFalse(new File(target.getPath() + TransferJournal.PART_EXTENSION).exists());
+		} catch (IOException | InterruptedException e) {
+			fail(e);
+		} finally {
+			slowLink.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+package helpers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import network.NetworkEmulator;
+import network.TransportLayer;
+
+/**
+ * Shared fixture for tests transferring a file between an UploadHelper and DownloadHelper.
+ * @author huub.lievestro
+ *
+ */
+public abstract class TransferTestBase {
+
+	/**
+	 * Time to wait for a transfer to finish, in ms.
+	 */
+	public static final long TRANSFER_TIMEOUT = 30000;
+
+	@BeforeEach
+	void startTimeOut() {
+		util.TimeOut.start(); // resends are triggered by time-outs
+	}
+
+	@AfterEach
+	void stopTimeOut() {
+		util.TimeOut.stop();
+	}
+
+	/**
+	 * Create random content for a file.
+	 * @param length of the content
+	 * @param seed of the random generator
+	 * @return content
+	 */
+	public static byte[] randomContent(int length, long seed) {
+		byte[] content = new byte[length];
+		new Random(seed).nextBytes(content);
+		return content;
+	}
+
+	/**
+	 * Create a temporary file with the given content, deleted on exit.
+	 * @param prefix of the file name
+	 * @param content to write, or null to leave it empty
+	 * @return file
+	 * @throws IOException
+	 */
+	public static File createTempFile(String prefix, byte[] content) throws IOException {
+		File file = File.createTempFile(prefix, ".bin");
+		file.deleteOnExit();
+		if (content != null) {
+			Files.write(file.toPath(), content);
+		}
+		return file;
+	}
+
+	/**
+	 * Wait until a condition holds, or the time is up.
+	 * @param condition to wait for
+	 * @param millis to wait at most
+	 * @return true if the condition holds
+	 * @throws InterruptedException
+	 */
+	public static boolean waitFor(BooleanSupplier condition, long millis)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + millis * 1000000L;
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		return condition.getAsBoolean();
+	}
+
+	/**
+	 * Transfer between a new UploadHelper and DownloadHelper over loopback, where the
+	 * downloader initiates and the uploader waits for it.
+	 */
+	public static class Transfer implements AutoCloseable {
+
+		/**
+		 * Socket of the uploader.
+		 */
+		private final DatagramSocket uploadSocket;
+
+		/**
+		 * Socket of the downloader.
+		 */
+		private final DatagramSocket downloadSocket;
+
+		/**
+		 * UploadHelper of this transfer.
+		 */
+		private final UploadHelper uploader;
+
+		/**
+		 * DownloadHelper of this transfer.
+		 */
+		private final DownloadHelper downloader;
+
+		/**
+		 * Create (but not start) a transfer of a file.
+		 * @param source file to upload
+		 * @param target file to download to
+		 * @param size of the file
+		 * @throws IOException
+		 */
+		public Transfer(File source, File target, long size) throws IOException {
+			this.uploadSocket = TransportLayer.openNewDatagramSocket();
+			this.downloadSocket = TransportLayer.openNewDatagramSocket();
+			InetAddress loopback = InetAddress.getLoopbackAddress();
+			this.uploader = new UploadHelper(this, this.uploadSocket, loopback,
+					this.downloadSocket.getLocalPort(), size, source);
+			this.downloader = new DownloadHelper(this, this.downloadSocket, loopback,
+					this.uploadSocket.getLocalPort(), size, target, 0);
+		}
+
+		/**
+		 * Impair the packets of this transfer, until it is closed.
+		 * @param data emulator of the link from uploader to downloader (null if none)
+		 * @param acks emulator of the link from downloader to uploader (null if none)
+		 * @return this transfer
+		 */
+		public Transfer setNetworkEmulators(NetworkEmulator data, NetworkEmulator acks) {
+			TransportLayer.setNetworkEmulator(this.uploadSocket, data);
+			TransportLayer.setNetworkEmulator(this.downloadSocket, acks);
+			return this;
+		}
+
+		/**
+		 * Start the threads of both helpers.
+		 * @return this transfer
+		 */
+		public Transfer start() {
+			new Thread(this.uploader).start();
+			new Thread(this.downloader).start();
+			return this;
+		}
+
+		/**
+		 * Wait until both helpers closed their sockets, or the time is up.
+		 * @param millis to wait at most
+		 * @return true if both are closed
+		 * @throws InterruptedException
+		 */
+		public boolean waitForClosed(long millis) throws InterruptedException {
+			return waitFor(() -> this.downloader.isSocketClosed()
+					&& this.uploader.isSocketClosed(), millis);
+		}
+
+		public UploadHelper getUploader() {
+			return this.uploader;
+		}
+
+		public DownloadHelper getDownloader() {
+			return this.downloader;
+		}
+
+		/**
+		 * Shut down the helpers still running, and stop impairing the packets of this
+		 * transfer (emulators are static, later tests should not be affected).
+		 */
+		@Override
+		public void close() {
+			TransportLayer.setNetworkEmulator(this.uploadSocket, null);
+			TransportLayer.setNetworkEmulator(this.downloadSocket, null);
+			if (!this.downloader.isSocketClosed()) {
+				this.downloader.shutdown();
+			}
+			if (!this.uploader.isSocketClosed()) {
+				this.uploader.shutdown();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,59 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.ServerFailureException;
+
+/**
+ * Tests for the ConnectionTable.
+ * @author huub.lievestro
+ *
+ */
+public class ConnectionTableTest {
+
+	@Test
+	void testRegisterLookupUnregister() {
+		ConnectionTable table = new ConnectionTable();
+		IPacketEventHandler firstHandler = packet -> { };
+		IPacketEventHandler secondHandler = packet -> { };
+
+		try {
+			int firstId = table.register(firstHandler);
+			int secondId = table.register(secondHandler);
+			assertTrue(firstId != ConnectionTable.NO_CONNECTION);
+			assertTrue(firstId != secondId);
+			assertTrue(table.lookup(firstId) == firstHandler);
+			assertTrue(table.lookup(secondId) == secondHandler);
+			assertTrue(table.lookup(ConnectionTable.NO_CONNECTION) == null);
+
+			table.unregister(firstId);
+			assertTrue(table.lookup(firstId) == null);
+			assertTrue(table.lookup(secondId) == secondHandler);
+		} catch (ServerFailureException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+
+	@Test
+	void testReusedSlotGetsNewId() {
+		ConnectionTable table = new ConnectionTable();
+		IPacketEventHandler handler = packet -> { };
+
+		try {
+			int firstId = table.register(handler);
+			table.unregister(firstId);
+			for (int i = 0; i < 5000; i++) { // wrap around all slots
+				table.unregister(table.register(handler));
+			}
+			int reusedId = table.register(handler);
+			assertTrue(reusedId != firstId);
+			assertTrue(table.lookup(firstId) == null);
+		} catch (ServerFailureException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.PacketException;
+import exceptions.UtilByteException;
+import exceptions.UtilDatagramException;
+
+/**
+ * Tests for the DatagramChannel transport.
+ * @author huub.lievestro
+ *
+ */
+public class DatagramChannelTransportTest {
+
+	@Test
+	void testEncodeAndDecode() {
+		int mockId = 7;
+		int mockByteOffset = 3;
+		int mockConnectionId = 5;
+		byte[] mockPayload = "ABCdata".getBytes();
+
+		ByteBuffer buffer = BufferPool.acquire();
+		try (DatagramSocket receiver = TransportLayer.openNewDatagramChannelSocket()) {
+			DatagramChannelTransport.encode(mockId, mockByteOffset, mockConnectionId, 
+					mockPayload, 0, mockPayload.length, buffer);
+			DatagramChannelTransport.checkReceived(buffer);
+			InetSocketAddress source = new InetSocketAddress(InetAddress.getLoopbackAddress(), 9);
+			Packet decoded = DatagramChannelTransport.decode(buffer, source, receiver);
+
+			assertTrue(decoded.getId() == mockId);
+			assertTrue(decoded.getByteOffset() == mockByteOffset);
+			assertTrue(decoded.getConnectionId() == mockConnectionId);
+			assertTrue(decoded.getSourcePort() == 9);
+			assertTrue(decoded.getPayloadString().equals("ABC"));
+			assertTrue(Arrays.equals(decoded.getPayloadBytes(), "data".getBytes()));
+		} catch (IOException | PacketException | UtilDatagramException e) {
+			fail(e.getLocalizedMessage());
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	@Test
+	void testSendAndReceiveOnChannel() {
+		byte[] mockPayload = "ABCdata".getBytes();
+
+		try (DatagramSocket sender = TransportLayer.openNewDatagramChannelSocket();
+				DatagramSocket receiver = TransportLayer.openNewDatagramChannelSocket()) {
+			InetAddress loopback = InetAddress.getLoopbackAddress();
+			InetSocketAddress destination = new InetSocketAddress(loopback, 
+					receiver.getLocalPort());
+			Packet test = new Packet(7, null, 0, loopback, receiver.getLocalPort(),
+					mockPayload, 3);
+			TransportLayer.sendPacket(sender, test, destination);
+			TransportLayer.sendPacket(sender, test, destination); // same destination reused
+
+			for (int i = 0; i < 2; i++) {
+				Packet received = TransportLayer.receivePacket(receiver);
+				assertTrue(received.getId() == 7);
+				assertTrue(received.getByteOffset() == 3);
+				assertTrue(received.getSourcePort() == sender.getLocalPort());
+				assertTrue(Arrays.equals(received.getPayload(), mockPayload));
+			}
+		} catch (IOException | PacketException | UtilByteException | UtilDatagramException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.PacketException;
+import exceptions.UtilByteException;
+import exceptions.UtilDatagramException;
+
+/**
+ * Tests for the EventLoop.
+ * @author huub.lievestro
+ *
+ */
+public class EventLoopTest {
+
+	@Test
+	void testPacketsPassedOnToHandler() {
+		int nrOfSockets = 3;
+
+		try {
+			EventLoop eventLoop = new EventLoop();
+			new Thread(eventLoop).start();
+
+			BlockingQueue<Packet> received = new LinkedBlockingQueue<>();
+			DatagramSocket[] sockets = new DatagramSocket[nrOfSockets];
+			for (int i = 0; i < nrOfSockets; i++) {
+				sockets[i] = TransportLayer.openNewDatagramChannelSocket();
+				eventLoop.register(sockets[i], received::add);
+			}
+
+			DatagramSocket sender = TransportLayer.openNewDatagramChannelSocket();
+			InetAddress loopback = InetAddress.getLoopbackAddress();
+			for (int i = 0; i < nrOfSockets; i++) {
+				Packet test = new Packet(i, null, 0, loopback, sockets[i].getLocalPort(),
+						"data".getBytes());
+				TransportLayer.sendPacket(sender, test, sockets[i].getLocalPort());
+			}
+
+			for (int i = 0; i < nrOfSockets; i++) {
+				Packet packet = received.poll(2, TimeUnit.SECONDS);
+				assertTrue(packet != null);
+				assertTrue(packet.getId() >= 0 && packet.getId() < nrOfSockets);
+				assertTrue(Arrays.equals(packet.getPayloadBytes(), "data".getBytes()));
+			}
+
+			eventLoop.stop();
+			sender.close();
+			for (DatagramSocket socket : sockets) {
+				socket.close();
+			}
+		} catch (IOException | PacketException | UtilByteException | UtilDatagramException 
+				| InterruptedException e) {
+			fail(e.getLocalizedMessage());
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package network;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.PacketException;
+import exceptions.UtilByteException;
+import exceptions.UtilDatagramException;
+
+/**
+ * Tests for the NetworkEmulator.
+ * @author huub.lievestro
+ *
+ */
+public class NetworkEmulatorTest {
+
+	@Test
+	void testSeededLoss() {
+		try (DatagramSocket sender = TransportLayer.openNewDatagramSocket();
+				DatagramSocket receiver = TransportLayer.openNewDatagramSocket()) {
+			NetworkEmulator emulator = new NetworkEmulator(42);
+			emulator.setLossRate(0.2);
+			emulator.setDuplicateRate(0.1);
+			TransportLayer.setNetworkEmulator(sender, emulator);
+
+			int received = sendAndCount(sender, receiver, 200);
+			long dropped = emulator.getDroppedPackets();
+			long duplicated = emulator.getDuplicatedPackets();
+			assertTrue(emulator.getTotalPackets() == 200);
+			assertTrue(dropped > 20 && dropped < 60);
+			assertTrue(received == 200 - dropped + duplicated);
+
+			emulator.reset(); // same seed: same packets dropped
+			sendAndCount(sender, receiver, 200);
+			assertTrue(emulator.getDroppedPackets() == dropped);
+			assertTrue(emulator.getDuplicatedPackets() == duplicated);
+
+			TransportLayer.setNetworkEmulator(sender, null);
+			assertTrue(TransportLayer.getNetworkEmulator(sender) == null);
+			assertTrue(sendAndCount(sender, receiver, 10) == 10);
+		} catch (IOException | UtilByteException | UtilDatagramException | PacketException e) {
+			fail(e);
+		}
+	}
+
+	@Test
+	void testDelay() {
+		try (DatagramSocket sender = TransportLayer.openNewDatagramChannelSocket();
+				DatagramSocket receiver = TransportLayer.openNewDatagramSocket()) {
+			NetworkEmulator emulator = new NetworkEmulator(1);
+			emulator.setDelay(50, 5);
+			TransportLayer.setNetworkEmulator(sender, emulator);
+
+			long start = System.nanoTime();
+			assertTrue(sendAndCount(sender, receiver, 1) == 1);
+			assertTrue(System.nanoTime() - start >= 45000000L);
+
+			emulator.shutdown();
+			TransportLayer.setNetworkEmulator(sender, null);
+		} catch (IOException | UtilByteException | UtilDatagramException | PacketException e) {
+			fail(e);
+		}
+	}
+
+	/**
+	 * Send packets, and count how many are received (until none arrives for a while).
+	 * @param sender socket to send with
+	 * @param receiver socket to receive with
+	 * @param nrOfPackets to send
+	 * @return number of packets received
+	 */
+	private static int sendAndCount(DatagramSocket sender, DatagramSocket receiver,
+			int nrOfPackets) throws IOException, UtilByteException, UtilDatagramException,
+			PacketException {
+		InetAddress loopback = InetAddress.getLoopbackAddress();
+		for (int i = 0; i < nrOfPackets; i++) {
+			Packet test = new Packet(i, null, 0, loopback, receiver.getLocalPort(),
+					"data".getBytes());
+			TransportLayer.sendPacket(sender, test, receiver.getLocalPort());
+		}
+
+		int received = 0;
+		receiver.setSoTimeout(200);
+		try {
+			while (true) {
+				TransportLayer.receivePacket(receiver);
+				received++;
+			}
+		} catch (SocketTimeoutException e) {
+			return received;
+		}
+	}
+
+}
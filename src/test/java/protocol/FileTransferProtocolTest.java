@@ -0,0 +1,34 @@
+package protocol;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the helper methods of the FileTransferProtocol.
+ * @author huub.lievestro
+ *
+ */
+public class FileTransferProtocolTest {
+
+	@Test
+	void testCountPackets() {
+		assertTrue(FileTransferProtocol.countPackets(0, 1000) == 1);
+		assertTrue(FileTransferProtocol.countPackets(999, 1000) == 1);
+		assertTrue(FileTransferProtocol.countPackets(1000, 1000) == 2);
+
+		long largeFile = 300L * 1024 * 1024 * 1024; // beyond int sizes and offsets
+		int payloadLength = FileTransferProtocol.MAX_PAYLOAD_LENGTH;
+		int packets = FileTransferProtocol.countPackets(largeFile, payloadLength);
+		assertTrue((long) (packets - 1) * payloadLength <= largeFile);
+		assertTrue((long) packets * payloadLength > largeFile);
+	}
+
+	@Test
+	void testTooManyPackets() {
+		assertThrows(IllegalArgumentException.class, 
+				() -> FileTransferProtocol.countPackets(Long.MAX_VALUE, 1000));
+	}
+
+}
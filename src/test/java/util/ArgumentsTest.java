@@ -0,0 +1,31 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the Arguments utilities.
+ * @author huub.lievestro
+ *
+ */
+public class ArgumentsTest {
+
+	@Test
+	void testPositiveNumber() {
+		assertTrue(Arguments.isPositiveNumber("1", Integer.MAX_VALUE));
+		assertTrue(Arguments.isPositiveNumber("1500", Integer.MAX_VALUE));
+		assertTrue(Arguments.isPositiveNumber(String.valueOf(Integer.MAX_VALUE), Integer.MAX_VALUE));
+	}
+
+	@Test
+	void testInvalidNumber() {
+		assertFalse(Arguments.isPositiveNumber("0", Integer.MAX_VALUE));
+		assertFalse(Arguments.isPositiveNumber("-1", Integer.MAX_VALUE));
+		assertFalse(Arguments.isPositiveNumber("2147483648", Integer.MAX_VALUE));
+		assertFalse(Arguments.isPositiveNumber("1k", Long.MAX_VALUE));
+		assertFalse(Arguments.isPositiveNumber("", Long.MAX_VALUE));
+	}
+
+}
@@ -4,6 +4,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.net.DatagramPacket;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
@@ -11,6 +12,7 @@ import org.junit.jupiter.api.Test;
 import exceptions.PacketException;
 import exceptions.UtilDatagramException;
 import network.Packet;
+import protocol.FileTransferProtocol;
 
 /**
  * Tests for the Datagram utilities.
@@ -25,12 +27,14 @@ public class DatagramTest {
 		int mockId = 1;
 		int mockByteOffset = 5;
 		int mockPayloadLength = 10;
+		int mockConnectionId = 4097;
 		byte[] mockPayload = new byte[mockPayloadLength];
 		
 		int mockDestPort = 1234;
 		
 		try {
 			Packet test = new Packet(mockId, null, 0, null, 0, mockPayload, mockByteOffset);
+			test.setConnectionId(mockConnectionId);
 			
 			DatagramPacket testDatagram = util.Datagram.buildDatagram(test, mockDestPort);
 			
@@ -44,10 +48,57 @@ public class DatagramTest {
 			int testByteOffset = util.Datagram.getHeaderByteOffset(testDatagram.getData());
 			assertTrue(testByteOffset == mockByteOffset);
 
+			int testConnectionId = util.Datagram.getHeaderConnectionId(testDatagram.getData());
+			assertTrue(testConnectionId == mockConnectionId);
+
 		} catch (PacketException | UtilDatagramException e) {
 			fail();
 			e.printStackTrace();
 		}
 	}
+	
+	@Test
+	void testPayloadView() {
+		byte[] mockPayload = "SACK;payload".getBytes();
+		
+		try {
+			Packet test = new Packet(1, null, 0, null, 0, mockPayload, 5);
+			assertTrue(test.payloadBytesEqual("payload".getBytes()));
+			assertTrue(!test.payloadBytesEqual("pay".getBytes()));
+			
+			ByteBuffer view = test.getPayloadView();
+			assertTrue(view.remaining() == 7 && view.get(0) == 'p');
+			assertTrue(view.equals(ByteBuffer.wrap(test.getPayloadBytes())));
+			assertTrue(view.isReadOnly());
+		} catch (PacketException e) {
+			fail();
+		}
+	}
+	
+	@Test
+	void testPacketSizeLimits() {
+		byte[] largestPayload = new byte[FileTransferProtocol.MAX_PAYLOAD_LENGTH];
+		
+		try {
+			Packet test = new Packet(1, null, 0, null, 0, largestPayload, 0);
+			DatagramPacket testDatagram = util.Datagram.buildDatagram(test, 1234);
+			assertTrue(testDatagram.getLength() == FileTransferProtocol.MAX_PACKET_SIZE);
+		} catch (PacketException | UtilDatagramException e) {
+			fail();
+		}
+		
+		try {
+			new Packet(1, null, 0, null, 0, new byte[largestPayload.length + 1], 0);
+			fail();
+		} catch (PacketException e) {
+			// expected: payload too large
+		}
+		
+		assertTrue(FileTransferProtocol.negotiatePacketSize(0, FileTransferProtocol.MAX_PACKET_SIZE)
+				== FileTransferProtocol.DEFAULT_PACKET_SIZE);
+		assertTrue(FileTransferProtocol.negotiatePacketSize(9000, 4096) == 4096);
+		assertTrue(FileTransferProtocol.negotiatePacketSize(100000, 100000) 
+				== FileTransferProtocol.MAX_PACKET_SIZE);
+	}
 
 }
@@ -0,0 +1,47 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import exceptions.UtilByteException;
+import protocol.FileTransferProtocol;
+
+/**
+ * Tests for the HeaderCodec.
+ * @author huub.lievestro
+ *
+ */
+public class HeaderCodecTest {
+
+	@Test
+	void testWriteAndRead() {
+		byte[] data = new byte[FileTransferProtocol.TOTAL_HEADER_SIZE + 8];
+		HeaderCodec codec = new HeaderCodec(data);
+		codec.writeHeader(FileTransferProtocol.MAX_ID, 5, 4097);
+
+		assertTrue(codec.getId() == FileTransferProtocol.MAX_ID);
+		assertTrue(codec.getHeaderLength() == FileTransferProtocol.TOTAL_HEADER_SIZE);
+		assertTrue(codec.getByteOffset() == 5);
+		assertTrue(codec.getConnectionId() == 4097);
+		assertTrue(codec.getPayloadStart() == FileTransferProtocol.PAYLOAD_START);
+
+		// same encoding as ByteBuffer (big-endian)
+		assertTrue(ByteBuffer.wrap(data).getInt(FileTransferProtocol.HEADER_CONNECTION_ID_START)
+				== 4097);
+	}
+
+	@Test
+	void testSameAsPrevious() throws UtilByteException {
+		byte[] data = new byte[4];
+		for (int value : new int[] {0, 1, 255, 256, 65535, 16777216, Integer.MAX_VALUE}) {
+			HeaderCodec.writeInt(data, 0, value);
+			assertTrue(Arrays.equals(data, util.Bytes.int2ByteArray(value)));
+			assertTrue(HeaderCodec.readInt(data, 0) == util.Bytes.byteArray2int(data));
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package util;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the Logger and its LogRingBuffer.
+ * @author huub.lievestro
+ *
+ */
+public class LoggerTest {
+
+	@Test
+	void testRingBufferOrderAndFull() {
+		LogRingBuffer buffer = new LogRingBuffer(4);
+		LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+		assertTrue(buffer.getCapacity() == 4);
+		assertFalse(buffer.poll(entry));
+
+		for (int lap = 0; lap < 3; lap++) { // slots are reused
+			for (int i = 0; i < 4; i++) {
+				assertTrue(buffer.offer(Logger.Level.INFO, "test", "message " + i));
+			}
+			assertFalse(buffer.offer(Logger.Level.INFO, "test", "too many"));
+			for (int i = 0; i < 4; i++) {
+				assertTrue(buffer.poll(entry));
+				assertTrue(entry.message.equals("message " + i));
+			}
+			assertFalse(buffer.poll(entry));
+		}
+		assertTrue(buffer.takeDropped() == 3);
+		assertTrue(buffer.takeDropped() == 0);
+	}
+
+	@Test
+	void testConcurrentOffers() throws InterruptedException {
+		int nrOfThreads = 4;
+		int perThread = 1000;
+		LogRingBuffer buffer = new LogRingBuffer(nrOfThreads * perThread);
+		Thread[] threads = new Thread[nrOfThreads];
+		for (int t = 0; t < nrOfThreads; t++) {
+			String name = "thread" + t;
+			threads[t] = new Thread(() -> {
+				for (int i = 0; i < perThread; i++) {
+					buffer.offer(Logger.Level.INFO, name, String.valueOf(i));
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		Set<String> received = new HashSet<>();
+		LogRingBuffer.Entry entry = new LogRingBuffer.Entry();
+		while (buffer.poll(entry)) {
+			received.add(entry.name + ":" + entry.message);
+		}
+		assertTrue(received.size() == nrOfThreads * perThread);
+	}
+
+	@Test
+	void testLevels() {
+		Logger logger = Logger.getLogger("test");
+		assertTrue(logger.isEnabled(Logger.Level.INFO));
+		assertFalse(logger.isDebugEnabled());
+
+		Logger.configure("warning,test=trace");
+		assertTrue(logger.isEnabled(Logger.Level.TRACE));
+		assertFalse(Logger.getLogger("other").isEnabled(Logger.Level.INFO));
+
+		Logger.setLevel("test", null); // default level again
+		assertFalse(logger.isEnabled(Logger.Level.INFO));
+		assertTrue(logger.isEnabled(Logger.Level.ERROR));
+		Logger.setDefaultLevel(Logger.Level.INFO);
+
+		assertTrue(Logger.isValidConfiguration("debug,upload=off"));
+		assertFalse(Logger.isValidConfiguration("loud"));
+		assertTrue(Logger.format(Logger.Level.ERROR, "name", "text").equals("[name]>ERROR: text"));
+		assertTrue(Logger.format(Logger.Level.INFO, "name", "text").equals("[name]: text"));
+	}
+
+}
@@ -1,12 +1,21 @@
 package util;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
 public class TimeOutTest implements util.ITimeoutEventHandler {
 	boolean timeOutHandled;
 	
+	AtomicInteger timeOutsHandled = new AtomicInteger(0);
+	
 	@Test
 	void testTimeOut() {
 
@@ -24,14 +33,60 @@ public class TimeOutTest implements util.ITimeoutEventHandler {
 		} 
 
 		assertTrue(this.timeOutHandled);
+		util.TimeOut.stop();
+	}
+	
+	@Test
+	void testManyTimeOuts() {
+		int numberOfTimeOuts = 10000;
+		util.TimeOut.start();
+		
+		CountDownLatch allHandled = new CountDownLatch(numberOfTimeOuts);
+		for (int i = 0; i < numberOfTimeOuts; i++) {
+			// spread over more than one turn of the wheel
+			util.TimeOut.setTimeOut(i % 1500, tag -> {
+				this.timeOutsHandled.incrementAndGet();
+				allHandled.countDown();
+			}, Integer.valueOf(i)); 
+		}
+		
+		try {
+			assertTrue(allHandled.await(1500 + 5000, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			fail(e);
+		} finally {
+			util.TimeOut.stop();
+		}
+		assertEquals(numberOfTimeOuts, this.timeOutsHandled.get());
+	}
 
+	@Test
+	void testCancelTimeOut() {
+		this.timeOutHandled = false;
+		int timeOutTime = 100; // milliseconds
+		util.TimeOut.start();
+		
+		util.TimeOutEntry handle = util.TimeOut.setTimeOut(timeOutTime, this, new Object());
+		assertTrue(handle.cancel());
+		assertFalse(handle.cancel()); // already cancelled
+		
+		CountDownLatch laterHandled = new CountDownLatch(1); // elapses after the cancelled one
+		util.TimeOut.setTimeOut(timeOutTime + 100, tag -> laterHandled.countDown(), new Object());
+		try {
+			assertTrue(laterHandled.await(timeOutTime + 5000, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException e) {
+			fail(e);
+		} finally {
+			util.TimeOut.stop();
+		}
+		
+		assertTrue(handle.isCancelled());
+		assertFalse(this.timeOutHandled);
 	}
 
 	@Override
 	public void timeoutElapsed(Object tag) {
 		this.timeOutHandled = true;
-
 	}
 
 }
-